@@ -0,0 +1,76 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialization of a whole {@link AutoList} in each response format, i.e. the cost an
+ * unpaged response would pay. Bytes on the wire, raw and gzipped, are printed once per
+ * trial since JMH only reports time.
+ */
+@State(Scope.Benchmark)
+public class AutoListSerializationBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"json", "table", "cbor", "smile"})
+    public String format;
+
+    private ObjectMapper objectMapper;
+    private Object body;
+
+    @Setup
+    public void setUp() throws IOException {
+        AutoList autoList = new AutoList(BenchmarkInventory.autos(size));
+        switch (format) {
+            case "json":
+                objectMapper = new ObjectMapper();
+                body = autoList;
+                break;
+            case "table":
+                objectMapper = new ObjectMapper();
+                body = new AutoTable(autoList);
+                break;
+            case "cbor":
+                objectMapper = new ObjectMapper(new CBORFactory());
+                body = autoList;
+                break;
+            case "smile":
+                objectMapper = new ObjectMapper(new SmileFactory());
+                body = autoList;
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+        System.out.printf(Locale.ROOT, "%n%s x %d: %d bytes, %d gzipped%n",
+                format, size, serialize().length, serializeAndGzip().length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    // What a response above server.compression.min-response-size costs the server.
+    @Benchmark
+    public byte[] serializeAndGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(gzip, body);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.galvanize.autos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * AutosService against H2 at increasing inventory sizes. Page reads should stay flat as
+ * {@code rows} grows; anything that scans the table will not.
+ */
+@State(Scope.Benchmark)
+public class AutosServiceBenchmark {
+
+    private static final List<String> PROJECTION = List.of("vin", "make", "model");
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private AutosService autosService;
+    private String lastPageCursor;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkInventory.start("autos-service-" + rows);
+        BenchmarkInventory.seed(context.getBean(JdbcTemplate.class), rows);
+        autosService = context.getBean(AutosService.class);
+        lastPageCursor = AutoCursor.encode(rows - AutosService.DEFAULT_PAGE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public AutoList getAutosFirstPage() {
+        return autosService.getAutos();
+    }
+
+    @Benchmark
+    public AutoList getAutosLastPage() {
+        return autosService.getAutos(lastPageCursor, AutosService.DEFAULT_PAGE_SIZE);
+    }
+
+    // Same page as getAutosFirstPage, selecting three columns instead of hydrating entities.
+    @Benchmark
+    public ProjectedAutoList getAutosFirstPageProjected() {
+        return autosService.getAutos("", "", null, AutosService.DEFAULT_PAGE_SIZE, PROJECTION);
+    }
+
+    // Terms the search vocabulary knows, so this runs as IN lists over the indexed columns.
+    @Benchmark
+    public AutoList getAutosFilteredKnownTerms() {
+        return autosService.getAutos("red", "toy");
+    }
+
+    // A term nothing matches falls back to LIKE and has to look at every row.
+    @Benchmark
+    public AutoList getAutosFilteredUnknownTerm() {
+        return autosService.getAutos("", "zzz");
+    }
+
+    @Benchmark
+    public Automobile getAuto() {
+        return autosService.getAuto(randomVin());
+    }
+
+    @Benchmark
+    public Automobile updateAuto() {
+        return autosService.updateAuto(randomVin(), "Benchmark Owner", "Blue");
+    }
+
+    private String randomVin() {
+        return BenchmarkInventory.vin(ThreadLocalRandom.current().nextInt(rows) + 1);
+    }
+}
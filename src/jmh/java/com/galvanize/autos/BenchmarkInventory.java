@@ -0,0 +1,95 @@
+package com.galvanize.autos;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Shared fixtures for the benchmarks: an application context on a private in-memory H2
+ * database and a deterministic synthetic inventory.
+ */
+final class BenchmarkInventory {
+
+    static final String[] MAKES = {"Ford", "Toyota", "Honda", "Tesla", "Chevrolet", "Nissan", "Kia", "Subaru"};
+    static final String[] MODELS = {"Fusion", "Camry", "Accord", "Model 3", "Malibu", "Altima", "Soul", "Outback"};
+    static final String[] COLORS = {"Red", "Blue", "Black", "Gold", "Silver", "White", "Dark Red", "Forest Green"};
+
+    private static final int INSERT_BATCH = 5_000;
+
+    private BenchmarkInventory() { }
+
+    /**
+     * @param properties extra {@code name=value} settings; they override the test profile
+     */
+    static ConfigurableApplicationContext start(String database, String... properties) {
+        return start(database, WebApplicationType.NONE, properties);
+    }
+
+    /**
+     * Starts the full application, on a random port unless {@code web} is NONE. REACTIVE
+     * also switches on the reactive profile and points its R2DBC pool at the same database.
+     */
+    static ConfigurableApplicationContext start(String database, WebApplicationType web, String... properties) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                "--autos.reactive.r2dbc.url=r2dbc:h2:mem:///" + database,
+                "--server.port=0",
+                "--logging.level.root=WARN"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        List<String> profiles = new ArrayList<>(List.of("test"));
+        if (web == WebApplicationType.REACTIVE) {
+            profiles.add("reactive");
+        }
+        return new SpringApplicationBuilder(AutosApiApplication.class)
+                .web(web)
+                .profiles(profiles.toArray(new String[0]))
+                .run(args.toArray(new String[0]));
+    }
+
+    static String vin(long id) {
+        return String.format(Locale.ROOT, "BENCH%012d", id);
+    }
+
+    static List<Automobile> autos(int rows) {
+        Random random = new Random(42);
+        List<Automobile> autos = new ArrayList<>(rows);
+        for (long id = 1; id <= rows; id++) {
+            int make = random.nextInt(MAKES.length);
+            Automobile auto = new Automobile(1990 + random.nextInt(32), MAKES[make], MODELS[make], vin(id));
+            auto.setColor(COLORS[random.nextInt(COLORS.length)]);
+            auto.setOwner("Owner " + random.nextInt(rows));
+            auto.setId(id);
+            autos.add(auto);
+        }
+        return autos;
+    }
+
+    /**
+     * Inserts {@code rows} autos with ids 1..rows straight through JDBC; going through JPA
+     * would make seeding a million rows the slowest part of the run.
+     */
+    static void seed(JdbcTemplate jdbc, int rows) {
+        List<Automobile> autos = autos(rows);
+        String sql = "insert into automobiles (id, year, make, model, color, owner, vin, make_normalized, " +
+                "color_normalized, version) values (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+        for (int from = 0; from < autos.size(); from += INSERT_BATCH) {
+            List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+            for (Automobile auto : autos.subList(from, Math.min(from + INSERT_BATCH, autos.size()))) {
+                batch.add(new Object[]{auto.getId(), auto.getYear(), auto.getMake(), auto.getModel(), auto.getColor(),
+                        auto.getOwner(), auto.getVin(), Automobile.normalize(auto.getMake()),
+                        Automobile.normalize(auto.getColor())});
+            }
+            jdbc.batchUpdate(sql, batch);
+        }
+        // The pooled optimizer hands out (value - 49)..value, so leave a full block of headroom.
+        jdbc.execute("alter sequence automobiles_seq restart with " + (rows + 51));
+    }
+}
@@ -0,0 +1,87 @@
+package com.galvanize.autos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through the real HTTP stack with many concurrent clients, servlet
+ * against reactive. Both sides get a 10-connection pool, so once it is saturated the
+ * servlet stack queues request threads on it while the reactive one queues only work.
+ * H2 runs in-process, so absolute numbers flatter JDBC; compare the two against Postgres
+ * by passing {@code spring.datasource.url} and {@code autos.reactive.r2dbc.url}.
+ * {@code listBodies} switches the servlet side's serialized-body cache on; the rows are
+ * seeded before the first request, so it holds no stale page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class ReadPathThroughputBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    @Param({"SERVLET", "REACTIVE"})
+    public WebApplicationType stack;
+
+    @Param({"false", "true"})
+    public boolean listBodies;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkInventory.start("read-path-" + stack + "-" + listBodies, stack,
+                "spring.datasource.hikari.maximum-pool-size=10",
+                "autos.cache.list-bodies.enabled=" + listBodies,
+                "autos.reactive.r2dbc.pool.max-size=10");
+        BenchmarkInventory.seed(context.getBean(JdbcTemplate.class), ROWS);
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int getAutosPage() throws IOException, InterruptedException {
+        return get("/api/autos");
+    }
+
+    // The servlet side answers most of these from VinCache; the reactive side always queries.
+    @Benchmark
+    public int getAutoByVin() throws IOException, InterruptedException {
+        return get("/api/autos/" + BenchmarkInventory.vin(ThreadLocalRandom.current().nextInt(ROWS) + 1));
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " returned " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,68 @@
+package com.galvanize.autos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from starting the application to its first successful {@code GET /api/autos}, with and
+ * without the fast-start profile. Startup alone would flatter lazy initialization, which moves
+ * work into that first request. Each fork is one cold JVM; the Gradle {@code jmh} block's
+ * defaults override these annotations, so run it from the JMH jar with {@code -bm ss} for
+ * cold numbers, and with {@code -jvmArgsAppend -XX:SharedArchiveFile=...} to see what the
+ * {@code cdsArchive} task buys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fastStart;
+
+    private int starts;
+    private ConfigurableApplicationContext context;
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+            context = null;
+        }
+    }
+
+    @Benchmark
+    public int startAndGetAutos() throws IOException, InterruptedException {
+        context = BenchmarkInventory.start("startup-" + fastStart + "-" + starts++, WebApplicationType.SERVLET,
+                fastStart ? "spring.profiles.include=fast-start" : "spring.main.lazy-initialization=false");
+        String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/autos")).GET().build();
+        HttpResponse<Void> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+        // An empty inventory answers 204.
+        if (response.statusCode() != 200 && response.statusCode() != 204) {
+            throw new IllegalStateException("/api/autos returned " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
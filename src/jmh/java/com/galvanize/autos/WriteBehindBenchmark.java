@@ -0,0 +1,88 @@
+package com.galvanize.autos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bursty owner/color updates over a small set of hot VINs, written straight through and
+ * through the write-behind buffer. JMH reports accepted updates per second; the commits
+ * behind them are counted from the inventory revision, which every write transaction bumps
+ * once, and printed after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class WriteBehindBenchmark {
+
+    private static final int ROWS = 10_000;
+    private static final String[] COLORS = BenchmarkInventory.COLORS;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    @Param({"100", "10000"})
+    public int hotVins;
+
+    private ConfigurableApplicationContext context;
+    private AutosService autosService;
+    private JdbcTemplate jdbc;
+    private long revisionBefore;
+    private long startedAt;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkInventory.start("write-behind-" + writeBehind + "-" + hotVins,
+                "autos.write-behind.enabled=" + writeBehind);
+        jdbc = context.getBean(JdbcTemplate.class);
+        BenchmarkInventory.seed(jdbc, ROWS);
+        autosService = context.getBean(AutosService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        revisionBefore = revision();
+        startedAt = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCommits() {
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        System.out.printf(Locale.ROOT, "%ncommits/s: %.1f%n", (revision() - revisionBefore) / seconds);
+    }
+
+    @Benchmark
+    public Automobile updateAuto() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String vin = BenchmarkInventory.vin(random.nextInt(hotVins) + 1);
+        String color = COLORS[random.nextInt(COLORS.length)];
+        return writeBehind
+                ? autosService.acceptUpdate(vin, "Fleet " + random.nextInt(100), color)
+                : autosService.updateAuto(vin, "Fleet " + random.nextInt(100), color);
+    }
+
+    private long revision() {
+        Long revision = jdbc.queryForObject("select revision from inventory_revision", Long.class);
+        return revision == null ? 0 : revision;
+    }
+}
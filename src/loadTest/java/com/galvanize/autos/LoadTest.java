@@ -0,0 +1,294 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load test: seeds {@link SyntheticInventory} into H2 in PostgreSQL mode, starts the
+ * application on it and drives the {@link AutosController} endpoints from {@code concurrency}
+ * closed-loop clients, each picking endpoints by the weights in {@code mix}. Requests during
+ * {@code warmup} are not counted. Writes the per-endpoint throughput, status counts and
+ * p50/p95/p99/p999 latency to {@code report} as JSON and prints a summary.
+ * <p>
+ * Run with {@code ./gradlew loadTest}; settings are {@code -Dloadtest.*} system properties,
+ * see {@link #main}. H2 in-process is not Postgres, so compare reports with each other, not
+ * with production.
+ */
+public class LoadTest {
+
+    enum Endpoint {
+        LIST, SEARCH, VIN, FACETS, PATCH
+    }
+
+    private final long vehicles;
+    private final int concurrency;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Map<Endpoint, Integer> mix;
+    private final long seed;
+    private final SyntheticInventory inventory;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private final Map<Endpoint, Histogram> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, ConcurrentMap<Integer, AtomicLong>> statuses = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, AtomicLong> failures = new EnumMap<>(Endpoint.class);
+    private String baseUrl;
+    private long measuredNanos;
+
+    LoadTest(long vehicles, int concurrency, Duration warmup, Duration duration, Map<Endpoint, Integer> mix, long seed) {
+        this.vehicles = vehicles;
+        this.concurrency = concurrency;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.mix = mix;
+        this.seed = seed;
+        this.inventory = new SyntheticInventory(seed);
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new ConcurrentHistogram(3));
+            statuses.put(endpoint, new ConcurrentHashMap<>());
+            failures.put(endpoint, new AtomicLong());
+        }
+    }
+
+    /**
+     * Settings: {@code loadtest.vehicles} (1000000), {@code loadtest.concurrency} (32),
+     * {@code loadtest.warmup} (10s), {@code loadtest.duration} (60s), {@code loadtest.seed} (42),
+     * {@code loadtest.report} (loadtest-report.json) and {@code loadtest.mix}, endpoint weights
+     * such as {@code vin=40,search=25,list=20,patch=10,facets=5}. Arguments are passed on to
+     * the application, e.g. {@code --autos.write-behind.enabled=true}.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest(
+                Long.getLong("loadtest.vehicles", 1_000_000),
+                Integer.getInteger("loadtest.concurrency", 32),
+                DurationStyle.detectAndParse(System.getProperty("loadtest.warmup", "10s")),
+                DurationStyle.detectAndParse(System.getProperty("loadtest.duration", "60s")),
+                parseMix(System.getProperty("loadtest.mix", "vin=40,search=25,list=20,patch=10,facets=5")),
+                Long.getLong("loadtest.seed", 42));
+        Path report = Path.of(System.getProperty("loadtest.report", "loadtest-report.json"));
+
+        try (ConfigurableApplicationContext context = start(args)) {
+            long seeding = System.nanoTime();
+            loadTest.inventory.seed(context.getBean(JdbcTemplate.class), loadTest.vehicles);
+            System.out.printf(Locale.ROOT, "Seeded %d vehicles in %.1fs%n", loadTest.vehicles, (System.nanoTime() - seeding) / 1e9);
+            loadTest.baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            loadTest.run();
+        }
+
+        Map<String, Object> results = loadTest.report();
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report.toFile(), results);
+        loadTest.printSummary();
+        System.out.println("Report: " + report.toAbsolutePath());
+    }
+
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected endpoint=weight in loadtest.mix, got " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Endpoint.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix has no endpoint with a positive weight");
+        }
+        return weights;
+    }
+
+    private static ConfigurableApplicationContext start(String[] args) {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                "--autos.reactive.r2dbc.url=r2dbc:h2:mem:///loadtest",
+                "--server.port=0",
+                "--logging.level.root=WARN"));
+        arguments.addAll(List.of(args));
+        return new SpringApplicationBuilder(AutosApiApplication.class)
+                .web(WebApplicationType.SERVLET)
+                .profiles("test")
+                .run(arguments.toArray(new String[0]));
+    }
+
+    void run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            SplittableRandom random = new SplittableRandom(seed + i);
+            Thread client = new Thread(() -> {
+                try {
+                    drive(random, measureFrom, end);
+                } finally {
+                    done.countDown();
+                }
+            }, "loadtest-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        measuredNanos = System.nanoTime() - measureFrom;
+    }
+
+    private void drive(SplittableRandom random, long measureFrom, long end) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            Endpoint endpoint = pick(random.nextInt(total));
+            HttpRequest request = request(endpoint, random);
+            int status;
+            try {
+                status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long finished = System.nanoTime();
+            if (now < measureFrom) {
+                continue;
+            }
+            latencies.get(endpoint).recordValue(finished - now);
+            statuses.get(endpoint).computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+            if (status < 200 || status >= 300) {
+                failures.get(endpoint).incrementAndGet();
+            }
+        }
+    }
+
+    private Endpoint pick(int ticket) {
+        for (Map.Entry<Endpoint, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private HttpRequest request(Endpoint endpoint, SplittableRandom random) {
+        String vin = inventory.vin(1 + random.nextLong(vehicles));
+        switch (endpoint) {
+            case LIST:
+                return get("/api/autos");
+            case SEARCH:
+                return random.nextBoolean()
+                        ? get("/api/autos?make=" + encode(inventory.make(random)))
+                        : get("/api/autos?make=" + encode(inventory.make(random)) + "&color=" + encode(inventory.color(random)));
+            case VIN:
+                return get("/api/autos/" + vin);
+            case FACETS:
+                return get("/api/autos/facets?make=" + encode(inventory.make(random)));
+            case PATCH:
+                String body = "{\"owner\":\"Owner " + random.nextInt(1_000_000) + "\",\"color\":\"" + inventory.color(random) + "\"}";
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/api/autos/" + vin))
+                        .header("Content-Type", "application/json")
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+            default:
+                throw new IllegalArgumentException(endpoint.name());
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("vehicles", vehicles);
+        report.put("concurrency", concurrency);
+        report.put("warmupSeconds", warmup.toSeconds());
+        report.put("measuredSeconds", measuredNanos / 1e9);
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        mix.forEach((endpoint, weight) -> weights.put(name(endpoint), weight));
+        report.put("mix", weights);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        Histogram all = new Histogram(3);
+        for (Endpoint endpoint : mix.keySet()) {
+            Histogram histogram = latencies.get(endpoint);
+            all.add(histogram);
+            Map<String, Object> result = summary(histogram);
+            result.put("errors", failures.get(endpoint).get());
+            Map<String, Long> codes = new LinkedHashMap<>();
+            statuses.get(endpoint).forEach((status, count) -> codes.put(String.valueOf(status), count.get()));
+            result.put("statuses", codes);
+            endpoints.put(name(endpoint), result);
+        }
+        report.put("endpoints", endpoints);
+        report.put("total", summary(all));
+        return report;
+    }
+
+    private Map<String, Object> summary(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", histogram.getTotalCount());
+        summary.put("throughput", histogram.getTotalCount() / (measuredNanos / 1e9));
+        Map<String, Double> millis = new LinkedHashMap<>();
+        millis.put("p50", percentile(histogram, 50));
+        millis.put("p95", percentile(histogram, 95));
+        millis.put("p99", percentile(histogram, 99));
+        millis.put("p999", percentile(histogram, 99.9));
+        millis.put("max", histogram.getMaxValue() / 1e6);
+        summary.put("latencyMillis", millis);
+        return summary;
+    }
+
+    private void printSummary() {
+        System.out.printf(Locale.ROOT, "%-8s %10s %10s %8s %8s %8s %8s %8s%n",
+                "endpoint", "requests", "req/s", "errors", "p50 ms", "p95 ms", "p99 ms", "p999 ms");
+        for (Endpoint endpoint : mix.keySet()) {
+            Histogram histogram = latencies.get(endpoint);
+            System.out.printf(Locale.ROOT, "%-8s %10d %10.1f %8d %8.2f %8.2f %8.2f %8.2f%n", name(endpoint),
+                    histogram.getTotalCount(), histogram.getTotalCount() / (measuredNanos / 1e9),
+                    failures.get(endpoint).get(), percentile(histogram, 50), percentile(histogram, 95),
+                    percentile(histogram, 99), percentile(histogram, 99.9));
+        }
+    }
+
+    private static double percentile(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private static String name(Endpoint endpoint) {
+        return endpoint.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,157 @@
+package com.galvanize.autos;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A deterministic synthetic inventory shaped like a real one: a few makes and colors account
+ * for most vehicles (Zipf weights), model years lean recent, and every VIN is a valid 17
+ * character VIN with the maker's WMI, a model year code and a correct check digit.
+ * <p>
+ * Vehicle {@code id} is a pure function of the seed and the id, so the load driver can pick
+ * existing VINs without keeping a million of them in memory.
+ */
+final class SyntheticInventory {
+
+    // In order of popularity; each with its WMI and a few models.
+    static final String[] MAKES = {"Toyota", "Ford", "Chevrolet", "Honda", "Nissan", "Hyundai", "Kia", "Jeep",
+            "Subaru", "Volkswagen", "BMW", "Tesla"};
+    private static final String[] WMIS = {"JTD", "1FA", "1G1", "1HG", "1N4", "KMH", "KNA", "1C4",
+            "JF1", "3VW", "WBA", "5YJ"};
+    private static final String[][] MODELS = {
+            {"Camry", "Corolla", "RAV4"}, {"F-150", "Escape", "Explorer"}, {"Silverado", "Malibu", "Equinox"},
+            {"Civic", "Accord", "CR-V"}, {"Altima", "Rogue", "Sentra"}, {"Elantra", "Tucson", "Sonata"},
+            {"Soul", "Sportage", "Forte"}, {"Wrangler", "Cherokee", "Compass"}, {"Outback", "Forester", "Impreza"},
+            {"Jetta", "Tiguan", "Golf"}, {"3 Series", "X3", "X5"}, {"Model 3", "Model Y", "Model S"}};
+    static final String[] COLORS = {"White", "Black", "Gray", "Silver", "Blue", "Red", "Brown", "Green",
+            "Gold", "Orange", "Yellow", "Forest Green", "Dark Red", "Beige"};
+
+    private static final int NEWEST_YEAR = 2024;
+    private static final int OLDEST_YEAR = 1981;
+    private static final String VIN_CHARS = "0123456789ABCDEFGHJKLMNPRSTUVWXYZ";
+    private static final String YEAR_CODES = "ABCDEFGHJKLMNPRSTVWXY123456789";
+    // A..Z; I, O and Q never appear.
+    private static final String TRANSLITERATION = "12345678012345070923456789";
+    private static final int[] VIN_WEIGHTS = {8, 7, 6, 5, 4, 3, 2, 10, 0, 9, 8, 7, 6, 5, 4, 3, 2};
+    private static final int INSERT_BATCH = 10_000;
+
+    private final long seed;
+    private final double[] makeWeights = zipf(MAKES.length, 1.1);
+    private final double[] colorWeights = zipf(COLORS.length, 1.3);
+
+    SyntheticInventory(long seed) {
+        this.seed = seed;
+    }
+
+    Automobile vehicle(long id) {
+        SplittableRandom random = new SplittableRandom(seed * 1_000_003L + id);
+        int make = pick(makeWeights, random.nextDouble());
+        int year = Math.max(OLDEST_YEAR, NEWEST_YEAR - (int) (-Math.log(1 - random.nextDouble()) * 6));
+        String model = MODELS[make][random.nextInt(MODELS[make].length)];
+        Automobile auto = new Automobile(year, MAKES[make], model, vin(make, year, id, random));
+        auto.setColor(COLORS[pick(colorWeights, random.nextDouble())]);
+        auto.setOwner("Owner " + random.nextInt(1_000_000));
+        auto.setId(id);
+        return auto;
+    }
+
+    String vin(long id) {
+        return vehicle(id).getVin();
+    }
+
+    /**
+     * A make or color drawn with the inventory's own skew, for search traffic.
+     */
+    String make(SplittableRandom random) {
+        return MAKES[pick(makeWeights, random.nextDouble())];
+    }
+
+    String color(SplittableRandom random) {
+        return COLORS[pick(colorWeights, random.nextDouble())];
+    }
+
+    /**
+     * Inserts vehicles 1..rows straight through JDBC and moves the id sequence past them.
+     */
+    void seed(JdbcTemplate jdbc, long rows) {
+        String sql = "insert into automobiles (id, year, make, model, color, owner, vin, make_normalized, " +
+                "color_normalized, version, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?)";
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+        for (long id = 1; id <= rows; id++) {
+            Automobile auto = vehicle(id);
+            batch.add(new Object[]{id, auto.getYear(), auto.getMake(), auto.getModel(), auto.getColor(), auto.getOwner(),
+                    auto.getVin(), Automobile.normalize(auto.getMake()), Automobile.normalize(auto.getColor()), now});
+            if (batch.size() == INSERT_BATCH || id == rows) {
+                jdbc.batchUpdate(sql, batch);
+                batch.clear();
+            }
+        }
+        // The pooled optimizer hands out (value - 49)..value, so leave a full block of headroom.
+        jdbc.execute("alter sequence automobiles_seq restart with " + (rows + 51));
+    }
+
+    // WMI, five descriptor characters, check digit, year code, plant, then the id as a six
+    // character serial, which keeps VINs unique for over a billion vehicles.
+    private static String vin(int make, int year, long id, SplittableRandom random) {
+        StringBuilder vin = new StringBuilder(17).append(WMIS[make]);
+        for (int i = 0; i < 5; i++) {
+            vin.append(VIN_CHARS.charAt(random.nextInt(VIN_CHARS.length())));
+        }
+        vin.append('0')
+                .append(YEAR_CODES.charAt((year - 1980) % YEAR_CODES.length()))
+                .append(VIN_CHARS.charAt(10 + random.nextInt(VIN_CHARS.length() - 10)));
+        char[] serial = new char[6];
+        long rest = id;
+        for (int i = serial.length - 1; i >= 0; i--) {
+            serial[i] = VIN_CHARS.charAt((int) (rest % VIN_CHARS.length()));
+            rest /= VIN_CHARS.length();
+        }
+        vin.append(serial);
+        vin.setCharAt(8, checkDigit(vin));
+        return vin.toString();
+    }
+
+    static char checkDigit(CharSequence vin) {
+        int sum = 0;
+        for (int i = 0; i < 17; i++) {
+            sum += transliterate(vin.charAt(i)) * VIN_WEIGHTS[i];
+        }
+        int check = sum % 11;
+        return check == 10 ? 'X' : (char) ('0' + check);
+    }
+
+    private static int transliterate(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return TRANSLITERATION.charAt(c - 'A') - '0';
+    }
+
+    private static double[] zipf(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= total;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double u) {
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (u < cumulative[i]) {
+                return i;
+            }
+        }
+        return cumulative.length - 1;
+    }
+}
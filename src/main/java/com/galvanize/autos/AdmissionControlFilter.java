@@ -0,0 +1,206 @@
+package com.galvanize.autos;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for {@code /api/autos}: each endpoint class (list, lookup, write, bulk)
+ * has its own {@link ConcurrencyLimiter}, so when the database slows down requests are
+ * refused with 503 and {@code Retry-After} at the door instead of piling up Tomcat threads
+ * waiting for a pooled connection.
+ * <p>
+ * Batch inserts and bulk PATCH and DELETE by filter take seconds where a single-VIN write
+ * takes milliseconds. They are their own class, so their latency is only ever compared
+ * with theirs and never brings the single-VIN write limit down.
+ * <p>
+ * A request over its class's limit waits up to {@code max-wait} in a queue of
+ * {@code queue-size}. Unfiltered lists are the most expensive and the least urgent, so they
+ * never queue, get only {@code unfiltered-list-share} of the list limit, and are refused
+ * outright while lookups are saturated. The change stream and the export are long-lived
+ * and not limited here, nor are CSV import and export jobs, whose uploads and downloads can
+ * be long and whose work runs on {@link AutoJobs}' own workers.
+ * <p>
+ * Metrics: {@code autos.admission.limit}, {@code .inflight} and {@code .waiting} per class,
+ * and {@code autos.admission.rejected} per class and reason ({@code limit} or {@code shed}).
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(value = "autos.admission.enabled", matchIfMissing = true)
+public class AdmissionControlFilter extends OncePerRequestFilter implements MeterBinder {
+
+    enum EndpointClass {
+        LIST, LOOKUP, WRITE, BULK
+    }
+
+    private static final String AUTOS = "/api/autos";
+    private static final List<String> UNLIMITED = List.of(AUTOS + "/changes", AUTOS + "/export");
+    private static final List<String> JOBS = List.of(AUTOS + "/imports", AUTOS + "/exports");
+    private static final List<String> FILTERS = List.of("color", "make", "makeExact", "minYear", "maxYear");
+
+    private final Map<EndpointClass, ConcurrencyLimiter> limiters;
+    private final double unfilteredListShare;
+    private final String retryAfter;
+    private final Map<EndpointClass, AtomicLong> overLimit = new EnumMap<>(EndpointClass.class);
+    private final AtomicLong shed = new AtomicLong();
+
+    @Autowired
+    public AdmissionControlFilter(@Value("${autos.admission.list.initial-limit:20}") int listLimit,
+                                  @Value("${autos.admission.list.max-limit:100}") int listMaxLimit,
+                                  @Value("${autos.admission.lookup.initial-limit:40}") int lookupLimit,
+                                  @Value("${autos.admission.lookup.max-limit:200}") int lookupMaxLimit,
+                                  @Value("${autos.admission.write.initial-limit:20}") int writeLimit,
+                                  @Value("${autos.admission.write.max-limit:100}") int writeMaxLimit,
+                                  @Value("${autos.admission.bulk.initial-limit:4}") int bulkLimit,
+                                  @Value("${autos.admission.bulk.max-limit:16}") int bulkMaxLimit,
+                                  @Value("${autos.admission.min-limit:2}") int minLimit,
+                                  @Value("${autos.admission.queue-size:20}") int queueSize,
+                                  @Value("${autos.admission.max-wait:50ms}") Duration maxWait,
+                                  @Value("${autos.admission.tolerance:2.0}") double tolerance,
+                                  @Value("${autos.admission.unfiltered-list-share:0.5}") double unfilteredListShare,
+                                  @Value("${autos.admission.retry-after:1s}") Duration retryAfter) {
+        this(Map.of(
+                EndpointClass.LIST, new ConcurrencyLimiter(listLimit, minLimit, listMaxLimit, queueSize, maxWait, tolerance),
+                EndpointClass.LOOKUP, new ConcurrencyLimiter(lookupLimit, minLimit, lookupMaxLimit, queueSize, maxWait, tolerance),
+                EndpointClass.WRITE, new ConcurrencyLimiter(writeLimit, minLimit, writeMaxLimit, queueSize, maxWait, tolerance),
+                EndpointClass.BULK, new ConcurrencyLimiter(bulkLimit, minLimit, bulkMaxLimit, queueSize, maxWait, tolerance)),
+                unfilteredListShare, retryAfter);
+    }
+
+    AdmissionControlFilter(Map<EndpointClass, ConcurrencyLimiter> limiters, double unfilteredListShare, Duration retryAfter) {
+        this.limiters = new EnumMap<>(limiters);
+        this.unfilteredListShare = unfilteredListShare;
+        this.retryAfter = Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            overLimit.put(endpointClass, new AtomicLong());
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return classify(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        EndpointClass endpointClass = classify(request);
+        ConcurrencyLimiter.Permit permit;
+        if (endpointClass == EndpointClass.LIST && isUnfiltered(request)) {
+            permit = limiters.get(EndpointClass.LOOKUP).isSaturated()
+                    ? null
+                    : limiters.get(EndpointClass.LIST).tryAcquire(unfilteredListShare, false);
+            if (permit == null) {
+                shed.incrementAndGet();
+            }
+        } else {
+            permit = limiters.get(endpointClass).tryAcquire(1.0, true);
+            if (permit == null) {
+                overLimit.get(endpointClass).incrementAndGet();
+            }
+        }
+        if (permit == null) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permit.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        limiters.forEach((endpointClass, limiter) -> {
+            String tag = endpointClass.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("autos.admission.limit", limiter, ConcurrencyLimiter::getLimit)
+                    .description("Requests of this class admitted at once")
+                    .tag("class", tag)
+                    .register(registry);
+            Gauge.builder("autos.admission.inflight", limiter, ConcurrencyLimiter::getInflight)
+                    .tag("class", tag)
+                    .register(registry);
+            Gauge.builder("autos.admission.waiting", limiter, ConcurrencyLimiter::getWaiting)
+                    .tag("class", tag)
+                    .register(registry);
+            FunctionCounter.builder("autos.admission.rejected", overLimit.get(endpointClass), AtomicLong::get)
+                    .description("Requests refused with 503")
+                    .tag("class", tag)
+                    .tag("reason", "limit")
+                    .register(registry);
+        });
+        FunctionCounter.builder("autos.admission.rejected", shed, AtomicLong::get)
+                .description("Requests refused with 503")
+                .tag("class", "list")
+                .tag("reason", "shed")
+                .register(registry);
+    }
+
+    ConcurrencyLimiter limiter(EndpointClass endpointClass) {
+        return limiters.get(endpointClass);
+    }
+
+    static EndpointClass classify(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith("/") && path.length() > 1) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if (!path.equals(AUTOS) && !path.startsWith(AUTOS + "/")) {
+            return null;
+        }
+        for (String jobs : JOBS) {
+            if (path.equals(jobs) || path.startsWith(jobs + "/")) {
+                return null;
+            }
+        }
+        String method = request.getMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            if (method.equals("OPTIONS")) {
+                return null;
+            }
+            // POST api/autos adds one auto; PATCH and DELETE on api/autos itself go by filter.
+            boolean bulk = path.equals(AUTOS + "/batch") || (path.equals(AUTOS) && !method.equals("POST"));
+            return bulk ? EndpointClass.BULK : EndpointClass.WRITE;
+        }
+        if (UNLIMITED.contains(path)) {
+            return null;
+        }
+        return path.equals(AUTOS) || path.equals(AUTOS + "/facets") ? EndpointClass.LIST : EndpointClass.LOOKUP;
+    }
+
+    private static boolean isUnfiltered(HttpServletRequest request) {
+        if (!request.getRequestURI().endsWith(AUTOS) && !request.getRequestURI().endsWith(AUTOS + "/")) {
+            return false;
+        }
+        for (String filter : FILTERS) {
+            String value = request.getParameter(filter);
+            if (value != null && !value.isBlank() && !value.equals("%")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package com.galvanize.autos;
+
+import java.util.List;
+
+public class AutoBatchResult {
+
+    private int created;
+    private int rejected;
+    private List<BatchItemResult> results;
+
+    public AutoBatchResult() { }
+
+    public AutoBatchResult(List<BatchItemResult> results) {
+        this.results = results;
+        this.created = (int) results.stream().filter(r -> r.getStatus() == BatchItemResult.Status.CREATED).count();
+        this.rejected = results.size() - created;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public List<BatchItemResult> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "AutoBatchResult{" +
+                "created=" + created +
+                ", rejected=" + rejected +
+                ", results=" + results +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package com.galvanize.autos;
+
+import java.util.List;
+
+/**
+ * Which autos a bulk update or delete applies to: those matching every criterion given.
+ * Make and color match whole values, ignoring case; owner matches exactly.
+ */
+public class AutoBulkFilter {
+
+    private String make;
+    private String color;
+    private String owner;
+    private List<String> vins;
+
+    public AutoBulkFilter() { }
+
+    public AutoBulkFilter(String make, String color, String owner, List<String> vins) {
+        this.make = make;
+        this.color = color;
+        this.owner = owner;
+        this.vins = vins;
+    }
+
+    public String getMake() {
+        return make;
+    }
+
+    public void setMake(String make) {
+        this.make = make;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public void setColor(String color) {
+        this.color = color;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public List<String> getVins() {
+        return vins;
+    }
+
+    public void setVins(List<String> vins) {
+        this.vins = vins;
+    }
+}
@@ -0,0 +1,30 @@
+package com.galvanize.autos;
+
+public class AutoBulkResult {
+
+    private int affected;
+    private boolean dryRun;
+
+    public AutoBulkResult() { }
+
+    public AutoBulkResult(int affected, boolean dryRun) {
+        this.affected = affected;
+        this.dryRun = dryRun;
+    }
+
+    public int getAffected() {
+        return affected;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    @Override
+    public String toString() {
+        return "AutoBulkResult{" +
+                "affected=" + affected +
+                ", dryRun=" + dryRun +
+                '}';
+    }
+}
@@ -0,0 +1,17 @@
+package com.galvanize.autos;
+
+/**
+ * New owner and/or color for every auto {@code filter} matches; a field left out stays as it is.
+ */
+public class AutoBulkUpdateRequest extends UpdateAutoRequest {
+
+    private AutoBulkFilter filter;
+
+    public AutoBulkFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(AutoBulkFilter filter) {
+        this.filter = filter;
+    }
+}
@@ -0,0 +1,176 @@
+package com.galvanize.autos;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * One row of the change outbox. It is written in the same transaction as the change it
+ * describes, and its identity column is the sequence number {@link AutoChangeFeed} hands
+ * out as the SSE event id. Changes are read in {@link Position} order: by the inventory
+ * revision their transaction made, which follows commit order, then by sequence number.
+ * <p>
+ * It also carries what the change did to the facet counts, for {@link AutosFacets}: the
+ * auto's make and year and its color before and after. Those stay out of the feed.
+ */
+@Entity
+@Table(name = "auto_changes", indexes = {
+        @Index(name = "auto_changes_changed_at_idx", columnList = "changed_at"),
+        @Index(name = "auto_changes_revision_idx", columnList = "revision, seq")
+})
+public class AutoChange {
+
+    public enum Type { CREATED, UPDATED, DELETED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long seq;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Type type;
+    @Column(nullable = false)
+    private String vin;
+    private Long version;
+    @Column(name = "changed_at", nullable = false)
+    private Instant changedAt;
+    // Null when the change was recorded without its facet values.
+    @Column(name = "make_normalized")
+    private String makeNormalized;
+    private Integer year;
+    @Column(name = "color_before")
+    private String colorBefore;
+    @Column(name = "color_after")
+    private String colorAfter;
+    // Written by InventoryRevisions' own statements; for a set-based write it is read from
+    // auto_change_commits, which is where that write records it.
+    @Column(insertable = false, updatable = false)
+    private Long revision;
+
+    protected AutoChange() {}
+
+    AutoChange(Type type, String vin, Long version, Instant changedAt) {
+        this.type = type;
+        this.vin = vin;
+        this.version = version;
+        this.changedAt = changedAt;
+    }
+
+    AutoChange(Type type, String vin, Long version, Instant changedAt,
+               String makeNormalized, Integer year, String colorBefore, String colorAfter) {
+        this(type, vin, version, changedAt);
+        this.makeNormalized = makeNormalized;
+        this.year = year;
+        this.colorBefore = colorBefore;
+        this.colorAfter = colorAfter;
+    }
+
+    public Long getSeq() {
+        return seq;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getVin() {
+        return vin;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Instant getChangedAt() {
+        return changedAt;
+    }
+
+    // Package-private, so the facet values stay out of the serialized event.
+    boolean hasFacets() {
+        return makeNormalized != null;
+    }
+
+    String getMakeNormalized() {
+        return makeNormalized;
+    }
+
+    Integer getYear() {
+        return year;
+    }
+
+    String getColorBefore() {
+        return colorBefore;
+    }
+
+    String getColorAfter() {
+        return colorAfter;
+    }
+
+    Long getRevision() {
+        return revision;
+    }
+
+    /**
+     * A place in the order changes are read in: after every change with a lower revision, or
+     * the same revision and a lower or equal sequence number.
+     */
+    static final class Position implements Comparable<Position> {
+
+        static final Position START = new Position(0, 0);
+
+        private final long revision;
+        private final long seq;
+
+        Position(long revision, long seq) {
+            this.revision = revision;
+            this.seq = seq;
+        }
+
+        // Past every change the revision, and any before it, made.
+        static Position afterRevision(long revision) {
+            return new Position(revision, Long.MAX_VALUE);
+        }
+
+        static Position of(AutoChange change) {
+            return new Position(change.getRevision(), change.getSeq());
+        }
+
+        long getRevision() {
+            return revision;
+        }
+
+        long getSeq() {
+            return seq;
+        }
+
+        boolean isAfter(Position other) {
+            return compareTo(other) > 0;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int byRevision = Long.compare(revision, other.revision);
+            return byRevision != 0 ? byRevision : Long.compare(seq, other.seq);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Position position = (Position) o;
+            return revision == position.revision && seq == position.seq;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(revision, seq);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans the {@link AutoChange} outbox out to server-sent event subscribers.
+ * <p>
+ * One poller thread reads new rows once per interval for everybody and queues them for each
+ * subscriber, so subscribers cost a registration and a queue each, not a query or a thread.
+ * A fixed pool of {@code writer-threads} writes the queues to their responses, a burst per
+ * turn so a busy subscriber doesn't keep a thread from the others. The poller never waits on
+ * a client: one that stops reading only fills its own queue, and once it falls
+ * {@code max-buffered} events behind it is disconnected and picks up again from its
+ * {@code Last-Event-ID}. A subscriber that comes
+ * back behind the live position is replayed from the outbox a page per poll until it has
+ * caught up.
+ * <p>
+ * Changes are read in {@link AutoChange.Position} order, which {@link InventoryRevisions}
+ * makes follow commit order, so nothing can still turn up behind a visible change and the
+ * poller never waits on a write in flight. Event ids stay sequence numbers; a reconnecting
+ * client's is looked up once to find where it left off. Rows older than {@code retention}
+ * are purged, so a client gone longer than that has to re-read the inventory.
+ */
+@Component
+public class AutoChangeFeed implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AutoChangeFeed.class);
+    // Queued in place of an event when the connection needs a keep-alive comment.
+    private static final AutoChange HEARTBEAT = new AutoChange();
+    // Events a writer sends for one subscriber before it goes to the back of the pool's queue.
+    private static final int BURST = 100;
+
+    private final AutoChangeRepository autoChangeRepository;
+    private final InventoryRevisions inventoryRevisions;
+    private final Duration pollInterval;
+    private final Duration heartbeat;
+    private final Duration retention;
+    private final int pageSize;
+    private final int maxBuffered;
+    private final int writerThreads;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong overflowed = new AtomicLong();
+    private ScheduledExecutorService poller;
+    private ExecutorService writers;
+
+    // Written only by the poller thread; read by new subscribers as their starting point.
+    private volatile AutoChange.Position head;
+    private long lastHeartbeat;
+
+    public AutoChangeFeed(AutoChangeRepository autoChangeRepository, InventoryRevisions inventoryRevisions,
+                          @Value("${autos.changes.poll-interval:250ms}") Duration pollInterval,
+                          @Value("${autos.changes.heartbeat:15s}") Duration heartbeat,
+                          @Value("${autos.changes.retention:7d}") Duration retention,
+                          @Value("${autos.changes.page-size:500}") int pageSize,
+                          @Value("${autos.changes.max-buffered:10000}") int maxBuffered,
+                          @Value("${autos.changes.writer-threads:8}") int writerThreads) {
+        this.autoChangeRepository = autoChangeRepository;
+        this.inventoryRevisions = inventoryRevisions;
+        this.pollInterval = pollInterval;
+        this.heartbeat = heartbeat;
+        this.retention = retention;
+        this.pageSize = pageSize;
+        this.maxBuffered = maxBuffered;
+        this.writerThreads = writerThreads;
+    }
+
+    @PostConstruct
+    void start() {
+        head = AutoChange.Position.afterRevision(
+                inventoryRevisions.current().map(InventoryRevision::getRevision).orElse(0L));
+        lastHeartbeat = System.nanoTime();
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "auto-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writers = Executors.newFixedThreadPool(writerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "auto-change-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::pollQuietly, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        poller.scheduleWithFixedDelay(this::purgeQuietly, 0, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        poller.shutdown();
+        poller.awaitTermination(5, TimeUnit.SECONDS);
+        subscribers.forEach(Subscriber::close);
+        subscribers.clear();
+        writers.shutdown();
+        writers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Subscribes a servlet request. Events go out as they are polled; the emitter times out
+     * with {@code spring.mvc.async.request-timeout} and the client reconnects from its last id.
+     *
+     * @param lastEventId the sequence number of the last change the client has seen; null to start from now
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        SseEmitter emitter = new SseEmitter();
+        Subscriber subscriber = new Subscriber(head, lastEventId, writers, maxBuffered, new Sink() {
+            @Override
+            public void send(AutoChange change) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(change.getSeq()))
+                        .name(eventName(change))
+                        .data(change, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                emitter.send(SseEmitter.event().comment(""));
+            }
+
+            @Override
+            public void complete() {
+                emitter.complete();
+            }
+        });
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    /**
+     * {@link #subscribe} for WebFlux. A client that falls {@code max-buffered} events behind
+     * is disconnected, and picks up again from its {@code Last-Event-ID} when it reconnects.
+     */
+    public Flux<ServerSentEvent<AutoChange>> stream(Long lastEventId) {
+        Flux<ServerSentEvent<AutoChange>> events = Flux.create(sink -> {
+            Subscriber subscriber = new Subscriber(head, lastEventId, writers, maxBuffered, new Sink() {
+                @Override
+                public void send(AutoChange change) {
+                    sink.next(ServerSentEvent.builder(change)
+                            .id(String.valueOf(change.getSeq()))
+                            .event(eventName(change))
+                            .build());
+                }
+
+                @Override
+                public void heartbeat() {
+                    sink.next(ServerSentEvent.<AutoChange>builder().comment("").build());
+                }
+
+                @Override
+                public void complete() {
+                    sink.complete();
+                }
+            });
+            sink.onDispose(() -> subscribers.remove(subscriber));
+            subscribers.add(subscriber);
+        });
+        return events.onBackpressureBuffer(maxBuffered, BufferOverflowStrategy.ERROR);
+    }
+
+    /**
+     * Parses a {@code Last-Event-ID} header.
+     *
+     * @return the sequence number, or null when the header is absent
+     * @throws InvalidQueryException if the header is not one of our event ids
+     */
+    static Long lastEventId(String header) {
+        if (header == null || header.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidQueryException();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("autos.changes.subscribers", subscribers, Set::size)
+                .description("Open change feed subscriptions")
+                .register(registry);
+        Gauge.builder("autos.changes.head", this, feed -> feed.head.getRevision())
+                .description("Inventory revision of the last change sent to live subscribers")
+                .register(registry);
+        FunctionCounter.builder("autos.changes.overflowed", overflowed, AtomicLong::get)
+                .description("Subscribers disconnected for falling max-buffered events behind")
+                .register(registry);
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            // A failed poll is retried on the next tick; throwing would cancel the schedule.
+            log.warn("Polling auto_changes failed", e);
+        }
+    }
+
+    void poll() {
+        AutoChange.Position from = head;
+        List<AutoChange> fresh = autoChangeRepository.findAfter(from, pageSize);
+        if (!fresh.isEmpty()) {
+            head = AutoChange.Position.of(fresh.get(fresh.size() - 1));
+        }
+        boolean beat = System.nanoTime() - lastHeartbeat >= heartbeat.toNanos();
+        if (beat) {
+            lastHeartbeat = System.nanoTime();
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.position == null) {
+                subscriber.position = resume(subscriber.lastEventId);
+            }
+            if (from.isAfter(subscriber.position)) {
+                replay(subscriber, from);
+            }
+            if (!from.isAfter(subscriber.position)) {
+                for (AutoChange change : fresh) {
+                    if (AutoChange.Position.of(change).isAfter(subscriber.position) && !subscriber.offer(change)) {
+                        break;
+                    }
+                }
+            }
+            if (beat) {
+                subscriber.heartbeat();
+            }
+            if (subscriber.overflowed) {
+                overflowed.incrementAndGet();
+            }
+        }
+        subscribers.removeIf(subscriber -> subscriber.closed);
+    }
+
+    // Right after the client's last event; from the oldest change kept if that one has been purged.
+    private AutoChange.Position resume(long lastEventId) {
+        Long revision = autoChangeRepository.findRevisionOf(lastEventId);
+        return revision == null ? AutoChange.Position.START : new AutoChange.Position(revision, lastEventId);
+    }
+
+    // Everything up to the live position has committed, so what this reads is final.
+    private void replay(Subscriber subscriber, AutoChange.Position upTo) {
+        List<AutoChange> page = autoChangeRepository.findAfter(subscriber.position, pageSize);
+        for (AutoChange change : page) {
+            if (AutoChange.Position.of(change).isAfter(upTo)) {
+                subscriber.position = upTo;
+                return;
+            }
+            if (!subscriber.offer(change)) {
+                return;
+            }
+        }
+        if (page.size() < pageSize && upTo.isAfter(subscriber.position)) {
+            subscriber.position = upTo;
+        }
+    }
+
+    private void purgeQuietly() {
+        try {
+            Instant before = Instant.now().minus(retention);
+            autoChangeRepository.deleteChangedBefore(before);
+            autoChangeRepository.deleteCommittedBefore(before);
+        } catch (RuntimeException e) {
+            log.warn("Purging auto_changes failed", e);
+        }
+    }
+
+    private static String eventName(AutoChange change) {
+        return change.getType().name().toLowerCase(Locale.ROOT);
+    }
+
+    private interface Sink {
+        void send(AutoChange change) throws IOException;
+
+        void heartbeat() throws IOException;
+
+        void complete();
+    }
+
+    private static final class Subscriber {
+        private final Sink sink;
+        private final Executor writers;
+        private final BlockingQueue<AutoChange> queue;
+        private final AtomicBoolean writing = new AtomicBoolean();
+        // The Last-Event-ID the client reconnected with, until the poller has looked it up.
+        private final Long lastEventId;
+        // Where the last change queued was; only the poller reads and writes it.
+        private AutoChange.Position position;
+        private volatile boolean closed;
+        private boolean overflowed;
+
+        private Subscriber(AutoChange.Position head, Long lastEventId, Executor writers, int capacity, Sink sink) {
+            this.lastEventId = lastEventId;
+            // Looked up on the poller thread, so subscribing never waits on a query.
+            this.position = lastEventId == null ? head : null;
+            this.writers = writers;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.sink = sink;
+        }
+
+        // Never blocks; false once the subscriber is closed, or when this event would overflow it.
+        private boolean offer(AutoChange change) {
+            if (closed) {
+                return false;
+            }
+            if (!queue.offer(change)) {
+                overflowed = true;
+                close();
+                return false;
+            }
+            position = AutoChange.Position.of(change);
+            write();
+            return true;
+        }
+
+        // Queued events keep the connection alive by themselves.
+        private void heartbeat() {
+            if (!closed && queue.isEmpty() && queue.offer(HEARTBEAT)) {
+                write();
+            }
+        }
+
+        // The writer completes the response, so the poller never waits on a blocked send.
+        private void close() {
+            closed = true;
+            write();
+        }
+
+        private void write() {
+            if (writing.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                AutoChange next;
+                int sent = 0;
+                while (!closed && sent++ < BURST && (next = queue.poll()) != null) {
+                    if (next == HEARTBEAT) {
+                        sink.heartbeat();
+                    } else {
+                        sink.send(next);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // The container or Reactor reports the failure and runs the removal callbacks.
+                closed = true;
+                queue.clear();
+                writing.set(false);
+                return;
+            }
+            if (closed) {
+                queue.clear();
+                try {
+                    sink.complete();
+                } catch (RuntimeException e) {
+                    log.debug("Completing a change feed subscriber failed", e);
+                }
+                return;
+            }
+            writing.set(false);
+            // Left over from this burst, or queued or closed while the flag turned others away.
+            if (closed || !queue.isEmpty()) {
+                write();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.galvanize.autos;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface AutoChangeRepository extends JpaRepository<AutoChange, Long> {
+
+    String COLUMNS = "c.seq, c.type, c.vin, c.version, c.changed_at, c.make_normalized, c.year, "
+            + "c.color_before, c.color_after";
+
+    /**
+     * Up to {@code limit} changes after ({@code revision}, {@code seq}), in that order. A change
+     * a set-based write recorded takes its revision from the write's row in auto_change_commits.
+     */
+    @Query(nativeQuery = true, value = "select " + COLUMNS + ", c.revision from auto_changes c "
+            + "where c.revision >= :revision and (c.revision > :revision or c.seq > :seq) "
+            + "union all select " + COLUMNS + ", k.revision from auto_change_commits k "
+            + "join auto_changes c on c.batch = k.batch "
+            + "where k.revision >= :revision and (k.revision > :revision or c.seq > :seq) "
+            + "order by revision, seq limit :limit")
+    List<AutoChange> findAfter(@Param("revision") long revision, @Param("seq") long seq, @Param("limit") int limit);
+
+    default List<AutoChange> findAfter(AutoChange.Position position, int limit) {
+        return findAfter(position.getRevision(), position.getSeq(), limit);
+    }
+
+    // Null if there is no such change (any more).
+    @Query(nativeQuery = true, value = "select coalesce(c.revision, k.revision) from auto_changes c "
+            + "left join auto_change_commits k on k.batch = c.batch where c.seq = :seq")
+    Long findRevisionOf(@Param("seq") long seq);
+
+    // One statement for a whole batch of created autos, in id order; joins the caller's transaction.
+    @Modifying
+    @Query(nativeQuery = true, value = "insert into auto_changes "
+            + "(type, vin, version, changed_at, make_normalized, year, color_after, batch) "
+            + "select 'CREATED', vin, version, :now, make_normalized, year, color_normalized, :batch "
+            + "from automobiles where vin in (:vins) order by id")
+    int insertCreatedChanges(@Param("vins") Collection<String> vins, @Param("now") Instant now,
+                             @Param("batch") String batch);
+
+    // Records the batch against the revision this transaction has just made; joins the caller's transaction.
+    @Modifying
+    @Query(nativeQuery = true, value = "insert into auto_change_commits (revision, batch, committed_at) "
+            + "select revision, :batch, :now from inventory_revision where id = :id")
+    int insertCommit(@Param("id") long revisionId, @Param("batch") String batch, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("delete from AutoChange c where c.changedAt < :before")
+    int deleteChangedBefore(@Param("before") Instant before);
+
+    // After deleteChangedBefore with the same cutoff; a batch's changes never outlive its commit.
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "delete from auto_change_commits where committed_at < :before")
+    int deleteCommittedBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,97 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidQueryException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor for paging through {@link Automobile}s in id order, or in another
+ * {@link AutoSort}, in which case it also carries the sort and the last auto's sort key.
+ * Clients only ever see the encoded form and hand it back as {@code after}.
+ */
+public final class AutoCursor {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private AutoCursor() { }
+
+    public static String encode(long lastId) {
+        return ENCODER.encodeToString(Long.toString(lastId).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the id to resume after, or 0 (before the first row) when there is no cursor
+     */
+    public static long decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        try {
+            long lastId = Long.parseLong(new String(DECODER.decode(cursor), StandardCharsets.UTF_8));
+            if (lastId < 0) {
+                throw new InvalidQueryException();
+            }
+            return lastId;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException();
+        }
+    }
+
+    public static String encode(AutoSort sort, Automobile last) {
+        return encode(sort, last.getYear(), last.getId());
+    }
+
+    public static String encode(AutoSort sort, int lastYear, long lastId) {
+        if (sort == AutoSort.ID) {
+            return encode(lastId);
+        }
+        String position = sort.getParameter() + ":" + lastYear + ":" + lastId;
+        return ENCODER.encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return where to resume {@code sort}, or null (before the first row) when there is no cursor
+     * @throws InvalidQueryException if the cursor is malformed or was issued for another sort
+     */
+    public static Position decode(String cursor, AutoSort sort) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        if (sort == AutoSort.ID) {
+            return new Position(0, decode(cursor));
+        }
+        try {
+            String[] parts = new String(DECODER.decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3 || !parts[0].equals(sort.getParameter())) {
+                throw new InvalidQueryException();
+            }
+            return new Position(Integer.parseInt(parts[1]), Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException();
+        }
+    }
+
+    /**
+     * The sort key of the last auto on a page; {@code year} is unused when sorting by id.
+     */
+    public static final class Position {
+
+        private final int year;
+        private final long id;
+
+        public Position(int year, long id) {
+            this.year = year;
+            this.id = id;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public long getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.galvanize.autos;
+
+import java.util.Set;
+
+/**
+ * Case-insensitive color/make substring filter for {@code GET api/autos}, optionally narrowed
+ * to one make exactly and a range of model years.
+ * <p>
+ * Each term is kept in normalized (lowercase) form. When the set of stored values that
+ * contain a term is known up front, it is carried along as candidates so the query can
+ * use an exact, index-backed {@code IN} instead of a {@code LIKE '%term%'} scan.
+ */
+public class AutoFilter {
+
+    private final String color;
+    private final String make;
+    private final Set<String> colorCandidates;
+    private final Set<String> makeCandidates;
+    private final String exactMake;
+    private final Integer minYear;
+    private final Integer maxYear;
+
+    private AutoFilter(String color, String make, Set<String> colorCandidates, Set<String> makeCandidates,
+                       String exactMake, Integer minYear, Integer maxYear) {
+        this.color = color;
+        this.make = make;
+        this.colorCandidates = colorCandidates;
+        this.makeCandidates = makeCandidates;
+        this.exactMake = exactMake;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+    }
+
+    /**
+     * Blank terms (and the legacy {@code "%"} wildcard) mean "don't filter on this field".
+     */
+    public static AutoFilter of(String color, String make) {
+        return new AutoFilter(term(color), term(make), null, null, null, null, null);
+    }
+
+    private static String term(String value) {
+        if (value == null || value.isBlank() || value.equals("%")) {
+            return null;
+        }
+        return Automobile.normalize(value);
+    }
+
+    public AutoFilter withCandidates(Set<String> colorCandidates, Set<String> makeCandidates) {
+        return new AutoFilter(color, make,
+                color == null ? null : colorCandidates,
+                make == null ? null : makeCandidates,
+                exactMake, minYear, maxYear);
+    }
+
+    /**
+     * @param exactMake matched whole, ignoring case; blank for any make
+     * @param minYear   inclusive, or null
+     * @param maxYear   inclusive, or null
+     */
+    public AutoFilter withExactMakeAndYears(String exactMake, Integer minYear, Integer maxYear) {
+        return new AutoFilter(color, make, colorCandidates, makeCandidates, term(exactMake), minYear, maxYear);
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public String getMake() {
+        return make;
+    }
+
+    public Set<String> getColorCandidates() {
+        return colorCandidates;
+    }
+
+    public Set<String> getMakeCandidates() {
+        return makeCandidates;
+    }
+
+    public String getExactMake() {
+        return exactMake;
+    }
+
+    public Integer getMinYear() {
+        return minYear;
+    }
+
+    public Integer getMaxYear() {
+        return maxYear;
+    }
+
+    public boolean isEmpty() {
+        return color == null && make == null && exactMake == null && minYear == null && maxYear == null;
+    }
+
+    @Override
+    public String toString() {
+        return "AutoFilter{" +
+                "color='" + color + '\'' +
+                ", make='" + make + '\'' +
+                ", colorCandidates=" + colorCandidates +
+                ", makeCandidates=" + makeCandidates +
+                ", exactMake='" + exactMake + '\'' +
+                ", minYear=" + minYear +
+                ", maxYear=" + maxYear +
+                '}';
+    }
+}
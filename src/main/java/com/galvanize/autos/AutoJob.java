@@ -0,0 +1,161 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A CSV import or export run by {@link AutoJobs}, as reported by {@code GET api/autos/imports/{id}}
+ * and {@code GET api/autos/exports/{id}}. {@code written} counts autos inserted or exported;
+ * {@code linesRead} counts the rows of an import read so far, header excluded.
+ */
+@Entity
+@Table(name = "auto_jobs")
+public class AutoJob {
+
+    public enum Type { IMPORT, EXPORT }
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    static final List<Status> OPEN = List.of(Status.QUEUED, Status.RUNNING);
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Type type;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+    @JsonIgnore
+    @Column(name = "spool_file", nullable = false, length = 1024)
+    private String spoolFile;
+    // Where the first row not yet committed starts; an interrupted import resumes here.
+    @JsonIgnore
+    @Column(name = "byte_offset", nullable = false)
+    private long byteOffset;
+    @Column(name = "lines_read", nullable = false)
+    private long linesRead;
+    @Column(nullable = false)
+    private long written;
+    @Column(nullable = false)
+    private long rejected;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Column(length = 1024)
+    private String message;
+    // The instance running the job, until leaseUntil unless it renews the lease.
+    @JsonIgnore
+    @Column(name = "lease_owner", length = 64)
+    private String leaseOwner;
+    @JsonIgnore
+    @Column(name = "lease_until")
+    private Instant leaseUntil;
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Transient
+    private List<AutoJobError> errors;
+
+    protected AutoJob() {}
+
+    AutoJob(Type type, String spoolFile, Instant createdAt) {
+        this.type = type;
+        this.status = Status.QUEUED;
+        this.spoolFile = spoolFile;
+        this.createdAt = createdAt;
+        this.updatedAt = createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    String getSpoolFile() {
+        return spoolFile;
+    }
+
+    long getByteOffset() {
+        return byteOffset;
+    }
+
+    String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    Instant getLeaseUntil() {
+        return leaseUntil;
+    }
+
+    boolean isLeasedAt(Instant now) {
+        return leaseUntil != null && leaseUntil.isAfter(now);
+    }
+
+    AutoJob leasedTo(String owner, Instant until) {
+        this.leaseOwner = owner;
+        this.leaseUntil = until;
+        return this;
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * The first rows an import rejected, in file order; null for an export.
+     */
+    public List<AutoJobError> getErrors() {
+        return errors;
+    }
+
+    AutoJob withErrors(List<AutoJobError> errors) {
+        this.errors = errors;
+        return this;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+}
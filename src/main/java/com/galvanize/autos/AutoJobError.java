@@ -0,0 +1,64 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * A CSV row an import rejected. {@code line} is the row's line in the file, counting the
+ * header as line 1 (a quoted field with line breaks still counts as one line).
+ */
+@Entity
+@Table(name = "auto_job_errors")
+public class AutoJobError {
+
+    public enum Reason {
+        // Too few fields, or a year that isn't a number
+        MALFORMED,
+        // Fails the rules POST api/autos applies
+        INVALID,
+        DUPLICATE
+    }
+
+    @JsonIgnore
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    @JsonIgnore
+    @Column(name = "job_id", nullable = false)
+    private long jobId;
+    @Column(name = "line_number", nullable = false)
+    private long line;
+    private String vin;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Reason reason;
+
+    protected AutoJobError() {}
+
+    AutoJobError(long jobId, long line, String vin, Reason reason) {
+        this.jobId = jobId;
+        this.line = line;
+        this.vin = vin;
+        this.reason = reason;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public String getVin() {
+        return vin;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
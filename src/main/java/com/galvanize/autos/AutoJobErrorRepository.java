@@ -0,0 +1,13 @@
+package com.galvanize.autos;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AutoJobErrorRepository extends JpaRepository<AutoJobError, Long> {
+
+    List<AutoJobError> findByJobIdOrderByLineAsc(long jobId, Pageable pageable);
+}
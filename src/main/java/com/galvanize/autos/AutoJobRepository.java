@@ -0,0 +1,67 @@
+package com.galvanize.autos;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Updates to a running job only apply while {@code owner} still holds its lease, so an
+ * instance that has lost a job to another can't overwrite its progress.
+ */
+@Repository
+public interface AutoJobRepository extends JpaRepository<AutoJob, Long> {
+
+    List<AutoJob> findByStatusInOrderByIdAsc(Collection<AutoJob.Status> statuses);
+
+    // Takes an open job that nobody holds, or whose lease has expired.
+    @Transactional
+    @Modifying
+    @Query("update AutoJob j set j.leaseOwner = :owner, j.leaseUntil = :leaseUntil where j.id = :id "
+            + "and j.status in :open and (j.leaseOwner is null or j.leaseUntil is null or j.leaseUntil < :now)")
+    int claim(@Param("id") long id, @Param("owner") String owner, @Param("leaseUntil") Instant leaseUntil,
+              @Param("now") Instant now, @Param("open") Collection<AutoJob.Status> open);
+
+    @Transactional
+    @Modifying
+    @Query("update AutoJob j set j.leaseUntil = :leaseUntil where j.leaseOwner = :owner and j.status in :open")
+    int renewLeases(@Param("owner") String owner, @Param("leaseUntil") Instant leaseUntil,
+                    @Param("open") Collection<AutoJob.Status> open);
+
+    // Joins the transaction that inserts the chunk, so the checkpoint commits with its rows.
+    @Modifying
+    @Query("update AutoJob j set j.byteOffset = :byteOffset, j.linesRead = :linesRead, j.written = :written, "
+            + "j.rejected = :rejected, j.updatedAt = :now where j.id = :id and j.leaseOwner = :owner")
+    int checkpoint(@Param("id") long id, @Param("owner") String owner, @Param("byteOffset") long byteOffset,
+                   @Param("linesRead") long linesRead, @Param("written") long written,
+                   @Param("rejected") long rejected, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("update AutoJob j set j.status = :status, j.message = :message, j.updatedAt = :now "
+            + "where j.id = :id and j.leaseOwner = :owner")
+    int updateStatus(@Param("id") long id, @Param("owner") String owner, @Param("status") AutoJob.Status status,
+                     @Param("message") String message, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("update AutoJob j set j.status = :status, j.written = :written, j.updatedAt = :now "
+            + "where j.id = :id and j.leaseOwner = :owner")
+    int finishExport(@Param("id") long id, @Param("owner") String owner, @Param("status") AutoJob.Status status,
+                     @Param("written") long written, @Param("now") Instant now);
+
+    // Closes an open job whose lease expired before expiredBefore and that nobody has taken over.
+    @Transactional
+    @Modifying
+    @Query("update AutoJob j set j.status = :status, j.message = :message, j.updatedAt = :now "
+            + "where j.id = :id and j.status in :open and (j.leaseUntil is null or j.leaseUntil < :expiredBefore)")
+    int abandon(@Param("id") long id, @Param("status") AutoJob.Status status, @Param("message") String message,
+                @Param("now") Instant now, @Param("expiredBefore") Instant expiredBefore,
+                @Param("open") Collection<AutoJob.Status> open);
+}
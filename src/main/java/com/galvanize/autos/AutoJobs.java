@@ -0,0 +1,427 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous CSV imports and exports of the inventory, for files too large for one request.
+ * <p>
+ * An upload is spooled to {@code spool-dir} as it arrives, then a worker reads it through
+ * {@link CsvRecordReader}. Rows are checked with {@link AutosService#validate}, the rules
+ * {@code POST api/autos} applies, and inserted through {@link AutosBatchLoader} in chunks of
+ * {@code chunk-size}. Each chunk's transaction also checkpoints the job (byte offset, rows read
+ * and counts), so an import stopped by a shutdown or crash resumes after its last committed
+ * chunk. The first {@code max-errors} rejected rows are kept with the job.
+ * <p>
+ * An export writes every auto to a CSV file in the spool directory, in the columns an import
+ * reads, for download once it has succeeded; an interrupted export starts over. Each instance
+ * runs {@code workers} jobs at a time.
+ * <p>
+ * An instance holds a lease of {@code lease} on each job it has queued or runs, and renews it
+ * while it does; checkpoints and status changes only apply while it still holds the lease.
+ * Every instance looks for open jobs whose lease has expired and takes over those whose file
+ * it can reach (any job, with a shared {@code spool-dir}). A job nobody has taken over for
+ * {@code abandon-after} past its lease is failed.
+ */
+@Service
+public class AutoJobs {
+
+    private static final Logger log = LoggerFactory.getLogger(AutoJobs.class);
+    private static final List<String> REQUIRED_COLUMNS = List.of("vin", "year", "make", "model");
+    private static final int MAX_MESSAGE = 1024;
+
+    private final AutoJobRepository autoJobRepository;
+    private final AutoJobErrorRepository autoJobErrorRepository;
+    private final AutosService autosService;
+    private final AutosBatchLoader autosBatchLoader;
+    private final AutosExporter autosExporter;
+    private final TransactionTemplate transactionTemplate;
+    private final Path spoolDir;
+    private final int chunkSize;
+    private final int maxErrors;
+    private final int workers;
+    private final Duration lease;
+    private final Duration abandonAfter;
+    private final String instanceId = UUID.randomUUID().toString();
+    private ExecutorService executor;
+    private ScheduledExecutorService leases;
+
+    public AutoJobs(AutoJobRepository autoJobRepository, AutoJobErrorRepository autoJobErrorRepository,
+                    AutosService autosService, AutosBatchLoader autosBatchLoader, AutosExporter autosExporter,
+                    TransactionTemplate transactionTemplate,
+                    @Value("${autos.jobs.spool-dir:${java.io.tmpdir}/autos-jobs}") String spoolDir,
+                    @Value("${autos.jobs.chunk-size:1000}") int chunkSize,
+                    @Value("${autos.jobs.max-errors:1000}") int maxErrors,
+                    @Value("${autos.jobs.workers:1}") int workers,
+                    @Value("${autos.jobs.lease:30s}") Duration lease,
+                    @Value("${autos.jobs.abandon-after:1h}") Duration abandonAfter) {
+        this.autoJobRepository = autoJobRepository;
+        this.autoJobErrorRepository = autoJobErrorRepository;
+        this.autosService = autosService;
+        this.autosBatchLoader = autosBatchLoader;
+        this.autosExporter = autosExporter;
+        this.transactionTemplate = transactionTemplate;
+        this.spoolDir = Path.of(spoolDir).toAbsolutePath();
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+        this.workers = workers;
+        this.lease = lease;
+        this.abandonAfter = abandonAfter;
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        Files.createDirectories(spoolDir);
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "autos-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        leases = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autos-job-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // An import that is interrupted stops after its current chunk; once its lease has
+    // expired, this or another instance resumes it from there.
+    @PreDestroy
+    void stop() throws InterruptedException {
+        leases.shutdownNow();
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void startLeases() {
+        long period = Math.max(1, lease.toMillis() / 3);
+        leases.scheduleWithFixedDelay(this::maintainQuietly, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void maintainQuietly() {
+        try {
+            Instant now = Instant.now();
+            autoJobRepository.renewLeases(instanceId, now.plus(lease), AutoJob.OPEN);
+            takeOverExpired(now);
+        } catch (RuntimeException e) {
+            log.warn("Could not renew or take over job leases", e);
+        }
+    }
+
+    private void takeOverExpired(Instant now) {
+        for (AutoJob job : autoJobRepository.findByStatusInOrderByIdAsc(AutoJob.OPEN)) {
+            if (instanceId.equals(job.getLeaseOwner()) || job.isLeasedAt(now)) {
+                continue;
+            }
+            if (canReach(job)) {
+                if (autoJobRepository.claim(job.getId(), instanceId, now.plus(lease), now, AutoJob.OPEN) == 1) {
+                    log.info("Taking over {} job {}", job.getType(), job.getId());
+                    submit(job.getId());
+                }
+            } else if (job.getLeaseUntil() == null || job.getLeaseUntil().isBefore(now.minus(abandonAfter))) {
+                autoJobRepository.abandon(job.getId(), AutoJob.Status.FAILED,
+                        "No instance could reach " + job.getSpoolFile() + " after the job's lease expired",
+                        now, now.minus(abandonAfter), AutoJob.OPEN);
+            }
+        }
+    }
+
+    // An import needs its spooled upload; an export starts over wherever it can write its file.
+    private static boolean canReach(AutoJob job) {
+        Path file = Path.of(job.getSpoolFile());
+        return job.getType() == AutoJob.Type.IMPORT ? Files.exists(file) : Files.isDirectory(file.getParent());
+    }
+
+    /**
+     * Spools {@code csv} to disk and queues its import. The first row names the columns:
+     * {@code vin}, {@code year}, {@code make} and {@code model}, optionally {@code color} and
+     * {@code owner}, in any order; other columns are ignored.
+     */
+    public AutoJob startImport(InputStream csv) throws IOException {
+        Path file = Files.createTempFile(spoolDir, "import-", ".csv");
+        try {
+            Files.copy(csv, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return queue(new AutoJob(AutoJob.Type.IMPORT, file.toString(), Instant.now()));
+    }
+
+    public AutoJob startExport() {
+        Path file = spoolDir.resolve("export-" + UUID.randomUUID() + ".csv");
+        return queue(new AutoJob(AutoJob.Type.EXPORT, file.toString(), Instant.now()));
+    }
+
+    /**
+     * @return the job, with the rows an import rejected (the first {@code max-errors}), or
+     * empty if there is no job of this type with this id
+     */
+    public Optional<AutoJob> get(long id, AutoJob.Type type) {
+        return autoJobRepository.findById(id)
+                .filter(job -> job.getType() == type)
+                .map(job -> type == AutoJob.Type.IMPORT
+                        ? job.withErrors(autoJobErrorRepository.findByJobIdOrderByLineAsc(id, PageRequest.of(0, maxErrors)))
+                        : job);
+    }
+
+    /**
+     * @return the exported file, once the export has succeeded
+     */
+    public Optional<Path> exportedFile(long id) {
+        return get(id, AutoJob.Type.EXPORT)
+                .filter(job -> job.getStatus() == AutoJob.Status.SUCCEEDED)
+                .map(job -> Path.of(job.getSpoolFile()))
+                .filter(Files::exists);
+    }
+
+    private AutoJob queue(AutoJob job) {
+        AutoJob saved = autoJobRepository.save(job.leasedTo(instanceId, job.getCreatedAt().plus(lease)));
+        submit(saved.getId());
+        return saved;
+    }
+
+    private void submit(long id) {
+        executor.execute(() -> run(id));
+    }
+
+    private void run(long id) {
+        Optional<AutoJob> found = autoJobRepository.findById(id);
+        if (found.isEmpty() || found.get().isFinished() || !instanceId.equals(found.get().getLeaseOwner())
+                || autoJobRepository.updateStatus(id, instanceId, AutoJob.Status.RUNNING, null, Instant.now()) == 0) {
+            return;
+        }
+        AutoJob job = found.get();
+        try {
+            if (job.getType() == AutoJob.Type.IMPORT) {
+                runImport(job);
+            } else {
+                runExport(job);
+            }
+        } catch (LeaseLostException e) {
+            log.warn("{} job {} was taken over by another instance; stopping here", job.getType(), id);
+        } catch (InvalidCsvException e) {
+            fail(id, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            log.error("{} job {} failed", job.getType(), id, e);
+            fail(id, e.toString());
+        }
+    }
+
+    private void runImport(AutoJob job) throws IOException {
+        long id = job.getId();
+        Path file = Path.of(job.getSpoolFile());
+        try (CsvRecordReader reader = new CsvRecordReader(file)) {
+            List<String> header = reader.next();
+            if (header != null) {
+                Columns columns = Columns.of(header);
+                if (job.getByteOffset() > reader.offset()) {
+                    reader.seek(job.getByteOffset());
+                }
+                Progress progress = new Progress(job.getWritten(), job.getRejected());
+                long linesRead = job.getLinesRead();
+                List<AutosBatchLoader.Item> chunk = new ArrayList<>(chunkSize);
+                List<AutoJobError> rejected = new ArrayList<>();
+                List<String> record;
+                while ((record = reader.next()) != null) {
+                    linesRead++;
+                    // The header is line 1.
+                    long line = linesRead + 1;
+                    if (record.size() == 1 && record.get(0).isBlank()) {
+                        continue;
+                    }
+                    try {
+                        Automobile auto = columns.auto(record);
+                        autosService.validate(auto);
+                        chunk.add(new AutosBatchLoader.Item((int) line, auto));
+                    } catch (InvalidAutoException e) {
+                        rejected.add(new AutoJobError(id, line, columns.vin(record), AutoJobError.Reason.INVALID));
+                    } catch (IllegalArgumentException e) {
+                        rejected.add(new AutoJobError(id, line, columns.vin(record), AutoJobError.Reason.MALFORMED));
+                    }
+                    if (chunk.size() + rejected.size() >= chunkSize) {
+                        progress = commit(id, chunk, rejected, progress, reader.offset(), linesRead);
+                        chunk.clear();
+                        rejected.clear();
+                        if (Thread.currentThread().isInterrupted()) {
+                            log.info("Import {} stopped at line {}; it resumes from there", id, line);
+                            return;
+                        }
+                    }
+                }
+                commit(id, chunk, rejected, progress, reader.offset(), linesRead);
+            }
+        }
+        if (autoJobRepository.updateStatus(id, instanceId, AutoJob.Status.SUCCEEDED, null, Instant.now()) == 0) {
+            throw new LeaseLostException();
+        }
+        Files.deleteIfExists(file);
+    }
+
+    // The chunk's rows, the rows it rejected (while there is room) and the checkpoint commit together.
+    private Progress commit(long id, List<AutosBatchLoader.Item> chunk, List<AutoJobError> rejected,
+                            Progress before, long offset, long linesRead) {
+        Progress[] after = new Progress[1];
+        if (chunk.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> after[0] = checkpoint(id, List.of(), rejected, before, offset, linesRead));
+        } else {
+            // In the fallback row-by-row case this runs twice; the second, committed call wins.
+            autosBatchLoader.insert(chunk, results -> after[0] = checkpoint(id, results, rejected, before, offset, linesRead));
+        }
+        return after[0];
+    }
+
+    private Progress checkpoint(long id, List<BatchItemResult> results, List<AutoJobError> rejected,
+                                Progress before, long offset, long linesRead) {
+        List<AutoJobError> errors = new ArrayList<>(rejected);
+        long created = 0;
+        for (BatchItemResult result : results) {
+            if (result.getStatus() == BatchItemResult.Status.CREATED) {
+                created++;
+            } else {
+                errors.add(new AutoJobError(id, result.getIndex(), result.getVin(), AutoJobError.Reason.DUPLICATE));
+            }
+        }
+        long room = Math.max(0, maxErrors - before.rejected);
+        if (room > 0 && !errors.isEmpty()) {
+            errors.sort(Comparator.comparingLong(AutoJobError::getLine));
+            autoJobErrorRepository.saveAll(errors.subList(0, (int) Math.min(room, errors.size())));
+        }
+        Progress after = new Progress(before.written + created, before.rejected + errors.size());
+        // Rolls the chunk back if another instance has taken the job over.
+        if (autoJobRepository.checkpoint(id, instanceId, offset, linesRead, after.written, after.rejected, Instant.now()) == 0) {
+            throw new LeaseLostException();
+        }
+        return after;
+    }
+
+    private void runExport(AutoJob job) throws IOException {
+        Path file = Path.of(job.getSpoolFile());
+        // Named per instance, so one that has lost the job doesn't write over its new owner's.
+        Path partial = file.resolveSibling(file.getFileName() + "." + instanceId + ".part");
+        long written;
+        try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            written = autosExporter.writeCsv(out);
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (autoJobRepository.finishExport(job.getId(), instanceId, AutoJob.Status.SUCCEEDED, written, Instant.now()) == 0) {
+            throw new LeaseLostException();
+        }
+    }
+
+    private void fail(long id, String message) {
+        String trimmed = message != null && message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message;
+        autoJobRepository.updateStatus(id, instanceId, AutoJob.Status.FAILED, trimmed, Instant.now());
+    }
+
+    private static final class Progress {
+        private final long written;
+        private final long rejected;
+
+        private Progress(long written, long rejected) {
+            this.written = written;
+            this.rejected = rejected;
+        }
+    }
+
+    // Where each known column is in a record, from the header.
+    private static final class Columns {
+        private final Map<String, Integer> positions;
+
+        private Columns(Map<String, Integer> positions) {
+            this.positions = positions;
+        }
+
+        static Columns of(List<String> header) {
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                // A UTF-8 byte order mark comes through as part of the first name.
+                String name = header.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT);
+                positions.putIfAbsent(name, i);
+            }
+            List<String> missing = REQUIRED_COLUMNS.stream()
+                    .filter(column -> !positions.containsKey(column))
+                    .collect(Collectors.toList());
+            if (!missing.isEmpty()) {
+                throw new InvalidCsvException("The header has no " + String.join(", ", missing) + " column");
+            }
+            return new Columns(positions);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the record is too short or the year isn't a number
+         */
+        Automobile auto(List<String> record) {
+            for (String column : REQUIRED_COLUMNS) {
+                if (positions.get(column) >= record.size()) {
+                    throw new IllegalArgumentException("Missing " + column);
+                }
+            }
+            String year = value(record, "year");
+            Automobile auto = new Automobile(year == null ? 0 : Integer.parseInt(year),
+                    value(record, "make"), value(record, "model"), value(record, "vin"));
+            auto.setColor(value(record, "color"));
+            auto.setOwner(value(record, "owner"));
+            return auto;
+        }
+
+        String vin(List<String> record) {
+            return Automobile.normalizeVin(value(record, "vin"));
+        }
+
+        // Blank is missing, so the addAuto rules reject a blank VIN, make or model.
+        private String value(List<String> record, String column) {
+            Integer position = positions.get(column);
+            if (position == null || position >= record.size()) {
+                return null;
+            }
+            String value = record.get(position).trim();
+            return value.isEmpty() ? null : value;
+        }
+    }
+
+    private static final class LeaseLostException extends RuntimeException {
+        private LeaseLostException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class InvalidCsvException extends RuntimeException {
+        private InvalidCsvException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.galvanize.autos;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.util.List;
 import java.util.Objects;
@@ -8,6 +9,8 @@ import java.util.Objects;
 public class AutoList {
 
     private List<Automobile> automobiles;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String next;
 
     public AutoList() { }
 
@@ -15,6 +18,11 @@ public class AutoList {
         this.automobiles = automobiles;
     }
 
+    public AutoList(List<Automobile> automobiles, String next) {
+        this.automobiles = automobiles;
+        this.next = next;
+    }
+
     public List<Automobile> getAutomobiles() {
         return automobiles;
     }
@@ -23,23 +31,32 @@ public class AutoList {
         this.automobiles = automobiles;
     }
 
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         AutoList autoList1 = (AutoList) o;
-        return automobiles.equals(autoList1.automobiles);
+        return automobiles.equals(autoList1.automobiles) && Objects.equals(next, autoList1.next);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(automobiles);
+        return Objects.hash(automobiles, next);
     }
 
     @Override
     public String toString() {
         return "AutoList{" +
                 "autoList=" + automobiles +
+                ", next='" + next + '\'' +
                 '}';
     }
 
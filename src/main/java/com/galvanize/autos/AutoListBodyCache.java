@@ -0,0 +1,184 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ready-to-send JSON bodies of {@code GET api/autos} pages, so a page that has not changed
+ * is serialized once instead of on every request. Pages are cached per
+ * {@link InventoryRevision}, normalized color/make terms, cursor and page size; with
+ * {@code server.compression} on, bodies of at least its {@code min-response-size} are kept
+ * gzipped as well. Both live in direct buffers ({@link SerializedBody}).
+ * <p>
+ * Any write through the services moves the revision on, so a cached page is never served
+ * for a later state of the inventory; the first request to see a new revision drops the
+ * older pages, whose direct memory is returned once the buffers are garbage collected.
+ * {@code load} must not return a page older than the revision it is cached under;
+ * {@link AutosService} only shares a list query started after the newest revision read on
+ * this instance, which covers the one passed here. The cache is bounded by bytes
+ * ({@code maximum-bytes}) and keeps the pages asked for most often, which are the
+ * unfiltered list and the popular color/make terms.
+ * Rows written straight through the repositories don't move the revision, which is why
+ * the test profile, which seeds that way, turns it off.
+ */
+@Component
+public class AutoListBodyCache implements MeterBinder {
+
+    static final String NAME = "autos.list_bodies";
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final long gzipMinBytes;
+    private final Cache<Key, Page> cache;
+    private final AtomicLong latestRevision = new AtomicLong();
+
+    public AutoListBodyCache(ObjectMapper objectMapper,
+                             @Value("${autos.cache.list-bodies.enabled:true}") boolean enabled,
+                             @Value("${autos.cache.list-bodies.maximum-bytes:64MB}") DataSize maximumBytes,
+                             @Value("${server.compression.enabled:false}") boolean gzip,
+                             @Value("${server.compression.min-response-size:2KB}") DataSize gzipMinSize) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.gzipMinBytes = gzip ? gzipMinSize.toBytes() : Long.MAX_VALUE;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes.toBytes())
+                .weigher((Key key, Page page) -> Math.max(1, page.weight()))
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The page {@code load} returns, serialized, for the given revision and request.
+     *
+     * @throws com.galvanize.autos.exceptions.InvalidQueryException for a malformed cursor
+     *                                                              or a limit below 1
+     */
+    public Page get(long revision, String color, String make, String after, int limit, Supplier<AutoList> load) {
+        AutoFilter terms = AutoFilter.of(color, make);
+        Key key = new Key(revision, terms.getColor(), terms.getMake(), AutoCursor.decode(after), AutosService.pageSize(limit));
+        long latest = latestRevision.get();
+        if (revision > latest && latestRevision.compareAndSet(latest, revision)) {
+            // Older pages can't be asked for again except by a lagging replica; drop them now.
+            cache.asMap().keySet().removeIf(cached -> cached.revision < revision);
+        }
+        return cache.get(key, k -> serialize(load.get()));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CaffeineCacheMetrics(cache, NAME, Tags.empty()).bindTo(registry);
+        Gauge.builder(NAME + ".bytes", cache, c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+                .description("Bytes of serialized pages held, gzipped copies included")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private Page serialize(AutoList autoList) {
+        if (autoList.isEmpty()) {
+            return Page.EMPTY;
+        }
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(autoList);
+            return new Page(SerializedBody.of(json), json.length >= gzipMinBytes ? SerializedBody.of(gzip(json)) : null);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A serialized page: nothing for an empty page, which is answered with 204.
+     */
+    public static final class Page {
+
+        static final Page EMPTY = new Page(null, null);
+
+        private final SerializedBody json;
+        private final SerializedBody gzip;
+
+        Page(SerializedBody json, SerializedBody gzip) {
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        public boolean isEmpty() {
+            return json == null;
+        }
+
+        public SerializedBody getJson() {
+            return json;
+        }
+
+        /**
+         * @return the gzipped body, or null when the page is too small to be worth it
+         */
+        public SerializedBody getGzip() {
+            return gzip;
+        }
+
+        private int weight() {
+            return (json == null ? 0 : json.length()) + (gzip == null ? 0 : gzip.length());
+        }
+    }
+
+    private static final class Key {
+        private final long revision;
+        private final String color;
+        private final String make;
+        private final long afterId;
+        private final int pageSize;
+
+        private Key(long revision, String color, String make, long afterId, int pageSize) {
+            this.revision = revision;
+            this.color = color;
+            this.make = make;
+            this.afterId = afterId;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return revision == key.revision && afterId == key.afterId && pageSize == key.pageSize
+                    && Objects.equals(color, key.color) && Objects.equals(make, key.make);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(revision, color, make, afterId, pageSize);
+        }
+    }
+}
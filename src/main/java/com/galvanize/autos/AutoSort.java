@@ -0,0 +1,39 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidQueryException;
+
+/**
+ * Orders for {@code GET api/autos?sort=}. Ties are broken by id, in the same direction, so
+ * every order is total and a keyset cursor can resume it.
+ */
+public enum AutoSort {
+
+    ID("id"),
+    YEAR("year"),
+    YEAR_DESC("-year");
+
+    private final String parameter;
+
+    AutoSort(String parameter) {
+        this.parameter = parameter;
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    /**
+     * @throws InvalidQueryException if {@code parameter} names no sort
+     */
+    public static AutoSort parse(String parameter) {
+        if (parameter == null || parameter.isEmpty()) {
+            return ID;
+        }
+        for (AutoSort sort : values()) {
+            if (sort.parameter.equals(parameter)) {
+                return sort;
+            }
+        }
+        throw new InvalidQueryException();
+    }
+}
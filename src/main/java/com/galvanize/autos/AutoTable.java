@@ -0,0 +1,78 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An {@link AutoList} in column-oriented form, so field names appear once per response
+ * instead of once per auto:
+ * <pre>
+ * {"columns":["id","vin",...],"rows":[[1,"ABC123",...],...],"next":"..."}
+ * </pre>
+ * Served for {@code Accept: application/vnd.autos.table+json}.
+ */
+@JsonSerialize(using = AutoTable.Serializer.class)
+public class AutoTable {
+
+    public static final String MEDIA_TYPE_VALUE = "application/vnd.autos.table+json";
+
+    static final List<String> COLUMNS = List.of("id", "vin", "year", "make", "model", "color", "owner", "version");
+
+    private final AutoList autoList;
+
+    public AutoTable(AutoList autoList) {
+        this.autoList = autoList;
+    }
+
+    public AutoList getAutoList() {
+        return autoList;
+    }
+
+    static class Serializer extends StdSerializer<AutoTable> {
+
+        Serializer() {
+            super(AutoTable.class);
+        }
+
+        @Override
+        public void serialize(AutoTable table, JsonGenerator json, SerializerProvider provider) throws IOException {
+            json.writeStartObject();
+            json.writeArrayFieldStart("columns");
+            for (String column : COLUMNS) {
+                json.writeString(column);
+            }
+            json.writeEndArray();
+            json.writeArrayFieldStart("rows");
+            for (Automobile auto : table.autoList.getAutomobiles()) {
+                json.writeStartArray();
+                writeNumber(json, auto.getId());
+                json.writeString(auto.getVin());
+                json.writeNumber(auto.getYear());
+                json.writeString(auto.getMake());
+                json.writeString(auto.getModel());
+                json.writeString(auto.getColor());
+                json.writeString(auto.getOwner());
+                writeNumber(json, auto.getVersion());
+                json.writeEndArray();
+            }
+            json.writeEndArray();
+            if (table.autoList.getNext() != null) {
+                json.writeStringField("next", table.autoList.getNext());
+            }
+            json.writeEndObject();
+        }
+
+        private static void writeNumber(JsonGenerator json, Long value) throws IOException {
+            if (value == null) {
+                json.writeNull();
+            } else {
+                json.writeNumber(value);
+            }
+        }
+    }
+}
@@ -1,23 +1,54 @@
 package com.galvanize.autos;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.persistence.*;
+import java.time.Instant;
+import java.util.Locale;
 import java.util.Objects;
 
 @Entity
-@Table (name = "automobiles")
+@Table (name = "automobiles", uniqueConstraints = {
+        @UniqueConstraint(name = "automobiles_vin_key", columnNames = "vin")
+}, indexes = {
+        @Index(name = "automobiles_make_year_idx", columnList = "make_normalized, year, id"),
+        @Index(name = "automobiles_color_normalized_idx", columnList = "color_normalized"),
+        @Index(name = "automobiles_year_id_idx", columnList = "year, id")
+})
 public class Automobile {
 
+    // Pooled sequence: one round trip hands out allocationSize ids, which also lets inserts batch.
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "automobiles_seq")
+    @SequenceGenerator(name = "automobiles_seq", sequenceName = "automobiles_seq", allocationSize = 50)
     private Long id;
     private int year;
     private String make;
     private String model;
     private String color;
     private String owner;
+    // Always stored trimmed and upper-cased (see normalizeVin) so lookups are a plain unique-index match.
+    @Column(nullable = false)
     private String vin;
+    // Bumped by every update; clients send it back in If-Match to detect lost updates.
+    // Read-only to Jackson: a version in a POST body would otherwise make save() merge.
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+    // Sent as Last-Modified rather than in the body.
+    @JsonIgnore
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    // Lowercased copies of make/color so searches can use plain and trigram indexes
+    // instead of wrapping the column in upper().
+    @JsonIgnore
+    @Column(name = "make_normalized")
+    private String makeNormalized;
+    @JsonIgnore
+    @Column(name = "color_normalized")
+    private String colorNormalized;
 
     public Automobile() {}
 
@@ -25,7 +56,33 @@ public class Automobile {
         this.year = year;
         this.make = make;
         this.model = model;
-        this.vin = vin;
+        this.vin = normalizeVin(vin);
+        this.makeNormalized = normalize(make);
+    }
+
+    public static String normalize(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    public static String normalizeVin(String vin) {
+        return vin == null ? null : vin.trim().toUpperCase(Locale.ROOT);
+    }
+
+    String getMakeNormalized() {
+        return makeNormalized;
+    }
+
+    String getColorNormalized() {
+        return colorNormalized;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void beforeWrite() {
+        this.vin = normalizeVin(vin);
+        this.makeNormalized = normalize(make);
+        this.colorNormalized = normalize(color);
+        this.updatedAt = Instant.now();
     }
 
     public String getColor() {
@@ -34,6 +91,7 @@ public class Automobile {
 
     public void setColor(String color) {
         this.color = color;
+        this.colorNormalized = normalize(color);
     }
 
     public String getOwner() {
@@ -69,6 +127,38 @@ public class Automobile {
         return id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    // Only for rows read outside JPA (ReactiveAutosRepository); Hibernate owns these otherwise.
+    // Not a setter, though request bodies couldn't set them anyway: version is read-only to
+    // Jackson and updatedAt is ignored.
+    void assignVersion(Long version, Instant updatedAt) {
+        this.version = version;
+        this.updatedAt = updatedAt;
+    }
+
+    // A detached copy with a write-behind update applied; it has no version until the update is flushed.
+    Automobile withOwnerAndColor(String owner, String color, Instant acceptedAt) {
+        return withOwnerAndColor(owner, color, null, acceptedAt);
+    }
+
+    // A detached copy as a single-statement UPDATE leaves the row, without reading it back.
+    Automobile withOwnerAndColor(String owner, String color, Long version, Instant updatedAt) {
+        Automobile copy = new Automobile(year, make, model, vin);
+        copy.id = id;
+        copy.owner = owner;
+        copy.setColor(color);
+        copy.version = version;
+        copy.updatedAt = updatedAt;
+        return copy;
+    }
+
     public void setId(Long id) {
         this.id = id;
     }
@@ -0,0 +1,216 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.galvanize.autos.exceptions.DuplicateAutoException;
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Inserts many autos per request: each chunk of {@code autos.batch.chunk-size} valid autos
+ * is written in one transaction as JDBC batches, after one query that weeds out VINs that
+ * already exist. Every input item gets a result, in input order.
+ */
+@Service
+public class AutosBatchLoader {
+
+    private final AutosService autosService;
+    private final AutosRepository autosRepository;
+    private final VinCache vinCache;
+    private final InventoryRevisions inventoryRevisions;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    public AutosBatchLoader(AutosService autosService, AutosRepository autosRepository, VinCache vinCache,
+                            InventoryRevisions inventoryRevisions, EntityManager entityManager,
+                            TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+                            @Value("${autos.batch.chunk-size:500}") int chunkSize) {
+        this.autosService = autosService;
+        this.autosRepository = autosRepository;
+        this.vinCache = vinCache;
+        this.inventoryRevisions = inventoryRevisions;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads newline-delimited JSON without holding the whole request body in memory. A line
+     * that is not an auto is reported INVALID like any other, and the lines after it still load.
+     */
+    public AutoBatchResult loadNdjson(InputStream ndjson) throws IOException {
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8))) {
+            return load(new NdjsonIterator(lines, objectMapper.readerFor(Automobile.class)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Loads autos in order; a null item, such as a line that could not be read, is reported INVALID.
+     */
+    public AutoBatchResult load(Iterator<Automobile> autos) {
+        List<BatchItemResult> results = new ArrayList<>();
+        List<Item> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+        while (autos.hasNext()) {
+            Automobile auto = autos.next();
+            int position = index++;
+            if (auto == null) {
+                results.add(BatchItemResult.rejected(position, null, BatchItemResult.Status.INVALID));
+                continue;
+            }
+            try {
+                autosService.validate(auto);
+            } catch (InvalidAutoException e) {
+                results.add(BatchItemResult.rejected(position, auto.getVin(), BatchItemResult.Status.INVALID));
+                continue;
+            }
+            chunk.add(new Item(position, auto));
+            if (chunk.size() == chunkSize) {
+                results.addAll(insert(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(insert(chunk));
+        }
+        results.sort(Comparator.comparingInt(BatchItemResult::getIndex));
+        return new AutoBatchResult(results);
+    }
+
+    private List<BatchItemResult> insert(List<Item> chunk) {
+        return insert(chunk, results -> { });
+    }
+
+    /**
+     * Inserts one chunk of autos that have passed {@link AutosService#validate}, as
+     * {@link #load} does. {@code checkpoint} is given the chunk's results inside the
+     * transaction that inserts it (or, when the chunk has to be settled row by row, in one
+     * of its own afterwards), so a caller can record its progress along with the rows.
+     */
+    List<BatchItemResult> insert(List<Item> chunk, Consumer<List<BatchItemResult>> checkpoint) {
+        List<BatchItemResult> results = new ArrayList<>(chunk.size());
+        Set<String> existing = autosRepository.findExistingVins(
+                chunk.stream().map(item -> item.vin).collect(Collectors.toSet()));
+        Set<String> seen = new HashSet<>();
+        List<Item> fresh = new ArrayList<>(chunk.size());
+        for (Item item : chunk) {
+            if (existing.contains(item.vin) || !seen.add(item.vin)) {
+                results.add(BatchItemResult.rejected(item.index, item.vin, BatchItemResult.Status.DUPLICATE));
+            } else {
+                fresh.add(item);
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                autosRepository.saveAll(fresh.stream().map(item -> item.auto).collect(Collectors.toList()));
+                autosRepository.flush();
+                entityManager.clear();
+                if (!fresh.isEmpty()) {
+                    inventoryRevisions.recordCreated(fresh.stream().map(item -> item.vin).collect(Collectors.toList()));
+                }
+                List<BatchItemResult> settled = new ArrayList<>(results);
+                fresh.forEach(item -> settled.add(BatchItemResult.created(item.index, item.auto)));
+                checkpoint.accept(settled);
+            });
+            fresh.forEach(item -> results.add(BatchItemResult.created(item.index, item.auto)));
+        } catch (DataIntegrityViolationException e) {
+            // Another writer inserted one of these VINs since the check; settle the chunk row by row.
+            fresh.forEach(item -> results.add(insertOne(item)));
+            transactionTemplate.executeWithoutResult(status -> checkpoint.accept(results));
+        }
+        fresh.forEach(item -> vinCache.invalidate(item.vin));
+        return results;
+    }
+
+    private BatchItemResult insertOne(Item item) {
+        item.auto.setId(null);
+        try {
+            return BatchItemResult.created(item.index, autosService.addAuto(item.auto));
+        } catch (DuplicateAutoException e) {
+            return BatchItemResult.rejected(item.index, item.vin, BatchItemResult.Status.DUPLICATE);
+        }
+    }
+
+    // One auto per non-blank line; null for a line that isn't one.
+    private static final class NdjsonIterator implements Iterator<Automobile> {
+        private final BufferedReader lines;
+        private final ObjectReader reader;
+        private String next;
+
+        private NdjsonIterator(BufferedReader lines, ObjectReader reader) {
+            this.lines = lines;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    String line = lines.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    if (!line.isBlank()) {
+                        next = line;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Automobile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            try {
+                return reader.readValue(line);
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+    }
+
+    static final class Item {
+        private final int index;
+        private final Automobile auto;
+        private final String vin;
+
+        Item(int index, Automobile auto) {
+            this.index = index;
+            this.auto = auto;
+            this.vin = Automobile.normalizeVin(auto.getVin());
+        }
+    }
+}
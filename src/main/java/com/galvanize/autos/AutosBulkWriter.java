@@ -0,0 +1,203 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fleet-wide updates and deletes: every auto an {@link AutoBulkFilter} matches is changed
+ * by one UPDATE or DELETE statement, instead of one request and statement per VIN.
+ * <p>
+ * In the same transaction, one INSERT ... SELECT with the same filter first records a change
+ * per auto in the outbox, with the version and facet values it had and will have, and the
+ * inventory revision moves once after the write. The write only touches autos still at the
+ * version their change recorded, so if a concurrent write gets in between the two
+ * statements, the counts differ and the transaction is rolled back and tried again, as it
+ * is when it loses a deadlock to another bulk write. The write-behind buffer is flushed
+ * first, so updates accepted earlier don't land over the bulk one, and cached VIN lookups
+ * are dropped wholesale.
+ */
+@Service
+public class AutosBulkWriter {
+
+    private static final int ATTEMPTS = 3;
+    // The version the auto's change in this write's batch says it had, or will have once updated.
+    private static final String RECORDED_VERSION = "(select c.version from auto_changes c "
+            + "where c.batch = :batch and c.vin = automobiles.vin)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final InventoryRevisions inventoryRevisions;
+    private final VinCache vinCache;
+    private final AutosWriteBehind autosWriteBehind;
+    private final int maxVins;
+
+    public AutosBulkWriter(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                           InventoryRevisions inventoryRevisions, VinCache vinCache,
+                           AutosWriteBehind autosWriteBehind,
+                           @Value("${autos.bulk.max-vins:10000}") int maxVins) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.inventoryRevisions = inventoryRevisions;
+        this.vinCache = vinCache;
+        this.autosWriteBehind = autosWriteBehind;
+        this.maxVins = maxVins;
+    }
+
+    /**
+     * Sets owner and/or color on every matching auto; a null field is left as it is.
+     *
+     * @param dryRun only count the autos that would be updated
+     * @throws InvalidAutoException if neither owner nor color is given
+     * @throws InvalidQueryException if the filter is empty or lists more than {@code max-vins} VINs
+     * @throws ConcurrencyFailureException if the matching autos kept changing under every attempt
+     */
+    public AutoBulkResult update(AutoBulkFilter filter, String owner, String color, boolean dryRun) {
+        if (owner == null && color == null) {
+            throw new InvalidAutoException();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String where = where(filter, params);
+        if (dryRun) {
+            return new AutoBulkResult(count(where, params), true);
+        }
+        List<String> set = new ArrayList<>();
+        if (owner != null) {
+            set.add("owner = :newOwner");
+            params.addValue("newOwner", owner);
+        }
+        if (color != null) {
+            set.add("color = :newColor, color_normalized = :newColorNormalized");
+            params.addValue("newColor", color);
+            params.addValue("newColorNormalized", Automobile.normalize(color));
+        }
+        String colorAfter = color != null ? "cast(:newColorNormalized as varchar(255))" : "color_normalized";
+        int updated = write(
+                "insert into auto_changes "
+                        + "(type, vin, version, changed_at, make_normalized, year, color_before, color_after, batch) "
+                        + "select 'UPDATED', vin, version + 1, :now, make_normalized, year, color_normalized, "
+                        + colorAfter + ", :batch from automobiles where " + where + " order by id",
+                "update automobiles set " + String.join(", ", set)
+                        + ", version = version + 1, updated_at = current_timestamp where " + where
+                        + " and version + 1 = " + RECORDED_VERSION,
+                params);
+        return new AutoBulkResult(updated, false);
+    }
+
+    /**
+     * Deletes every matching auto.
+     *
+     * @param dryRun only count the autos that would be deleted
+     * @throws InvalidQueryException if the filter is empty or lists more than {@code max-vins} VINs
+     * @throws ConcurrencyFailureException if the matching autos kept changing under every attempt
+     */
+    public AutoBulkResult delete(AutoBulkFilter filter, boolean dryRun) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String where = where(filter, params);
+        if (dryRun) {
+            return new AutoBulkResult(count(where, params), true);
+        }
+        int deleted = write(
+                "insert into auto_changes (type, vin, version, changed_at, make_normalized, year, color_before, batch) "
+                        + "select 'DELETED', vin, version, :now, make_normalized, year, color_normalized, :batch "
+                        + "from automobiles where " + where + " order by id",
+                "delete from automobiles where " + where + " and version = " + RECORDED_VERSION,
+                params);
+        return new AutoBulkResult(deleted, false);
+    }
+
+    private int count(String where, MapSqlParameterSource params) {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from automobiles where " + where, params, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    // The changes are recorded first, while the autos still match the filter, and the write is
+    // held to the versions they recorded, so the values recorded are the ones the write replaces.
+    private int write(String recordChanges, String change, MapSqlParameterSource params) {
+        autosWriteBehind.flush();
+        for (int attempt = 1; ; attempt++) {
+            params.addValue("batch", InventoryRevisions.newBatch());
+            params.addValue("now", Timestamp.from(Instant.now()));
+            try {
+                Integer changed = transactionTemplate.execute(status -> {
+                    int recorded = jdbcTemplate.update(recordChanges, params);
+                    int rows = jdbcTemplate.update(change, params);
+                    if (rows != recorded) {
+                        throw new MatchChanged();
+                    }
+                    if (rows == 0) {
+                        status.setRollbackOnly();
+                        return 0;
+                    }
+                    inventoryRevisions.recordBatch((String) params.getValue("batch"));
+                    vinCache.invalidateAll();
+                    return rows;
+                });
+                return changed == null ? 0 : changed;
+            } catch (MatchChanged | PessimisticLockingFailureException e) {
+                if (attempt == ATTEMPTS) {
+                    throw new ConcurrencyFailureException("Autos matching the filter kept changing during the bulk write");
+                }
+            }
+        }
+    }
+
+    // Only given criteria take part; an empty filter would match the whole inventory.
+    private String where(AutoBulkFilter filter, MapSqlParameterSource params) {
+        if (filter == null) {
+            throw new InvalidQueryException();
+        }
+        List<String> terms = new ArrayList<>();
+        if (filter.getMake() != null && !filter.getMake().isBlank()) {
+            terms.add("make_normalized = :make");
+            params.addValue("make", Automobile.normalize(filter.getMake()));
+        }
+        if (filter.getColor() != null && !filter.getColor().isBlank()) {
+            terms.add("color_normalized = :color");
+            params.addValue("color", Automobile.normalize(filter.getColor()));
+        }
+        if (filter.getOwner() != null && !filter.getOwner().isBlank()) {
+            terms.add("owner = :owner");
+            params.addValue("owner", filter.getOwner());
+        }
+        if (filter.getVins() != null && !filter.getVins().isEmpty()) {
+            if (filter.getVins().size() > maxVins) {
+                throw new InvalidQueryException();
+            }
+            Set<String> vins = new LinkedHashSet<>();
+            for (String vin : filter.getVins()) {
+                if (vin != null && !vin.isBlank()) {
+                    vins.add(Automobile.normalizeVin(vin));
+                }
+            }
+            if (vins.isEmpty()) {
+                throw new InvalidQueryException();
+            }
+            terms.add("vin in (:vins)");
+            params.addValue("vins", vins);
+        }
+        if (terms.isEmpty()) {
+            throw new InvalidQueryException();
+        }
+        return String.join(" and ", terms);
+    }
+
+    private static final class MatchChanged extends RuntimeException {
+        private MatchChanged() {
+            super(null, null, false, false);
+        }
+    }
+}
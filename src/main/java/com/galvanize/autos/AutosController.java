@@ -1,42 +1,179 @@
 package com.galvanize.autos;
 
 import com.galvanize.autos.exceptions.AutoNotFoundException;
+import com.galvanize.autos.exceptions.DuplicateAutoException;
 import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import com.galvanize.autos.exceptions.VersionConflictException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
 
 
 @CrossOrigin
 @RestController
+@Profile("!reactive")
 public class AutosController {
 
+    private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
     AutosService autosService;
+    AutosExporter autosExporter;
+    AutosBatchLoader autosBatchLoader;
+    AutosFacets autosFacets;
+    AutoChangeFeed autoChangeFeed;
+    AutoListBodyCache autoListBodyCache;
+    AutosBulkWriter autosBulkWriter;
+    AutoJobs autoJobs;
 
-    public AutosController(AutosService autosService) {
+    public AutosController(AutosService autosService, AutosExporter autosExporter, AutosBatchLoader autosBatchLoader,
+                           AutosFacets autosFacets, AutoChangeFeed autoChangeFeed, AutoListBodyCache autoListBodyCache,
+                           AutosBulkWriter autosBulkWriter, AutoJobs autoJobs) {
         this.autosService = autosService;
+        this.autosExporter = autosExporter;
+        this.autosBatchLoader = autosBatchLoader;
+        this.autosFacets = autosFacets;
+        this.autoChangeFeed = autoChangeFeed;
+        this.autoListBodyCache = autoListBodyCache;
+        this.autosBulkWriter = autosBulkWriter;
+        this.autoJobs = autoJobs;
     }
 
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public void invalidAutoExceptionHandler(InvalidAutoException e) {}
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public void duplicateAutoExceptionHandler(DuplicateAutoException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public void invalidQueryExceptionHandler(InvalidQueryException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public void versionConflictExceptionHandler(VersionConflictException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public void writeBehindUnavailableExceptionHandler(WriteBehindUnavailableException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public void concurrencyFailureExceptionHandler(ConcurrencyFailureException e) {}
+
+    // make and color match substrings; makeExact, minYear and maxYear narrow further.
+    // Plain color/make pages asked for as JSON are served from the serialized-body cache.
     @GetMapping("api/autos")
-    public ResponseEntity<AutoList> getAutos(@RequestParam(defaultValue = "%") String color,
-                                             @RequestParam(defaultValue = "%") String make) {
-        AutoList autoList;
-        if(color.equals("%") && make.equals("%")) {
-            autoList = autosService.getAutos();
-        } else {
-            autoList = autosService.getAutos(color, make);
+    public ResponseEntity<?> getAutos(@RequestParam(defaultValue = "") String color,
+                                      @RequestParam(defaultValue = "") String make,
+                                      @RequestParam(defaultValue = "") String makeExact,
+                                      @RequestParam(required = false) Integer minYear,
+                                      @RequestParam(required = false) Integer maxYear,
+                                      @RequestParam(defaultValue = "id") String sort,
+                                      @RequestParam(required = false) String after,
+                                      @RequestParam(defaultValue = "100") int limit,
+                                      NativeWebRequest webRequest) {
+        Optional<InventoryRevision> revision = autosService.getInventoryRevision();
+        if (inventoryNotModified(revision, webRequest)) {
+            return null;
+        }
+        if (revision.isPresent() && autoListBodyCache.isEnabled() && !isRefined(makeExact, minYear, maxYear, sort)
+                && prefersJson(webRequest.getHeader(HttpHeaders.ACCEPT))) {
+            AutoListBodyCache.Page page = autoListBodyCache.get(revision.get().getRevision(), color, make, after, limit,
+                    () -> findAutos(color, make, makeExact, minYear, maxYear, sort, after, limit));
+            return serialized(page, webRequest);
+        }
+        AutoList autoList = findAutos(color, make, makeExact, minYear, maxYear, sort, after, limit);
+        return autoList.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(autoList);
+    }
+
+    // The same page in column-oriented form; CBOR and Smile are negotiated on the mapping above.
+    @GetMapping(value = "api/autos", produces = AutoTable.MEDIA_TYPE_VALUE)
+    public ResponseEntity<AutoTable> getAutosTable(@RequestParam(defaultValue = "") String color,
+                                                   @RequestParam(defaultValue = "") String make,
+                                                   @RequestParam(defaultValue = "") String makeExact,
+                                                   @RequestParam(required = false) Integer minYear,
+                                                   @RequestParam(required = false) Integer maxYear,
+                                                   @RequestParam(defaultValue = "id") String sort,
+                                                   @RequestParam(required = false) String after,
+                                                   @RequestParam(defaultValue = "100") int limit,
+                                                   NativeWebRequest webRequest) {
+        if (inventoryNotModified(autosService.getInventoryRevision(), webRequest)) {
+            return null;
         }
+        AutoList autoList = findAutos(color, make, makeExact, minYear, maxYear, sort, after, limit);
+        return autoList.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(new AutoTable(autoList));
+    }
+
+    // ?fields=vin,make,model selects just those columns and returns just those properties.
+    @GetMapping(value = "api/autos", params = "fields")
+    public ResponseEntity<ProjectedAutoList> getAutoFields(@RequestParam(defaultValue = "") String color,
+                                                           @RequestParam(defaultValue = "") String make,
+                                                           @RequestParam(defaultValue = "") String makeExact,
+                                                           @RequestParam(required = false) Integer minYear,
+                                                           @RequestParam(required = false) Integer maxYear,
+                                                           @RequestParam(defaultValue = "id") String sort,
+                                                           @RequestParam(required = false) String after,
+                                                           @RequestParam(defaultValue = "100") int limit,
+                                                           @RequestParam List<String> fields,
+                                                           NativeWebRequest webRequest) {
+        if (inventoryNotModified(autosService.getInventoryRevision(), webRequest)) {
+            return null;
+        }
+        ProjectedAutoList autoList = autosService.getAutos(color, make, makeExact, minYear, maxYear, sort, after,
+                limit, fields);
         return autoList.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(autoList);
     }
 
+    @GetMapping("/api/autos/facets")
+    public ResponseEntity<FacetCounts> getFacets(@RequestParam(defaultValue = "") String color,
+                                                 @RequestParam(defaultValue = "") String make,
+                                                 NativeWebRequest webRequest) {
+        if (inventoryNotModified(autosService.getInventoryRevision(), webRequest)) {
+            return null;
+        }
+        return ResponseEntity.ok(autosFacets.get(color, make));
+    }
+
+    // Create, update and delete events; EventSource resends Last-Event-ID on reconnect to replay the gap.
+    @GetMapping(value = "/api/autos/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter getChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return autoChangeFeed.subscribe(AutoChangeFeed.lastEventId(lastEventId));
+    }
+
+    @GetMapping(value = "/api/autos/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportAutos() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(autosExporter::writeNdjson);
+    }
+
     @GetMapping("/api/autos/{vin}")
     public ResponseEntity<Automobile> getAutoByVin(@PathVariable String vin) {
         Automobile auto = autosService.getAuto(vin);
-        return auto.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(auto);
+        return auto.isEmpty() ? ResponseEntity.noContent().build() : withETag(auto);
     }
 
     @PostMapping("/api/autos")
@@ -44,19 +181,179 @@ public class AutosController {
         return autosService.addAuto(auto);
     }
 
+    @PostMapping(value = "/api/autos/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public AutoBatchResult addAutos(@RequestBody List<Automobile> autos) {
+        return autosBatchLoader.load(autos.iterator());
+    }
+
+    @PostMapping(value = "/api/autos/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public AutoBatchResult addAutosNdjson(InputStream body) throws IOException {
+        return autosBatchLoader.loadNdjson(body);
+    }
+
+    // The CSV is spooled to disk before the 202; the Location reports progress and rejected rows.
+    @PostMapping(value = "/api/autos/imports", consumes = "text/csv")
+    public ResponseEntity<AutoJob> importAutos(InputStream body) throws IOException {
+        return accepted(autoJobs.startImport(body));
+    }
+
+    @GetMapping("/api/autos/imports/{id}")
+    public ResponseEntity<AutoJob> getImport(@PathVariable long id) {
+        return ResponseEntity.of(autoJobs.get(id, AutoJob.Type.IMPORT));
+    }
+
+    @PostMapping("/api/autos/exports")
+    public ResponseEntity<AutoJob> startExport() {
+        return accepted(autoJobs.startExport());
+    }
+
+    @GetMapping("/api/autos/exports/{id}")
+    public ResponseEntity<AutoJob> getExport(@PathVariable long id) {
+        return ResponseEntity.of(autoJobs.get(id, AutoJob.Type.EXPORT));
+    }
+
+    // 404 until the export has succeeded.
+    @GetMapping("/api/autos/exports/{id}/file")
+    public ResponseEntity<Resource> getExportFile(@PathVariable long id) {
+        return autoJobs.exportedFile(id)
+                .map(file -> ResponseEntity.ok()
+                        .contentType(MediaType.valueOf("text/csv"))
+                        .header(HttpHeaders.CONTENT_DISPOSITION,
+                                ContentDisposition.attachment().filename("autos-" + id + ".csv").build().toString())
+                        .<Resource>body(new FileSystemResource(file)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     @PatchMapping("/api/autos/{vin}")
-    public ResponseEntity<Automobile> updateAuto(@PathVariable String vin, @RequestBody UpdateAutoRequest request) {
-        Automobile auto = autosService.updateAuto(vin, request.getOwner(), request.getColor());
-        return auto.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(auto);
+    public ResponseEntity<Automobile> updateAuto(@PathVariable String vin, @RequestBody UpdateAutoRequest request,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
+        // Buffered updates are acknowledged with 202; If-Match needs the row now, so it never buffers.
+        if (expectedVersion == null && autosService.isWriteBehind()) {
+            Automobile auto = autosService.acceptUpdate(vin, request.getOwner(), request.getColor());
+            return auto.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.accepted().body(auto);
+        }
+        Automobile auto = autosService.updateAuto(vin, request.getOwner(), request.getColor(), expectedVersion);
+        return auto.isEmpty() ? ResponseEntity.noContent().build() : withETag(auto);
+    }
+
+    // Sets owner and/or color on every auto the filter matches with one UPDATE; ?dryRun=true only counts them.
+    @PatchMapping("/api/autos")
+    public AutoBulkResult updateAutos(@RequestBody AutoBulkUpdateRequest request,
+                                      @RequestParam(defaultValue = "false") boolean dryRun) {
+        return autosBulkWriter.update(request.getFilter(), request.getOwner(), request.getColor(), dryRun);
+    }
+
+    @DeleteMapping("/api/autos")
+    public AutoBulkResult deleteAutos(@RequestBody AutoBulkFilter filter,
+                                      @RequestParam(defaultValue = "false") boolean dryRun) {
+        return autosBulkWriter.delete(filter, dryRun);
     }
 
     @DeleteMapping("/api/autos/{vin}")
-    public ResponseEntity deleteAuto(@PathVariable String vin) {
+    public ResponseEntity deleteAuto(@PathVariable String vin,
+                                     @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try{
-            autosService.deleteAuto(vin);
+            autosService.deleteAuto(vin, ETags.expectedVersion(ifMatch));
         } catch (AutoNotFoundException e) {
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.accepted().build();
     }
+
+    private static ResponseEntity<AutoJob> accepted(AutoJob job) {
+        return ResponseEntity.accepted()
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(job.getId()).toUri())
+                .body(job);
+    }
+
+    private AutoList findAutos(String color, String make, String makeExact, Integer minYear, Integer maxYear,
+                               String sort, String after, int limit) {
+        if (isRefined(makeExact, minYear, maxYear, sort)) {
+            return autosService.getAutos(color, make, makeExact, minYear, maxYear, sort, after, limit);
+        } else if (color.isEmpty() && make.isEmpty()) {
+            return autosService.getAutos(after, limit);
+        }
+        return autosService.getAutos(color, make, after, limit);
+    }
+
+    static boolean isRefined(String makeExact, Integer minYear, Integer maxYear, String sort) {
+        return !makeExact.isEmpty() || minYear != null || maxYear != null || !sort.equals("id");
+    }
+
+    // Answers If-None-Match / If-Modified-Since from the revision marker before querying anything.
+    // One revision tags every representation, so every response, 304s included, varies by Accept.
+    private static boolean inventoryNotModified(Optional<InventoryRevision> revision, NativeWebRequest webRequest) {
+        HttpServletResponse response = webRequest.getNativeResponse(HttpServletResponse.class);
+        if (response != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return revision.isPresent()
+                && webRequest.checkNotModified(ETags.of(revision.get()), revision.get().getUpdatedAt().toEpochMilli());
+    }
+
+    // Tomcat doesn't compress a body that already has a Content-Encoding.
+    private static ResponseEntity<?> serialized(AutoListBodyCache.Page page, NativeWebRequest webRequest) {
+        if (page.isEmpty()) {
+            return ResponseEntity.noContent().build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (page.getGzip() != null && acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            return ok.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.getGzip());
+        }
+        return ok.body(page.getJson());
+    }
+
+    // The cached bodies are JSON; a client that ranks CBOR or Smile first gets those as before.
+    static boolean prefersJson(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return true;
+        }
+        List<MediaType> types;
+        try {
+            types = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+        MediaType.sortBySpecificityAndQuality(types);
+        for (MediaType type : types) {
+            if (type.getQualityValue() == 0) {
+                continue;
+            }
+            if (type.includes(MediaType.APPLICATION_JSON)) {
+                return true;
+            }
+            if (type.isCompatibleWith(MediaType.APPLICATION_CBOR) || type.isCompatibleWith(SMILE)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")
+                    && (parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ResponseEntity<Automobile> withETag(Automobile auto) {
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (auto.getVersion() != null) {
+            ok.eTag(ETags.of(auto));
+        }
+        if (auto.getUpdatedAt() != null) {
+            ok.lastModified(auto.getUpdatedAt());
+        }
+        return ok.body(auto);
+    }
 }
@@ -0,0 +1,106 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the whole inventory as newline-delimited JSON or CSV, one row at a time, so
+ * memory use does not grow with the size of the table.
+ */
+@Component
+public class AutosExporter {
+
+    private static final int FLUSH_EVERY = 500;
+    // The columns an import reads, so an export can be imported again.
+    static final String CSV_HEADER = "vin,year,make,model,color,owner\n";
+
+    private final AutosRepository autosRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter autoWriter;
+
+    public AutosExporter(AutosRepository autosRepository, EntityManager entityManager, ObjectMapper objectMapper) {
+        this.autosRepository = autosRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.autoWriter = objectMapper.writerFor(Automobile.class);
+    }
+
+    /**
+     * Streams every auto to {@code out} and returns how many were written.
+     * The cursor has to stay open for the whole export, hence the transaction.
+     */
+    @Transactional(readOnly = true)
+    public long writeNdjson(OutputStream out) throws IOException {
+        long written = 0;
+        try (Stream<Automobile> autos = autosRepository.streamAllByOrderByIdAsc();
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            Iterator<Automobile> rows = autos.iterator();
+            while (rows.hasNext()) {
+                Automobile auto = rows.next();
+                autoWriter.writeValue(generator, auto);
+                generator.writeRaw('\n');
+                entityManager.detach(auto);
+                // Flush the first row straight away so clients see bytes before the scan finishes.
+                if (written++ % FLUSH_EVERY == 0) {
+                    generator.flush();
+                }
+            }
+            generator.flush();
+        }
+        return written;
+    }
+
+    /**
+     * Streams every auto to {@code out} as CSV, after a header row, and returns how many
+     * were written.
+     */
+    @Transactional(readOnly = true)
+    public long writeCsv(Writer out) throws IOException {
+        long written = 0;
+        out.write(CSV_HEADER);
+        try (Stream<Automobile> autos = autosRepository.streamAllByOrderByIdAsc()) {
+            Iterator<Automobile> rows = autos.iterator();
+            while (rows.hasNext()) {
+                Automobile auto = rows.next();
+                out.write(csv(auto.getVin()));
+                out.write(',');
+                out.write(Integer.toString(auto.getYear()));
+                out.write(',');
+                out.write(csv(auto.getMake()));
+                out.write(',');
+                out.write(csv(auto.getModel()));
+                out.write(',');
+                out.write(csv(auto.getColor()));
+                out.write(',');
+                out.write(csv(auto.getOwner()));
+                out.write('\n');
+                entityManager.detach(auto);
+                written++;
+            }
+        }
+        out.flush();
+        return written;
+    }
+
+    static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -1,14 +1,73 @@
 package com.galvanize.autos;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface AutosRepository extends JpaRepository<Automobile, Long> {
-    List<Automobile> findAllByColorContainsIgnoreCaseAndMakeContainsIgnoreCase(String color, String make);
+public interface AutosRepository extends JpaRepository<Automobile, Long>, AutosSearchRepository {
+    // Read-only so that, with replicas configured, it can be served by one; inside a write it joins the write.
+    @Transactional(readOnly = true)
+    List<Automobile> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("select distinct a.makeNormalized from Automobile a where a.makeNormalized is not null")
+    List<String> findDistinctMakeNormalized(Pageable pageable);
+
+    @Query("select distinct a.colorNormalized from Automobile a where a.colorNormalized is not null")
+    List<String> findDistinctColorNormalized(Pageable pageable);
+
+    /**
+     * @param vin a VIN already passed through {@link Automobile#normalizeVin(String)}
+     */
+    @Transactional(readOnly = true)
+    Optional<Automobile> findByVin(String vin);
+
+    boolean existsByVin(String vin);
+
+    // Locks the row for the rest of the write, so the values it reads are the ones the write replaces.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Automobile a where a.vin = :vin")
+    Optional<Automobile> findByVinForUpdate(@Param("vin") String vin);
+
+    // Single-statement writes: they return the affected row count instead of loading the entity first.
+    // Bulk JPQL skips entity callbacks, so the normalized color, version and updatedAt are maintained here.
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Automobile a set a.owner = :owner, a.color = :color, a.colorNormalized = :colorNormalized, " +
+            "a.version = a.version + 1, a.updatedAt = :updatedAt where a.vin = :vin")
+    int updateOwnerAndColor(@Param("vin") String vin, @Param("owner") String owner, @Param("color") String color,
+                            @Param("colorNormalized") String colorNormalized, @Param("updatedAt") Instant updatedAt);
+
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Automobile a where a.vin = :vin")
+    int deleteVin(@Param("vin") String vin);
+
+    @Query("select a.vin from Automobile a where a.vin in :vins")
+    Set<String> findExistingVins(@Param("vins") Collection<String> vins);
 
-    Optional<Automobile> findByVinIgnoreCase(String vin);
+    /**
+     * Forward-only cursor over every auto; must be consumed inside a transaction and closed.
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<Automobile> streamAllByOrderByIdAsc();
 }
@@ -0,0 +1,36 @@
+package com.galvanize.autos;
+
+import javax.persistence.Tuple;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Criteria-built queries for {@link AutosRepository} that derived query methods can't express.
+ */
+public interface AutosSearchRepository {
+
+    /**
+     * One keyset page of autos matching {@code filter} with an id greater than {@code afterId}, in id order.
+     */
+    List<Automobile> search(AutoFilter filter, long afterId, int limit);
+
+    /**
+     * One keyset page of autos matching {@code filter} in {@code sort} order, starting after
+     * {@code after}, or from the first row when it is null.
+     */
+    List<Automobile> search(AutoFilter filter, AutoSort sort, AutoCursor.Position after, int limit);
+
+    /**
+     * The same page as {@link #search(AutoFilter, AutoSort, AutoCursor.Position, int)}, selecting
+     * only {@code fields} (plus {@code id} and, for a year sort, {@code year}, for the cursor) as
+     * tuple elements aliased by field name; nothing is loaded as a managed entity.
+     */
+    List<Tuple> project(AutoFilter filter, AutoSort sort, AutoCursor.Position after, int limit,
+                        Collection<String> fields);
+
+    /**
+     * Number of autos matching {@code filter} per non-null value of {@code attribute}, in value order.
+     */
+    Map<String, Long> countBy(AutoFilter filter, String attribute);
+}
@@ -0,0 +1,181 @@
+package com.galvanize.autos;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AutosSearchRepositoryImpl implements AutosSearchRepository {
+
+    static final char LIKE_ESCAPE = '\\';
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Automobile> search(AutoFilter filter, long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Automobile> query = cb.createQuery(Automobile.class);
+        Root<Automobile> auto = query.from(Automobile.class);
+
+        query.select(auto)
+                .where(where(cb, auto, filter, afterId))
+                .orderBy(cb.asc(auto.get("id")));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Automobile> search(AutoFilter filter, AutoSort sort, AutoCursor.Position after, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Automobile> query = cb.createQuery(Automobile.class);
+        Root<Automobile> auto = query.from(Automobile.class);
+
+        List<Predicate> where = terms(cb, auto, filter);
+        if (after != null) {
+            where.add(after(cb, auto, sort, after));
+        }
+        query.select(auto)
+                .where(where.toArray(new Predicate[0]))
+                .orderBy(orderBy(cb, auto, sort));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Tuple> project(AutoFilter filter, AutoSort sort, AutoCursor.Position after, int limit,
+                               Collection<String> fields) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Automobile> auto = query.from(Automobile.class);
+
+        List<Selection<?>> selections = new ArrayList<>();
+        selections.add(auto.get("id").alias("id"));
+        if (sort != AutoSort.ID) {
+            selections.add(auto.get("year").alias("year"));
+        }
+        for (String field : fields) {
+            if (!field.equals("id") && !(field.equals("year") && sort != AutoSort.ID)) {
+                selections.add(auto.get(field).alias(field));
+            }
+        }
+
+        List<Predicate> where = terms(cb, auto, filter);
+        if (after != null) {
+            where.add(after(cb, auto, sort, after));
+        }
+        query.multiselect(selections)
+                .where(where.toArray(new Predicate[0]))
+                .orderBy(orderBy(cb, auto, sort));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, Long> countBy(AutoFilter filter, String attribute) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Automobile> auto = query.from(Automobile.class);
+        Expression<Object> value = auto.get(attribute);
+
+        query.multiselect(value, cb.count(auto))
+                .where(terms(cb, auto, filter).toArray(new Predicate[0]))
+                .groupBy(value)
+                .orderBy(cb.asc(value));
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Tuple row : entityManager.createQuery(query).getResultList()) {
+            if (row.get(0) != null) {
+                counts.put(String.valueOf(row.get(0)), row.get(1, Long.class));
+            }
+        }
+        return counts;
+    }
+
+    private static Predicate[] where(CriteriaBuilder cb, Root<Automobile> auto, AutoFilter filter, long afterId) {
+        List<Predicate> where = terms(cb, auto, filter);
+        where.add(cb.greaterThan(auto.<Long>get("id"), afterId));
+        return where.toArray(new Predicate[0]);
+    }
+
+    // Past the cursor in sort order. With a year sort, the bound on year alone is what an index
+    // range scan starts from; the id only decides among autos of the cursor's year.
+    private static Predicate after(CriteriaBuilder cb, Root<Automobile> auto, AutoSort sort, AutoCursor.Position after) {
+        Path<Long> id = auto.get("id");
+        Path<Integer> year = auto.get("year");
+        switch (sort) {
+            case YEAR:
+                return cb.and(cb.greaterThanOrEqualTo(year, after.getYear()),
+                        cb.or(cb.greaterThan(year, after.getYear()), cb.greaterThan(id, after.getId())));
+            case YEAR_DESC:
+                return cb.and(cb.lessThanOrEqualTo(year, after.getYear()),
+                        cb.or(cb.lessThan(year, after.getYear()), cb.lessThan(id, after.getId())));
+            default:
+                return cb.greaterThan(id, after.getId());
+        }
+    }
+
+    private static List<Order> orderBy(CriteriaBuilder cb, Root<Automobile> auto, AutoSort sort) {
+        switch (sort) {
+            case YEAR:
+                return List.of(cb.asc(auto.get("year")), cb.asc(auto.get("id")));
+            case YEAR_DESC:
+                return List.of(cb.desc(auto.get("year")), cb.desc(auto.get("id")));
+            default:
+                return List.of(cb.asc(auto.get("id")));
+        }
+    }
+
+    private static List<Predicate> terms(CriteriaBuilder cb, Root<Automobile> auto, AutoFilter filter) {
+        List<Predicate> terms = new ArrayList<>();
+        addTerm(terms, cb, auto.<String>get("colorNormalized"), filter.getColor(), filter.getColorCandidates());
+        addTerm(terms, cb, auto.<String>get("makeNormalized"), filter.getMake(), filter.getMakeCandidates());
+        if (filter.getExactMake() != null) {
+            terms.add(cb.equal(auto.get("makeNormalized"), filter.getExactMake()));
+        }
+        if (filter.getMinYear() != null) {
+            terms.add(cb.greaterThanOrEqualTo(auto.get("year"), filter.getMinYear()));
+        }
+        if (filter.getMaxYear() != null) {
+            terms.add(cb.lessThanOrEqualTo(auto.get("year"), filter.getMaxYear()));
+        }
+        return terms;
+    }
+
+    private static void addTerm(List<Predicate> where, CriteriaBuilder cb, Expression<String> column,
+                                String term, Set<String> candidates) {
+        if (term == null) {
+            return;
+        }
+        if (candidates != null) {
+            where.add(column.in(candidates));
+        } else {
+            where.add(cb.like(column, "%" + escapeLike(term) + "%", LIKE_ESCAPE));
+        }
+    }
+
+    static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
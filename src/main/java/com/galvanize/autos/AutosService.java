@@ -1,56 +1,367 @@
 package com.galvanize.autos;
 
 import com.galvanize.autos.exceptions.AutoNotFoundException;
+import com.galvanize.autos.exceptions.DuplicateAutoException;
 import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import com.galvanize.autos.exceptions.VersionConflictException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Tuple;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 @Service
-public class AutosService {
+public class AutosService implements MeterBinder {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final Set<String> PROJECTABLE_FIELDS =
+            Set.of("id", "vin", "year", "make", "model", "color", "owner", "version");
 
     private AutosRepository autosRepository;
+    private SearchVocabulary searchVocabulary;
+    private VinCache vinCache;
+    private InventoryRevisions inventoryRevisions;
+    private TransactionTemplate transactionTemplate;
+    private AutosWriteBehind autosWriteBehind;
+    private final SingleFlight<ListKey, AutoList> listFlights = new SingleFlight<>();
 
-    public AutosService(AutosRepository autosRepository) {
+    public AutosService(AutosRepository autosRepository, SearchVocabulary searchVocabulary, VinCache vinCache,
+                        InventoryRevisions inventoryRevisions, TransactionTemplate transactionTemplate,
+                        AutosWriteBehind autosWriteBehind) {
         this.autosRepository = autosRepository;
+        this.searchVocabulary = searchVocabulary;
+        this.vinCache = vinCache;
+        this.inventoryRevisions = inventoryRevisions;
+        this.transactionTemplate = transactionTemplate;
+        this.autosWriteBehind = autosWriteBehind;
+    }
+
+    /**
+     * Cheap check for "has anything changed" before running a list query.
+     */
+    public Optional<InventoryRevision> getInventoryRevision() {
+        return inventoryRevisions.current();
     }
 
     public AutoList getAutos() {
-        return new AutoList(autosRepository.findAll());
+        return getAutos(null, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Concurrent identical requests share one query, here and in {@link #getAutos(String, String, String, int)}.
+     */
+    public AutoList getAutos(String after, int limit) {
+        int pageSize = pageSize(limit);
+        long afterId = AutoCursor.decode(after);
+        return listFlights.get(listKey(AutoFilter.of(null, null), afterId, pageSize), () ->
+                page(autosRepository.findByIdGreaterThanOrderByIdAsc(afterId, lookAhead(pageSize)), pageSize));
     }
 
     public AutoList getAutos(String color, String make) {
-        return new AutoList(autosRepository.findAllByColorContainsIgnoreCaseAndMakeContainsIgnoreCase(color, make));
+        return getAutos(color, make, null, DEFAULT_PAGE_SIZE);
     }
 
-    public Automobile addAuto(Automobile auto) {
+    public AutoList getAutos(String color, String make, String after, int limit) {
+        int pageSize = pageSize(limit);
+        long afterId = AutoCursor.decode(after);
+        return listFlights.get(listKey(AutoFilter.of(color, make), afterId, pageSize), () -> {
+            AutoFilter filter = searchVocabulary.resolve(color, make);
+            if (filter.isEmpty()) {
+                return page(autosRepository.findByIdGreaterThanOrderByIdAsc(afterId, lookAhead(pageSize)), pageSize);
+            }
+            return page(autosRepository.search(filter, afterId, pageSize + 1), pageSize);
+        });
+    }
+
+    /**
+     * A page narrowed to an exact make and/or a range of model years as well, in {@code sort}
+     * order. An exact make with a year range or year sort reads the (make, year, id) index in
+     * order, so a page costs about {@code limit} index entries however many autos match.
+     *
+     * @param sort {@code id} (or blank), {@code year} or {@code -year}
+     * @throws InvalidQueryException for an unknown sort, a cursor issued for another sort,
+     *                               or {@code minYear} after {@code maxYear}
+     */
+    public AutoList getAutos(String color, String make, String exactMake, Integer minYear, Integer maxYear,
+                             String sort, String after, int limit) {
+        int pageSize = pageSize(limit);
+        AutoSort order = AutoSort.parse(sort);
+        AutoCursor.Position position = AutoCursor.decode(after, order);
+        if (minYear != null && maxYear != null && minYear > maxYear) {
+            throw new InvalidQueryException();
+        }
+        AutoFilter filter = searchVocabulary.resolve(color, make).withExactMakeAndYears(exactMake, minYear, maxYear);
+        if (filter.isEmpty() && order == AutoSort.ID) {
+            long afterId = position == null ? 0 : position.getId();
+            return page(autosRepository.findByIdGreaterThanOrderByIdAsc(afterId, lookAhead(pageSize)), pageSize);
+        }
+        return page(autosRepository.search(filter, order, position, pageSize + 1), pageSize, order);
+    }
+
+    /**
+     * A page of autos with only the requested properties, read as a column projection, narrowed
+     * and ordered the same way as {@link #getAutos(String, String, String, Integer, Integer, String, String, int)}.
+     *
+     * @param fields names from {@link #PROJECTABLE_FIELDS}, in the order they should appear
+     * @throws InvalidQueryException if a field is unknown or none is given, or for a sort,
+     *                               cursor or year range that page would reject
+     */
+    @Transactional(readOnly = true)
+    public ProjectedAutoList getAutos(String color, String make, String exactMake, Integer minYear, Integer maxYear,
+                                      String sort, String after, int limit, List<String> fields) {
+        int pageSize = pageSize(limit);
+        Set<String> projection = projection(fields);
+        AutoSort order = AutoSort.parse(sort);
+        AutoCursor.Position position = AutoCursor.decode(after, order);
+        if (minYear != null && maxYear != null && minYear > maxYear) {
+            throw new InvalidQueryException();
+        }
+        AutoFilter filter = searchVocabulary.resolve(color, make).withExactMakeAndYears(exactMake, minYear, maxYear);
+        List<Tuple> rows = autosRepository.project(filter, order, position, pageSize + 1, projection);
+
+        List<Tuple> page = rows.size() > pageSize ? rows.subList(0, pageSize) : rows;
+        List<Map<String, Object>> autos = new ArrayList<>(page.size());
+        for (Tuple row : page) {
+            Map<String, Object> auto = new LinkedHashMap<>();
+            for (String field : projection) {
+                auto.put(field, row.get(field));
+            }
+            autos.add(auto);
+        }
+        String next = null;
+        if (rows.size() > pageSize) {
+            Tuple last = page.get(pageSize - 1);
+            int lastYear = order == AutoSort.ID ? 0 : last.get("year", Integer.class);
+            next = AutoCursor.encode(order, lastYear, last.get("id", Long.class));
+        }
+        return new ProjectedAutoList(autos, next);
+    }
+
+    public void validate(Automobile auto) {
         if(auto.getVin() == null || auto.getMake() == null || auto.getYear() == 0 || auto.getModel() == null) {
             throw new InvalidAutoException();
-        } else {
-            return autosRepository.save(auto);
         }
     }
 
+    public Automobile addAuto(Automobile auto) {
+        validate(auto);
+        Automobile saved;
+        try {
+            // Flushed inside the transaction so a duplicate VIN fails here, before the change is recorded.
+            saved = transactionTemplate.execute(status -> {
+                Automobile inserted = autosRepository.save(auto);
+                autosRepository.flush();
+                inventoryRevisions.record(AutoChange.Type.CREATED, inserted.getVin(), null, inserted);
+                return inserted;
+            });
+        } catch (DataIntegrityViolationException e) {
+            if (autosRepository.existsByVin(Automobile.normalizeVin(auto.getVin()))) {
+                throw new DuplicateAutoException();
+            }
+            throw e;
+        }
+        vinCache.invalidate(saved.getVin());
+        return saved;
+    }
+
+    /**
+     * The auto with its buffered write-behind update, if any, already applied.
+     */
     public Automobile getAuto(String vin) {
-        return autosRepository.findByVinIgnoreCase(vin).orElse(new Automobile());
+        return vinCache.get(vin, autosRepository::findByVin)
+                .map(autosWriteBehind::overlay)
+                .orElse(new Automobile());
+    }
+
+    public boolean isWriteBehind() {
+        return autosWriteBehind.isEnabled();
+    }
+
+    /**
+     * Buffers an owner/color update in {@link AutosWriteBehind} instead of writing it now.
+     *
+     * @return the auto as it will be once written, with no version yet; empty if there is no such VIN
+     * @throws WriteBehindUnavailableException if the buffer is full or shutting down
+     */
+    public Automobile acceptUpdate(String vin, String owner, String color) {
+        String key = Automobile.normalizeVin(vin);
+        Automobile current = getAuto(key);
+        if (current.isEmpty()) {
+            return current;
+        }
+        return current.withOwnerAndColor(owner, color, autosWriteBehind.accept(key, owner, color));
     }
 
     public Automobile updateAuto(String vin, String owner, String color) {
-        Automobile auto = getAuto(vin);
-        if (!auto.isEmpty()) {
-            auto.setOwner(owner);
-            auto.setColor(color);
-            autosRepository.save(auto);
-            return auto;
-        } else {
+        return updateAuto(vin, owner, color, null);
+    }
+
+    /**
+     * Locks the row, checks {@code expectedVersion} against it and updates owner and color with one
+     * UPDATE statement; the response is the locked row with the update applied, not read back.
+     *
+     * @param expectedVersion only update if the row is still at this version; null to update unconditionally
+     * @throws VersionConflictException if the auto exists but has moved past {@code expectedVersion}
+     */
+    @Transactional
+    public Automobile updateAuto(String vin, String owner, String color, Long expectedVersion) {
+        String key = Automobile.normalizeVin(vin);
+        if (expectedVersion != null && autosWriteBehind.isPending(key)) {
+            // The auto has accepted changes past any version the client could have read.
+            throw new VersionConflictException();
+        }
+        Automobile before = autosRepository.findByVinForUpdate(key).orElse(null);
+        if (before == null) {
             return new Automobile();
         }
+        if (expectedVersion != null && !expectedVersion.equals(before.getVersion())) {
+            throw new VersionConflictException();
+        }
+        Instant now = Instant.now();
+        autosRepository.updateOwnerAndColor(key, owner, color, Automobile.normalize(color), now);
+        // This write is newer than anything still buffered for the VIN.
+        autosWriteBehind.discard(key);
+        vinCache.invalidate(key);
+        Automobile auto = before.withOwnerAndColor(owner, color, before.getVersion() + 1, now);
+        inventoryRevisions.record(AutoChange.Type.UPDATED, key, before, auto);
+        return auto;
     }
 
     public void deleteAuto(String vin) {
-        Automobile dAuto = getAuto(vin);
-        if(!dAuto.isEmpty()) {
-            autosRepository.delete(dAuto);
-        } else {
-            throw new AutoNotFoundException();
+        deleteAuto(vin, null);
+    }
+
+    /**
+     * Locks the row, checks {@code expectedVersion} against it and deletes with one DELETE statement.
+     *
+     * @throws AutoNotFoundException if there is no auto with this VIN
+     * @throws VersionConflictException if the auto exists but has moved past {@code expectedVersion}
+     */
+    @Transactional
+    public void deleteAuto(String vin, Long expectedVersion) {
+        String key = Automobile.normalizeVin(vin);
+        Automobile before = autosRepository.findByVinForUpdate(key).orElseThrow(AutoNotFoundException::new);
+        if (expectedVersion != null && !expectedVersion.equals(before.getVersion())) {
+            throw new VersionConflictException();
+        }
+        autosRepository.deleteVin(key);
+        inventoryRevisions.record(AutoChange.Type.DELETED, key, before, null);
+        autosWriteBehind.discard(key);
+        vinCache.invalidate(key);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("autos.list.queries", listFlights, SingleFlight::loads)
+                .description("List queries run for getAutos")
+                .register(registry);
+        FunctionCounter.builder("autos.list.coalesced", listFlights, SingleFlight::shared)
+                .description("getAutos calls that shared a query already in flight")
+                .register(registry);
+    }
+
+    // Terms are normalized as the query matches them. A request that has read revision N here
+    // (as the controller does first, whichever instance wrote N) only joins a query started
+    // after N committed; one that follows a write this instance committed, or that reads its
+    // own writes from the primary, never joins a query started without it.
+    private ListKey listKey(AutoFilter terms, long afterId, int pageSize) {
+        return new ListKey(terms.getColor(), terms.getMake(), afterId, pageSize, inventoryRevisions.latestRead(),
+                inventoryRevisions.committedWrites(), ReadWriteRoutingDataSource.isPinnedToPrimary());
+    }
+
+    static int pageSize(int limit) {
+        if (limit < 1) {
+            throw new InvalidQueryException();
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    private static Set<String> projection(List<String> fields) {
+        Set<String> projection = new LinkedHashSet<>();
+        for (String field : fields) {
+            String name = field.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!PROJECTABLE_FIELDS.contains(name)) {
+                throw new InvalidQueryException();
+            }
+            projection.add(name);
+        }
+        if (projection.isEmpty()) {
+            throw new InvalidQueryException();
+        }
+        return projection;
+    }
+
+    // One extra row tells us whether another page follows without a count query.
+    private static Pageable lookAhead(int pageSize) {
+        return PageRequest.of(0, pageSize + 1);
+    }
+
+    static AutoList page(List<Automobile> rows, int pageSize) {
+        return page(rows, pageSize, AutoSort.ID);
+    }
+
+    static AutoList page(List<Automobile> rows, int pageSize, AutoSort sort) {
+        if (rows.size() <= pageSize) {
+            return new AutoList(rows);
+        }
+        List<Automobile> page = rows.subList(0, pageSize);
+        return new AutoList(page, AutoCursor.encode(sort, page.get(pageSize - 1)));
+    }
+
+    private static final class ListKey {
+        private final String color;
+        private final String make;
+        private final long afterId;
+        private final int pageSize;
+        private final long revision;
+        private final long committedWrites;
+        private final boolean primary;
+
+        private ListKey(String color, String make, long afterId, int pageSize, long revision, long committedWrites,
+                        boolean primary) {
+            this.color = color;
+            this.make = make;
+            this.afterId = afterId;
+            this.pageSize = pageSize;
+            this.revision = revision;
+            this.committedWrites = committedWrites;
+            this.primary = primary;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ListKey listKey = (ListKey) o;
+            return afterId == listKey.afterId && pageSize == listKey.pageSize && revision == listKey.revision
+                    && committedWrites == listKey.committedWrites && primary == listKey.primary
+                    && Objects.equals(color, listKey.color) && Objects.equals(make, listKey.make);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(color, make, afterId, pageSize, revision, committedWrites, primary);
         }
     }
 }
@@ -0,0 +1,420 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Opt-in write-behind buffer for owner/color updates ({@code autos.write-behind.enabled}).
+ * <p>
+ * Accepted updates are kept per VIN, so a burst for one auto collapses into its last value.
+ * Every {@code flush-window}, or as soon as {@code batch-size} VINs are waiting, the buffer is
+ * written as one JDBC batch in one transaction, after a batch recording the changes, and the
+ * inventory revision is bumped once. An auto another write changes in between is left alone,
+ * and the batch is retried as below. {@link AutosService#getAuto} overlays whatever is still
+ * waiting, so a client reads its own writes before they are flushed.
+ * <p>
+ * At most {@code capacity} VINs wait at once. An update for another VIN blocks up to
+ * {@code accept-timeout} for a flush to make room and is then refused. On shutdown the
+ * buffer stops accepting and flushes what it holds.
+ * <p>
+ * When a batch fails its updates are retried one at a time, so one bad row cannot hold up
+ * the rest. An update the database rejects outright is logged and dropped; one that keeps
+ * failing otherwise is dropped after {@code max-attempts}. If the database cannot be reached
+ * at all, everything goes back into the buffer for the next flush.
+ */
+@Component
+public class AutosWriteBehind implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AutosWriteBehind.class);
+    // Only lands on the version RECORD saw, so color_before is the value the update replaces.
+    private static final String UPDATE = "update automobiles set owner = ?, color = ?, color_normalized = ?, "
+            + "version = version + 1, updated_at = ? where vin = ? and version + 1 = "
+            + "(select c.version from auto_changes c where c.batch = ? and c.vin = automobiles.vin)";
+    private static final String RECORD = "insert into auto_changes "
+            + "(type, vin, version, changed_at, make_normalized, year, color_before, color_after, batch) "
+            + "select 'UPDATED', vin, version + 1, ?, make_normalized, year, color_normalized, cast(? as varchar(255)), ? "
+            + "from automobiles where vin = ?";
+    private static final int SHUTDOWN_ATTEMPTS = 3;
+    // owner and color are varchar(255); refuse longer values up front rather than at flush time.
+    private static final int MAX_FIELD_LENGTH = 255;
+
+    private final boolean enabled;
+    private final Duration flushWindow;
+    private final int batchSize;
+    private final int capacity;
+    private final Duration acceptTimeout;
+    private final int maxAttempts;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final InventoryRevisions inventoryRevisions;
+    private final VinCache vinCache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    // One flush at a time, so flushing always holds the batch being written.
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Guarded by lock. pending takes new updates; flushing is the batch being written.
+    private Map<String, Pending> pending = new LinkedHashMap<>();
+    private Map<String, Pending> flushing = Map.of();
+    private boolean accepting;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private ScheduledExecutorService flusher;
+
+    public AutosWriteBehind(@Value("${autos.write-behind.enabled:false}") boolean enabled,
+                            @Value("${autos.write-behind.flush-window:100ms}") Duration flushWindow,
+                            @Value("${autos.write-behind.batch-size:500}") int batchSize,
+                            @Value("${autos.write-behind.capacity:10000}") int capacity,
+                            @Value("${autos.write-behind.accept-timeout:1s}") Duration acceptTimeout,
+                            @Value("${autos.write-behind.max-attempts:3}") int maxAttempts,
+                            JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                            InventoryRevisions inventoryRevisions, VinCache vinCache) {
+        this.enabled = enabled;
+        this.flushWindow = flushWindow;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.acceptTimeout = acceptTimeout;
+        this.maxAttempts = maxAttempts;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.inventoryRevisions = inventoryRevisions;
+        this.vinCache = vinCache;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        accepting = true;
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autos-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushWindow.toMillis(), flushWindow.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            accepting = false;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(30, TimeUnit.SECONDS);
+        for (int attempt = 1; attempt <= SHUTDOWN_ATTEMPTS && size() > 0; attempt++) {
+            flushQuietly();
+        }
+        int lost = size();
+        if (lost > 0) {
+            log.error("Shut down with {} write-behind updates unflushed", lost);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Buffers an update, replacing any earlier one for the same VIN that has not been written yet.
+     *
+     * @param vin a normalized VIN
+     * @return when the update was accepted, which becomes its Last-Modified once written
+     * @throws InvalidAutoException if owner or color is too long for its column
+     * @throws WriteBehindUnavailableException if the buffer stayed full for {@code accept-timeout},
+     *                                         or is shutting down
+     */
+    public Instant accept(String vin, String owner, String color) {
+        if (tooLong(owner) || tooLong(color)) {
+            throw new InvalidAutoException();
+        }
+        Instant now = Instant.now();
+        lock.lock();
+        try {
+            long nanos = acceptTimeout.toNanos();
+            while (accepting && !pending.containsKey(vin) && pending.size() >= capacity) {
+                if (nanos <= 0) {
+                    throw new WriteBehindUnavailableException();
+                }
+                nanos = drained.awaitNanos(nanos);
+            }
+            if (!accepting) {
+                throw new WriteBehindUnavailableException();
+            }
+            if (pending.put(vin, new Pending(owner, color, now, 0)) != null) {
+                coalesced.incrementAndGet();
+            }
+            accepted.incrementAndGet();
+            if (pending.size() == batchSize) {
+                flusher.execute(this::flushQuietly);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WriteBehindUnavailableException();
+        } finally {
+            lock.unlock();
+        }
+        return now;
+    }
+
+    /**
+     * The auto as it will be once its buffered update, if any, has been written.
+     */
+    public Automobile overlay(Automobile auto) {
+        if (!enabled) {
+            return auto;
+        }
+        Pending update = find(auto.getVin());
+        return update == null ? auto : auto.withOwnerAndColor(update.owner, update.color, update.acceptedAt);
+    }
+
+    public boolean isPending(String vin) {
+        return enabled && find(vin) != null;
+    }
+
+    /**
+     * Drops a buffered update that a direct write has superseded. An update that is already
+     * being flushed still lands.
+     */
+    public void discard(String vin) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            pending.remove(vin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("autos.write_behind.accepted", accepted, AtomicLong::get)
+                .description("Updates accepted into the write-behind buffer")
+                .register(registry);
+        FunctionCounter.builder("autos.write_behind.coalesced", coalesced, AtomicLong::get)
+                .description("Buffered updates replaced by a later one for the same VIN")
+                .register(registry);
+        FunctionCounter.builder("autos.write_behind.flushes", flushes, AtomicLong::get)
+                .description("Batches written, one transaction each")
+                .register(registry);
+        FunctionCounter.builder("autos.write_behind.dropped", dropped, AtomicLong::get)
+                .description("Buffered updates given up on after they could not be written")
+                .register(registry);
+        Gauge.builder("autos.write_behind.pending", this, AutosWriteBehind::size)
+                .description("VINs waiting to be written")
+                .register(registry);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // The database was out of reach; what was left went back into the buffer for the next flush.
+            log.warn("Write-behind flush failed", e);
+        }
+    }
+
+    /**
+     * Writes whatever is buffered now. Also called before a bulk write, so updates accepted
+     * earlier land before it rather than over it.
+     *
+     * @throws RuntimeException if the database could not be reached; the unwritten updates stay buffered
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            flushBuffered();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushBuffered() {
+        Map<String, Pending> batch;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            flushing = batch;
+            pending = new LinkedHashMap<>();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        Map<String, Pending> written = batch;
+        Map<String, Pending> retry = new LinkedHashMap<>();
+        RuntimeException unreachable = null;
+        try {
+            write(batch);
+        } catch (RuntimeException e) {
+            log.warn("Write-behind batch of {} failed; writing its updates one at a time", batch.size(), e);
+            written = new LinkedHashMap<>();
+            unreachable = writeOneAtATime(batch, written, retry);
+        }
+
+        // Invalidate before the overlay goes, so no reader falls back to a stale cached row.
+        written.keySet().forEach(vinCache::invalidate);
+        lock.lock();
+        try {
+            // Anything accepted since is newer and stays.
+            retry.forEach(pending::putIfAbsent);
+            flushing = Map.of();
+        } finally {
+            lock.unlock();
+        }
+        if (unreachable != null) {
+            throw unreachable;
+        }
+    }
+
+    /**
+     * Writes each update of a failed batch in a transaction of its own.
+     *
+     * @return the failure that stopped it when the database could not be reached, otherwise null
+     */
+    private RuntimeException writeOneAtATime(Map<String, Pending> batch, Map<String, Pending> written,
+                                             Map<String, Pending> retry) {
+        RuntimeException unreachable = null;
+        for (Map.Entry<String, Pending> entry : batch.entrySet()) {
+            String vin = entry.getKey();
+            Pending update = entry.getValue();
+            if (unreachable != null) {
+                retry.put(vin, update);
+                continue;
+            }
+            try {
+                write(Map.of(vin, update));
+                written.put(vin, update);
+            } catch (DataAccessResourceFailureException | TransactionException e) {
+                // Not this row's fault; keep it and the rest without spending an attempt.
+                unreachable = e;
+                retry.put(vin, update);
+            } catch (NonTransientDataAccessException e) {
+                drop(vin, update, e);
+            } catch (RuntimeException e) {
+                if (update.attempts + 1 >= maxAttempts) {
+                    drop(vin, update, e);
+                } else {
+                    retry.put(vin, update.retried());
+                }
+            }
+        }
+        return unreachable;
+    }
+
+    private void drop(String vin, Pending update, RuntimeException cause) {
+        dropped.incrementAndGet();
+        log.error("Dropped write-behind update for {} (owner={}, color={}) after {} attempts",
+                vin, update.owner, update.color, update.attempts + 1, cause);
+    }
+
+    private void write(Map<String, Pending> batch) {
+        String changeBatch = InventoryRevisions.newBatch();
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        List<Object[]> changes = new ArrayList<>(batch.size());
+        batch.forEach((vin, update) -> {
+            rows.add(new Object[]{update.owner, update.color,
+                    Automobile.normalize(update.color), Timestamp.from(update.acceptedAt), vin, changeBatch});
+            changes.add(new Object[]{now, Automobile.normalize(update.color), changeBatch, vin});
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            int[] recorded = jdbcTemplate.batchUpdate(RECORD, changes);
+            int[] updated = jdbcTemplate.batchUpdate(UPDATE, rows);
+            if (!Arrays.equals(recorded, updated)) {
+                // Rolls back; written one at a time, the others land and this one is tried again.
+                throw new ConcurrencyFailureException("An auto changed while its write-behind update was written");
+            }
+            inventoryRevisions.recordBatch(changeBatch);
+        });
+        flushes.incrementAndGet();
+    }
+
+    private Pending find(String vin) {
+        lock.lock();
+        try {
+            Pending update = pending.get(vin);
+            return update != null ? update : flushing.get(vin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean tooLong(String value) {
+        return value != null && value.length() > MAX_FIELD_LENGTH;
+    }
+
+    private static final class Pending {
+        private final String owner;
+        private final String color;
+        private final Instant acceptedAt;
+        // Single-row writes that have failed so far.
+        private final int attempts;
+
+        private Pending(String owner, String color, Instant acceptedAt, int attempts) {
+            this.owner = owner;
+            this.color = color;
+            this.acceptedAt = acceptedAt;
+            this.attempts = attempts;
+        }
+
+        private Pending retried() {
+            return new Pending(owner, color, acceptedAt, attempts + 1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.galvanize.autos;
+
+public class BatchItemResult {
+
+    public enum Status { CREATED, INVALID, DUPLICATE }
+
+    private int index;
+    private String vin;
+    private Status status;
+    private Long id;
+
+    public BatchItemResult() { }
+
+    public BatchItemResult(int index, String vin, Status status, Long id) {
+        this.index = index;
+        this.vin = vin;
+        this.status = status;
+        this.id = id;
+    }
+
+    public static BatchItemResult created(int index, Automobile auto) {
+        return new BatchItemResult(index, auto.getVin(), Status.CREATED, auto.getId());
+    }
+
+    public static BatchItemResult rejected(int index, String vin, Status status) {
+        return new BatchItemResult(index, vin, status, null);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getVin() {
+        return vin;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "index=" + index +
+                ", vin='" + vin + '\'' +
+                ", status=" + status +
+                ", id=" + id +
+                '}';
+    }
+}
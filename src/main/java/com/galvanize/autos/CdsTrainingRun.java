@@ -0,0 +1,45 @@
+package com.galvanize.autos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * The training run of the {@code cdsArchive} Gradle task ({@code autos.cds.training=true}):
+ * once ready, the application serves itself one {@code GET /api/autos}, so the classes of the
+ * request path are archived along with startup's, and exits.
+ */
+@Component
+@ConditionalOnProperty("autos.cds.training")
+class CdsTrainingRun implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(CdsTrainingRun.class);
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        ConfigurableApplicationContext context = event.getApplicationContext();
+        String port = context.getEnvironment().getProperty("local.server.port");
+        if (port != null) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/autos")).GET().build();
+            try {
+                HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+            } catch (IOException e) {
+                log.warn("Training request failed; archiving startup classes only", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.exit(SpringApplication.exit(context));
+    }
+}
@@ -0,0 +1,179 @@
+package com.galvanize.autos;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A concurrency limit that adapts to latency, with a short bounded wait queue.
+ * <p>
+ * Every completed request is a latency sample. While the limit is in use, it moves toward
+ * {@code limit * gradient + sqrt(limit)}, where the gradient is {@code tolerance} times the
+ * long-run average latency over the latest sample, capped to [0.5, 1]. So the limit grows
+ * by about its square root while latency holds, and shrinks as latency rises past
+ * {@code tolerance} times its usual level, which is what a backed-up database looks like
+ * from here.
+ */
+final class ConcurrencyLimiter {
+
+    private static final double LONG_WINDOW = 600;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long maxWaitNanos;
+    private final double tolerance;
+    private final LongSupplier nanoTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    // Guarded by lock.
+    private double limit;
+    private int inflight;
+    private int waiting;
+    private double longRtt;
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int queueSize, Duration maxWait, double tolerance) {
+        this(initialLimit, minLimit, maxLimit, queueSize, maxWait, tolerance, System::nanoTime);
+    }
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int queueSize, Duration maxWait, double tolerance,
+                       LongSupplier nanoTime) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.tolerance = tolerance;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Admits a request while fewer than {@code share} of the limit are in flight. Otherwise,
+     * if {@code mayWait} and the queue has room, waits up to {@code max-wait} for a release.
+     *
+     * @return the permit to release when the request is done, or null if refused
+     */
+    Permit tryAcquire(double share, boolean mayWait) {
+        lock.lock();
+        try {
+            if (inflight < admitted(share)) {
+                return admit();
+            }
+            if (!mayWait || waiting >= queueSize) {
+                return null;
+            }
+            waiting++;
+            try {
+                long nanos = maxWaitNanos;
+                while (inflight >= admitted(share)) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = released.awaitNanos(nanos);
+                }
+                return admit();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a request now would have to wait.
+     */
+    boolean isSaturated() {
+        lock.lock();
+        try {
+            return waiting > 0 || inflight >= admitted(1.0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInflight() {
+        lock.lock();
+        try {
+            return inflight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int admitted(double share) {
+        return Math.max(1, (int) (limit * share));
+    }
+
+    private Permit admit() {
+        inflight++;
+        return new Permit(nanoTime.getAsLong());
+    }
+
+    private void release(long startedAt) {
+        long rtt = Math.max(1, nanoTime.getAsLong() - startedAt);
+        lock.lock();
+        try {
+            sample(rtt);
+            inflight--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rtt) {
+        longRtt = longRtt == 0 ? rtt : longRtt + (rtt - longRtt) / LONG_WINDOW;
+        // Once latency is back down, let the average follow quickly instead of over a whole window.
+        if (longRtt > 2 * rtt) {
+            longRtt *= 0.95;
+        }
+        // A limit that isn't being used says nothing about how high it could go.
+        if (inflight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / rtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    final class Permit {
+        private final long startedAt;
+        private boolean released;
+
+        private Permit(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        void release() {
+            if (!released) {
+                released = true;
+                ConcurrencyLimiter.this.release(startedAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.galvanize.autos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV records from a UTF-8 file through memory-mapped windows, so a file of
+ * any size is parsed without being read onto the heap. Quoted fields may hold commas, line
+ * breaks and doubled quotes; lines may end in LF or CRLF. A record must fit in one window.
+ * <p>
+ * {@link #offset()} is the byte offset of the next record, which is what an import
+ * checkpoints and later {@link #seek}s back to.
+ */
+final class CsvRecordReader implements Closeable {
+
+    static final int WINDOW = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int window;
+    private final ByteArrayOutputStream field = new ByteArrayOutputStream(64);
+    private MappedByteBuffer buffer;
+    private long base;
+    private long offset;
+
+    CsvRecordReader(Path file) throws IOException {
+        this(file, WINDOW);
+    }
+
+    CsvRecordReader(Path file, int window) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.window = window;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * Continues at {@code offset}, which must be the start of a record.
+     */
+    void seek(long offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * @return the next record's fields, or null at the end of the file
+     * @throws IOException if a record is longer than the window
+     */
+    List<String> next() throws IOException {
+        while (offset < size) {
+            if (buffer == null || offset < base || offset >= base + buffer.limit()) {
+                map(offset);
+            }
+            List<String> record = parse((int) (offset - base));
+            if (record != null) {
+                return record;
+            }
+            if (base == offset) {
+                throw new IOException("CSV record at byte " + offset + " is longer than " + window + " bytes");
+            }
+            // The record runs past this window; map one that starts with it.
+            map(offset);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+
+    private void map(long position) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position));
+        base = position;
+    }
+
+    // Null when the window ends before the record does and the file goes on.
+    private List<String> parse(int start) {
+        List<String> fields = new ArrayList<>();
+        field.reset();
+        int limit = buffer.limit();
+        boolean lastWindow = base + limit >= size;
+        boolean quoted = false;
+        int i = start;
+        while (i < limit) {
+            byte b = buffer.get(i++);
+            if (quoted) {
+                if (b != '"') {
+                    field.write(b);
+                } else if (i < limit && buffer.get(i) == '"') {
+                    field.write('"');
+                    i++;
+                } else if (i == limit && !lastWindow) {
+                    // Can't tell a closing quote from the first of a doubled one yet.
+                    return null;
+                } else {
+                    quoted = false;
+                }
+            } else if (b == '"') {
+                quoted = true;
+            } else if (b == ',') {
+                fields.add(field.toString(StandardCharsets.UTF_8));
+                field.reset();
+            } else if (b == '\n') {
+                fields.add(field.toString(StandardCharsets.UTF_8));
+                offset = base + i;
+                return fields;
+            } else if (b == '\r' && i < limit && buffer.get(i) == '\n') {
+                continue;
+            } else if (b == '\r' && i == limit && !lastWindow) {
+                return null;
+            } else {
+                field.write(b);
+            }
+        }
+        if (!lastWindow) {
+            return null;
+        }
+        // The last record need not end with a line break.
+        fields.add(field.toString(StandardCharsets.UTF_8));
+        offset = base + limit;
+        return fields;
+    }
+}
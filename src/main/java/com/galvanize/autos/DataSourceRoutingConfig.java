@@ -0,0 +1,130 @@
+package com.galvanize.autos;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read replicas, switched on by listing their JDBC URLs in {@code autos.datasource.replicas.urls}.
+ * They use the primary's credentials and pool size, with a short connection timeout so a
+ * dead replica costs a request a second at most before it falls back to the primary.
+ * <p>
+ * Read-only transactions ({@code getAutos}, {@code getAuto}) then go to a replica, except for
+ * a client that wrote within {@code read-your-writes}: writes set a cookie until then, and
+ * requests carrying it read from the primary.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty("autos.datasource.replicas.urls")
+public class DataSourceRoutingConfig {
+
+    static final String READ_YOUR_WRITES_COOKIE = "autos-rw";
+
+    private static final Set<String> WRITE_METHODS = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    // A bean of its own so its close() shuts the replica pools down with the context.
+    @Bean
+    ReadWriteRoutingDataSource routingDataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                                 MeterRegistry meterRegistry,
+                                                 @Value("${autos.datasource.replicas.urls}") List<String> urls,
+                                                 @Value("${autos.datasource.replicas.connection-timeout:1s}") Duration connectionTimeout,
+                                                 @Value("${autos.datasource.replicas.retry-after:30s}") Duration retryAfter) {
+        List<DataSource> replicas = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class)
+                    .url(urls.get(i).trim())
+                    .build();
+            replica.setPoolName("replica-" + i);
+            replica.setMaximumPoolSize(primaryDataSource.getMaximumPoolSize());
+            replica.setConnectionTimeout(connectionTimeout.toMillis());
+            // Don't fail startup over a replica; it is retried on use.
+            replica.setInitializationFailTimeout(-1);
+            replica.setMetricRegistry(meterRegistry);
+            replicas.add(replica);
+        }
+        return new ReadWriteRoutingDataSource(primaryDataSource, replicas, retryAfter, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    DataSource dataSource(ReadWriteRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    WebMvcConfigurer readYourWrites(@Value("${autos.datasource.replicas.read-your-writes:5s}") Duration window) {
+        HandlerInterceptor interceptor = new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                long now = System.currentTimeMillis();
+                if (WRITE_METHODS.contains(request.getMethod())) {
+                    // Set up front: the response may be committed before the handler returns.
+                    Cookie cookie = new Cookie(READ_YOUR_WRITES_COOKIE, Long.toString(now + window.toMillis()));
+                    cookie.setMaxAge((int) Math.max(1, window.toSeconds()));
+                    cookie.setPath("/api");
+                    cookie.setHttpOnly(true);
+                    response.addCookie(cookie);
+                } else if (wroteUntil(request) > now) {
+                    ReadWriteRoutingDataSource.pinToPrimary();
+                }
+                return true;
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                ReadWriteRoutingDataSource.reset();
+            }
+        };
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(interceptor).addPathPatterns("/api/**");
+            }
+        };
+    }
+
+    // The cookie carries its own expiry, for clients that keep cookies past Max-Age.
+    private static long wroteUntil(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (READ_YOUR_WRITES_COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidQueryException;
+
+/**
+ * Entity tags: autos are tagged with their row version, lists with the
+ * {@link InventoryRevision} they were read at.
+ * <p>
+ * Auto tags are strong, because If-Match compares strongly. List tags are weak: one revision
+ * is served as JSON, CBOR, Smile or a table, gzipped or not, and Tomcat does not compress a
+ * response that carries a strong tag. Both kinds of response vary by Accept.
+ */
+public final class ETags {
+
+    private ETags() { }
+
+    public static String of(Automobile auto) {
+        return "\"" + auto.getVersion() + "\"";
+    }
+
+    public static String of(InventoryRevision revision) {
+        return "W/\"r" + revision.getRevision() + "\"";
+    }
+
+    /**
+     * @return the version an {@code If-Match} header asks for, or null when there is no
+     * header or it is {@code *} (any current version)
+     */
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            throw new InvalidQueryException();
+        }
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new InvalidQueryException();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Auto counts per make, color and year for {@code GET /api/autos/facets}. Makes and colors
+ * are keyed by their normalized (lowercase) form, which is also what the filters match on.
+ */
+public class FacetCounts {
+
+    private final Map<String, Long> make;
+    private final Map<String, Long> color;
+    private final Map<String, Long> year;
+
+    @JsonCreator
+    public FacetCounts(@JsonProperty("make") Map<String, Long> make,
+                       @JsonProperty("color") Map<String, Long> color,
+                       @JsonProperty("year") Map<String, Long> year) {
+        this.make = make;
+        this.color = color;
+        this.year = year;
+    }
+
+    public Map<String, Long> getMake() {
+        return make;
+    }
+
+    public Map<String, Long> getColor() {
+        return color;
+    }
+
+    public Map<String, Long> getYear() {
+        return year;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FacetCounts that = (FacetCounts) o;
+        return make.equals(that.make) && color.equals(that.color) && year.equals(that.year);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(make, color, year);
+    }
+}
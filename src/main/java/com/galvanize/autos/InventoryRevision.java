@@ -0,0 +1,41 @@
+package com.galvanize.autos;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Single-row change marker for the whole inventory. Every write that goes through
+ * {@link AutosService} or {@link AutosBatchLoader} bumps it in the same transaction, so an
+ * unchanged revision means any list response built from it is still current.
+ */
+@Entity
+@Table(name = "inventory_revision")
+public class InventoryRevision {
+
+    static final long ID = 1L;
+
+    @Id
+    private Long id;
+    private long revision;
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    protected InventoryRevision() {}
+
+    InventoryRevision(long revision, Instant updatedAt) {
+        this.id = ID;
+        this.revision = revision;
+        this.updatedAt = updatedAt;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,25 @@
+package com.galvanize.autos;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Repository
+public interface InventoryRevisionRepository extends JpaRepository<InventoryRevision, Long> {
+
+    @Transactional
+    @Modifying
+    @Query("update InventoryRevision r set r.revision = r.revision + 1, r.updatedAt = :now where r.id = :id")
+    int bump(@Param("id") long id, @Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query(nativeQuery = true, value = "insert into inventory_revision (id, revision, updated_at) "
+            + "select :id, 1, :now where not exists (select 1 from inventory_revision where id = :id)")
+    int createIfMissing(@Param("id") long id, @Param("now") Instant now);
+}
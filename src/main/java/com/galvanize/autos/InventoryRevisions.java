@@ -0,0 +1,173 @@
+package com.galvanize.autos;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and advances the {@link InventoryRevision} marker, and appends each change to the
+ * {@link AutoChange} outbox.
+ * <p>
+ * Writes made straight through the repositories (or SQL) do neither; conditional list
+ * requests can then answer 304 until the next write through the services, and change feed
+ * subscribers never hear of them.
+ * <p>
+ * The bump locks the revision row until the transaction ends, which serializes every write
+ * in the inventory from that statement to its commit, so it comes last. The revisions it
+ * hands out therefore follow commit order, and readers take changes in (revision, seq)
+ * order: once one is visible, everything before it has committed, with no holes to wait
+ * on. A single change is one small row inserted after the bump with the revision it made.
+ * A set-based write inserts its changes beforehand, outside the lock, tagged with a batch
+ * id, and after the bump only records that batch against its revision. Writers lock their
+ * automobiles rows before calling in here, so the lock order stays automobiles, then
+ * revision.
+ */
+@Component
+public class InventoryRevisions {
+
+    // Typed, so a null binds as the column's type; the revision is the one this transaction just made.
+    private static final String INSERT_CHANGE = "insert into auto_changes "
+            + "(type, vin, version, changed_at, make_normalized, year, color_before, color_after, revision) "
+            + "select cast(? as varchar(16)), cast(? as varchar(255)), cast(? as bigint), cast(? as timestamp), "
+            + "cast(? as varchar(255)), cast(? as integer), cast(? as varchar(255)), cast(? as varchar(255)), revision "
+            + "from inventory_revision where id = ?";
+
+    private final InventoryRevisionRepository inventoryRevisionRepository;
+    private final AutoChangeRepository autoChangeRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Clock clock;
+    private final AtomicLong committedWrites = new AtomicLong();
+    private final AtomicLong latestRead = new AtomicLong();
+
+    public InventoryRevisions(InventoryRevisionRepository inventoryRevisionRepository,
+                              AutoChangeRepository autoChangeRepository, JdbcTemplate jdbcTemplate) {
+        this(inventoryRevisionRepository, autoChangeRepository, jdbcTemplate, Clock.systemUTC());
+    }
+
+    InventoryRevisions(InventoryRevisionRepository inventoryRevisionRepository,
+                       AutoChangeRepository autoChangeRepository, JdbcTemplate jdbcTemplate, Clock clock) {
+        this.inventoryRevisionRepository = inventoryRevisionRepository;
+        this.autoChangeRepository = autoChangeRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.clock = clock;
+    }
+
+    // One read-write statement, so it always checks the primary, never a lagging replica.
+    @PostConstruct
+    void createIfMissing() {
+        try {
+            inventoryRevisionRepository.createIfMissing(InventoryRevision.ID, clock.instant());
+        } catch (DataIntegrityViolationException e) {
+            // another instance created it first
+        }
+    }
+
+    /**
+     * One primary-key read; empty only if the row has been removed behind our back.
+     * Read-only, so with replicas it is read before the list it validates, from the same
+     * replica, and never claims a newer state than that list shows.
+     */
+    @Transactional(readOnly = true)
+    public Optional<InventoryRevision> current() {
+        Optional<InventoryRevision> current = inventoryRevisionRepository.findById(InventoryRevision.ID);
+        current.ifPresent(revision -> latestRead.accumulateAndGet(revision.getRevision(), Math::max));
+        return current;
+    }
+
+    /**
+     * Bumps the revision and records the change. Call it inside the write's transaction, as
+     * its last statement, so both commit (or roll back) with it.
+     *
+     * @param before the auto as it was, read under lock; null for a created auto, or if unknown
+     * @param after  the auto as written; null for a deleted one
+     */
+    public void record(AutoChange.Type type, String vin, Automobile before, Automobile after) {
+        Instant now = clock.instant();
+        // A deleted auto's change carries the version it was deleted at, as a bulk delete's does.
+        Automobile last = after != null ? after : before;
+        Long version = last == null ? null : last.getVersion();
+        Automobile known = type == AutoChange.Type.CREATED ? after : before;
+        inventoryRevisionRepository.bump(InventoryRevision.ID, now);
+        jdbcTemplate.update(INSERT_CHANGE, type.name(), vin, version, Timestamp.from(now),
+                known == null ? null : known.getMakeNormalized(),
+                known == null ? null : known.getYear(),
+                before == null ? null : before.getColorNormalized(),
+                after == null ? null : after.getColorNormalized(),
+                InventoryRevision.ID);
+        countWhenCommitted();
+    }
+
+    /**
+     * {@link #record} for a batch of created autos, with one statement for the changes, run
+     * before the revision is locked.
+     */
+    public void recordCreated(Collection<String> vins) {
+        Instant now = clock.instant();
+        String batch = newBatch();
+        autoChangeRepository.insertCreatedChanges(vins, now, batch);
+        commit(batch, now);
+    }
+
+    /**
+     * {@link #record} for a set-based write that has inserted its changes into the outbox
+     * itself, tagged with {@code batch} from {@link #newBatch}. Call it inside the write's
+     * transaction, after the write itself.
+     */
+    public void recordBatch(String batch) {
+        commit(batch, clock.instant());
+    }
+
+    /**
+     * How many writes recorded by this instance have committed. In memory, so free to read;
+     * it moves whenever this instance may have changed the inventory.
+     */
+    public long committedWrites() {
+        return committedWrites.get();
+    }
+
+    /**
+     * The newest revision {@link #current()} has returned on this instance. It only moves
+     * once that revision has committed, whichever instance wrote it, so work started after
+     * reading it sees at least that revision.
+     */
+    public long latestRead() {
+        return latestRead.get();
+    }
+
+    // Tags one set-based write's changes until its revision is known.
+    static String newBatch() {
+        return UUID.randomUUID().toString();
+    }
+
+    // The last two statements of a set-based write: the only ones under the revision lock.
+    private void commit(String batch, Instant now) {
+        inventoryRevisionRepository.bump(InventoryRevision.ID, now);
+        autoChangeRepository.insertCommit(InventoryRevision.ID, batch, now);
+        countWhenCommitted();
+    }
+
+    private void countWhenCommitted() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committedWrites.incrementAndGet();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                committedWrites.incrementAndGet();
+            }
+        });
+    }
+}
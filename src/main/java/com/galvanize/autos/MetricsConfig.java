@@ -0,0 +1,97 @@
+package com.galvanize.autos;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+
+/**
+ * Metrics Actuator doesn't record on its own: how many rows each repository list query
+ * returned and how many SQL statements each request issued. Request latency, repository
+ * timings, Hibernate statistics and Hikari pool waits come from Actuator itself and are
+ * configured under {@code management.metrics} in application.yml.
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfig {
+
+    static final String REPOSITORY_RESULTS = "autos.repository.results";
+    static final String REQUEST_STATEMENTS = "autos.request.statements";
+
+    /**
+     * Wraps every Spring Data repository so list results are measured as they are returned.
+     */
+    @Bean
+    static BeanPostProcessor repositoryResultSizeMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport) {
+                    ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory ->
+                            factory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                                    proxyFactory.addAdvice(resultSizeInterceptor(meterRegistry,
+                                            repositoryInformation.getRepositoryInterface().getSimpleName()))));
+                }
+                return bean;
+            }
+        };
+    }
+
+    private static MethodInterceptor resultSizeInterceptor(ObjectProvider<MeterRegistry> meterRegistry, String repository) {
+        return invocation -> {
+            Object result = invocation.proceed();
+            if (result instanceof Collection) {
+                meterRegistry.ifAvailable(registry -> DistributionSummary.builder(REPOSITORY_RESULTS)
+                        .description("Rows returned by repository list queries")
+                        .tag("repository", repository)
+                        .tag("method", invocation.getMethod().getName())
+                        .publishPercentileHistogram()
+                        .register(registry)
+                        .record(((Collection<?>) result).size()));
+            }
+            return result;
+        };
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    WebMvcConfigurer requestStatementMetrics(MeterRegistry meterRegistry) {
+        HandlerInterceptor interceptor = new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                StatementCounter.reset();
+                return true;
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                DistributionSummary.builder(REQUEST_STATEMENTS)
+                        .description("SQL statements issued per request")
+                        .tag("method", request.getMethod())
+                        .tag("uri", uri == null ? "UNKNOWN" : uri.toString())
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(StatementCounter.current());
+            }
+        };
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(interceptor).addPathPatterns("/api/**");
+            }
+        };
+    }
+}
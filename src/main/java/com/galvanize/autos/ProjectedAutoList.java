@@ -0,0 +1,52 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A page of autos reduced to the properties asked for with {@code ?fields=}; otherwise
+ * shaped like {@link AutoList}.
+ */
+public class ProjectedAutoList {
+
+    private List<Map<String, Object>> automobiles;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String next;
+
+    public ProjectedAutoList() { }
+
+    public ProjectedAutoList(List<Map<String, Object>> automobiles, String next) {
+        this.automobiles = automobiles;
+        this.next = next;
+    }
+
+    public List<Map<String, Object>> getAutomobiles() {
+        return automobiles;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return this.automobiles == null || this.automobiles.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProjectedAutoList that = (ProjectedAutoList) o;
+        return Objects.equals(automobiles, that.automobiles) && Objects.equals(next, that.next);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(automobiles, next);
+    }
+}
@@ -0,0 +1,205 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.AutoNotFoundException;
+import com.galvanize.autos.exceptions.DuplicateAutoException;
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import com.galvanize.autos.exceptions.VersionConflictException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * WebFlux twin of {@link AutosController} for the reactive profile. Reads go through R2DBC
+ * and never block a request thread; writes reuse the JPA services on a bounded elastic
+ * scheduler.
+ */
+@CrossOrigin
+@RestController
+@Profile("reactive")
+public class ReactiveAutosController {
+
+    ReactiveAutosService reactiveAutosService;
+    AutosService autosService;
+    AutosBatchLoader autosBatchLoader;
+    AutosFacets autosFacets;
+    AutoChangeFeed autoChangeFeed;
+
+    public ReactiveAutosController(ReactiveAutosService reactiveAutosService, AutosService autosService,
+                                   AutosBatchLoader autosBatchLoader, AutosFacets autosFacets,
+                                   AutoChangeFeed autoChangeFeed) {
+        this.reactiveAutosService = reactiveAutosService;
+        this.autosService = autosService;
+        this.autosBatchLoader = autosBatchLoader;
+        this.autosFacets = autosFacets;
+        this.autoChangeFeed = autoChangeFeed;
+    }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public void invalidAutoExceptionHandler(InvalidAutoException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public void duplicateAutoExceptionHandler(DuplicateAutoException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public void invalidQueryExceptionHandler(InvalidQueryException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public void versionConflictExceptionHandler(VersionConflictException e) {}
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public void writeBehindUnavailableExceptionHandler(WriteBehindUnavailableException e) {}
+
+    // The R2DBC page serves color and make; an exact make, a year range or a sort goes to the
+    // JPA query on the bounded elastic scheduler rather than being dropped.
+    @GetMapping("api/autos")
+    public Mono<ResponseEntity<AutoList>> getAutos(@RequestParam(defaultValue = "") String color,
+                                                   @RequestParam(defaultValue = "") String make,
+                                                   @RequestParam(defaultValue = "") String makeExact,
+                                                   @RequestParam(required = false) Integer minYear,
+                                                   @RequestParam(required = false) Integer maxYear,
+                                                   @RequestParam(defaultValue = "id") String sort,
+                                                   @RequestParam(required = false) String after,
+                                                   @RequestParam(defaultValue = "100") int limit,
+                                                   ServerWebExchange exchange) {
+        Mono<AutoList> autoList = AutosController.isRefined(makeExact, minYear, maxYear, sort)
+                ? blocking(() -> autosService.getAutos(color, make, makeExact, minYear, maxYear, sort, after, limit))
+                : reactiveAutosService.getAutos(color, make, after, limit);
+        return notModifiedOr(exchange, autoList
+                .map(page -> page.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(page)));
+    }
+
+    // ?fields=vin,make,model selects just those columns and returns just those properties.
+    @GetMapping(value = "api/autos", params = "fields")
+    public Mono<ResponseEntity<ProjectedAutoList>> getAutoFields(@RequestParam(defaultValue = "") String color,
+                                                                 @RequestParam(defaultValue = "") String make,
+                                                                 @RequestParam(defaultValue = "") String makeExact,
+                                                                 @RequestParam(required = false) Integer minYear,
+                                                                 @RequestParam(required = false) Integer maxYear,
+                                                                 @RequestParam(defaultValue = "id") String sort,
+                                                                 @RequestParam(required = false) String after,
+                                                                 @RequestParam(defaultValue = "100") int limit,
+                                                                 @RequestParam List<String> fields,
+                                                                 ServerWebExchange exchange) {
+        return notModifiedOr(exchange, blocking(() -> autosService.getAutos(color, make, makeExact, minYear, maxYear,
+                sort, after, limit, fields))
+                .map(page -> page.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(page)));
+    }
+
+    // Same page, written line by line as rows arrive; demand from the client throttles the query.
+    // A refined page is read whole first, as in getAutos.
+    @GetMapping(value = "api/autos", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Automobile> streamAutos(@RequestParam(defaultValue = "") String color,
+                                        @RequestParam(defaultValue = "") String make,
+                                        @RequestParam(defaultValue = "") String makeExact,
+                                        @RequestParam(required = false) Integer minYear,
+                                        @RequestParam(required = false) Integer maxYear,
+                                        @RequestParam(defaultValue = "id") String sort,
+                                        @RequestParam(required = false) String after,
+                                        @RequestParam(defaultValue = "100") int limit) {
+        if (AutosController.isRefined(makeExact, minYear, maxYear, sort)) {
+            return blocking(() -> autosService.getAutos(color, make, makeExact, minYear, maxYear, sort, after, limit))
+                    .flatMapIterable(AutoList::getAutomobiles);
+        }
+        return reactiveAutosService.streamAutos(color, make, after, limit);
+    }
+
+    // Usually a cache hit; the GROUP BY on a miss runs on the bounded elastic scheduler.
+    @GetMapping("/api/autos/facets")
+    public Mono<FacetCounts> getFacets(@RequestParam(defaultValue = "") String color,
+                                       @RequestParam(defaultValue = "") String make) {
+        return blocking(() -> autosFacets.get(color, make));
+    }
+
+    @GetMapping(value = "/api/autos/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<AutoChange>> getChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return autoChangeFeed.stream(AutoChangeFeed.lastEventId(lastEventId));
+    }
+
+    @GetMapping(value = "/api/autos/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Automobile> exportAutos() {
+        return reactiveAutosService.streamAll();
+    }
+
+    @GetMapping("/api/autos/{vin}")
+    public Mono<ResponseEntity<Automobile>> getAutoByVin(@PathVariable String vin) {
+        return reactiveAutosService.getAuto(vin)
+                .map(ReactiveAutosController::withETag)
+                .defaultIfEmpty(ResponseEntity.noContent().build());
+    }
+
+    @PostMapping("/api/autos")
+    public Mono<Automobile> addAuto(@RequestBody Automobile auto) {
+        return blocking(() -> autosService.addAuto(auto));
+    }
+
+    // Accepts a JSON array or NDJSON; either way the loader sees one ordered stream.
+    @PostMapping(value = "/api/autos/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Mono<AutoBatchResult> addAutos(@RequestBody Flux<Automobile> autos) {
+        return autos.collectList()
+                .flatMap(list -> blocking(() -> autosBatchLoader.load(list.iterator())));
+    }
+
+    @PatchMapping("/api/autos/{vin}")
+    public Mono<ResponseEntity<Automobile>> updateAuto(@PathVariable String vin, @RequestBody UpdateAutoRequest request,
+                                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = ETags.expectedVersion(ifMatch);
+        if (expectedVersion == null && autosService.isWriteBehind()) {
+            // May wait up to autos.write-behind.accept-timeout for room in the buffer.
+            return blocking(() -> autosService.acceptUpdate(vin, request.getOwner(), request.getColor()))
+                    .map(auto -> auto.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.accepted().body(auto));
+        }
+        return blocking(() -> autosService.updateAuto(vin, request.getOwner(), request.getColor(), expectedVersion))
+                .map(auto -> auto.isEmpty() ? ResponseEntity.noContent().build() : withETag(auto));
+    }
+
+    @DeleteMapping("/api/autos/{vin}")
+    public Mono<ResponseEntity<Void>> deleteAuto(@PathVariable String vin,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return blocking(() -> {
+            autosService.deleteAuto(vin, ETags.expectedVersion(ifMatch));
+            return ResponseEntity.accepted().<Void>build();
+        }).onErrorResume(AutoNotFoundException.class, e -> Mono.just(ResponseEntity.noContent().build()));
+    }
+
+    // Answers If-None-Match / If-Modified-Since from the revision marker before querying anything.
+    private <T> Mono<ResponseEntity<T>> notModifiedOr(ServerWebExchange exchange, Mono<ResponseEntity<T>> page) {
+        exchange.getResponse().getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        return reactiveAutosService.getInventoryRevision()
+                .map(revision -> exchange.checkNotModified(ETags.of(revision), revision.getUpdatedAt()))
+                .defaultIfEmpty(false)
+                .flatMap(notModified -> notModified ? Mono.empty() : page);
+    }
+
+    private static <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static ResponseEntity<Automobile> withETag(Automobile auto) {
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (auto.getVersion() != null) {
+            ok.eTag(ETags.of(auto));
+        }
+        if (auto.getUpdatedAt() != null) {
+            ok.lastModified(auto.getUpdatedAt());
+        }
+        return ok.body(auto);
+    }
+}
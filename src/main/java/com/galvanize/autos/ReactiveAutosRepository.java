@@ -0,0 +1,143 @@
+package com.galvanize.autos;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Set;
+
+/**
+ * Non-blocking reads of the automobiles table over R2DBC, for the reactive profile.
+ * <p>
+ * The pool is owned here rather than exposed as a {@code ConnectionFactory} bean: Boot
+ * backs the JDBC DataSource off as soon as one exists, and writes still go through JPA.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveAutosRepository implements DisposableBean {
+
+    private static final String COLUMNS = "select id, year, make, model, color, owner, vin, version, updated_at from automobiles";
+
+    private final ConnectionPool pool;
+    private final DatabaseClient databaseClient;
+
+    public ReactiveAutosRepository(@Value("${autos.reactive.r2dbc.url}") String url,
+                                   @Value("${autos.reactive.r2dbc.username:}") String username,
+                                   @Value("${autos.reactive.r2dbc.password:}") String password,
+                                   @Value("${autos.reactive.r2dbc.pool.max-size:10}") int maxSize) {
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build();
+        this.pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .initialSize(0)
+                .maxSize(maxSize)
+                .build());
+        this.databaseClient = DatabaseClient.create(pool);
+    }
+
+    public Flux<Automobile> findByIdGreaterThan(long afterId, int limit) {
+        return databaseClient.sql(COLUMNS + " where id > :afterId order by id limit :limit")
+                .bind("afterId", afterId)
+                .bind("limit", limit)
+                .map((row, metadata) -> toAutomobile(row))
+                .all();
+    }
+
+    /**
+     * Same query as {@link AutosSearchRepositoryImpl#search}: IN over the known candidates,
+     * otherwise an escaped substring LIKE.
+     */
+    public Flux<Automobile> search(AutoFilter filter, long afterId, int limit) {
+        StringBuilder sql = new StringBuilder(COLUMNS).append(" where id > :afterId");
+        appendTerm(sql, "color_normalized", "color", filter.getColor(), filter.getColorCandidates());
+        appendTerm(sql, "make_normalized", "make", filter.getMake(), filter.getMakeCandidates());
+        sql.append(" order by id limit :limit");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString())
+                .bind("afterId", afterId)
+                .bind("limit", limit);
+        spec = bindTerm(spec, "color", filter.getColor(), filter.getColorCandidates());
+        spec = bindTerm(spec, "make", filter.getMake(), filter.getMakeCandidates());
+        return spec.map((row, metadata) -> toAutomobile(row)).all();
+    }
+
+    public Flux<Automobile> findAll() {
+        return databaseClient.sql(COLUMNS + " order by id")
+                .map((row, metadata) -> toAutomobile(row))
+                .all();
+    }
+
+    /**
+     * @param vin a VIN already in canonical form (see {@link Automobile#normalizeVin})
+     */
+    public Mono<Automobile> findByVin(String vin) {
+        return databaseClient.sql(COLUMNS + " where vin = :vin")
+                .bind("vin", vin)
+                .map((row, metadata) -> toAutomobile(row))
+                .one();
+    }
+
+    public Mono<InventoryRevision> findInventoryRevision() {
+        return databaseClient.sql("select revision, updated_at from inventory_revision where id = :id")
+                .bind("id", InventoryRevision.ID)
+                .map((row, metadata) -> new InventoryRevision(row.get("revision", Long.class),
+                        toInstant(row.get("updated_at", LocalDateTime.class))))
+                .one();
+    }
+
+    @Override
+    public void destroy() {
+        pool.dispose();
+    }
+
+    private static void appendTerm(StringBuilder sql, String column, String parameter, String term, Set<String> candidates) {
+        if (term == null) {
+            return;
+        }
+        if (candidates != null) {
+            sql.append(" and ").append(column).append(" in (:").append(parameter).append(')');
+        } else {
+            sql.append(" and ").append(column).append(" like :").append(parameter)
+                    .append(" escape '").append(AutosSearchRepositoryImpl.LIKE_ESCAPE).append('\'');
+        }
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bindTerm(DatabaseClient.GenericExecuteSpec spec, String parameter,
+                                                              String term, Set<String> candidates) {
+        if (term == null) {
+            return spec;
+        }
+        if (candidates != null) {
+            return spec.bind(parameter, candidates);
+        }
+        return spec.bind(parameter, "%" + AutosSearchRepositoryImpl.escapeLike(term) + "%");
+    }
+
+    private static Automobile toAutomobile(Row row) {
+        Automobile auto = new Automobile(row.get("year", Integer.class), row.get("make", String.class),
+                row.get("model", String.class), row.get("vin", String.class));
+        auto.setId(row.get("id", Long.class));
+        auto.setColor(row.get("color", String.class));
+        auto.setOwner(row.get("owner", String.class));
+        auto.assignVersion(row.get("version", Long.class), toInstant(row.get("updated_at", LocalDateTime.class)));
+        return auto;
+    }
+
+    // Hibernate writes Instants to these timestamp columns in the JVM's zone.
+    private static Instant toInstant(LocalDateTime timestamp) {
+        return timestamp == null ? null : timestamp.atZone(ZoneId.systemDefault()).toInstant();
+    }
+}
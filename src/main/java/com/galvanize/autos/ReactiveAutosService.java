@@ -0,0 +1,71 @@
+package com.galvanize.autos;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The read side of {@link AutosService} over R2DBC, with the same paging and search rules.
+ * A single auto is shown with its update still in the {@link AutosWriteBehind} buffer, if
+ * it has one, as the servlet read does.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveAutosService {
+
+    private final ReactiveAutosRepository reactiveAutosRepository;
+    private final SearchVocabulary searchVocabulary;
+    private final AutosWriteBehind autosWriteBehind;
+
+    public ReactiveAutosService(ReactiveAutosRepository reactiveAutosRepository, SearchVocabulary searchVocabulary,
+                                AutosWriteBehind autosWriteBehind) {
+        this.reactiveAutosRepository = reactiveAutosRepository;
+        this.searchVocabulary = searchVocabulary;
+        this.autosWriteBehind = autosWriteBehind;
+    }
+
+    public Mono<InventoryRevision> getInventoryRevision() {
+        return reactiveAutosRepository.findInventoryRevision();
+    }
+
+    /**
+     * One page as an {@link AutoList}, with the cursor for the next page if there is one.
+     */
+    public Mono<AutoList> getAutos(String color, String make, String after, int limit) {
+        return Mono.defer(() -> {
+            int pageSize = AutosService.pageSize(limit);
+            return rows(color, make, AutoCursor.decode(after), pageSize + 1)
+                    .collectList()
+                    .map(rows -> AutosService.page(rows, pageSize));
+        });
+    }
+
+    /**
+     * The same page as {@link #getAutos}, emitted row by row as the database returns them.
+     */
+    public Flux<Automobile> streamAutos(String color, String make, String after, int limit) {
+        return Flux.defer(() -> rows(color, make, AutoCursor.decode(after), AutosService.pageSize(limit)));
+    }
+
+    public Flux<Automobile> streamAll() {
+        return reactiveAutosRepository.findAll();
+    }
+
+    public Mono<Automobile> getAuto(String vin) {
+        // An in-memory lookup under a short lock, so it's fine on the event loop.
+        return reactiveAutosRepository.findByVin(Automobile.normalizeVin(vin)).map(autosWriteBehind::overlay);
+    }
+
+    private Flux<Automobile> rows(String color, String make, long afterId, int limit) {
+        AutoFilter unresolved = AutoFilter.of(color, make);
+        if (unresolved.isEmpty()) {
+            return reactiveAutosRepository.findByIdGreaterThan(afterId, limit);
+        }
+        // The vocabulary reloads over JDBC now and then, so keep it off the event loop.
+        return Mono.fromCallable(() -> searchVocabulary.resolve(color, make))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(filter -> reactiveAutosRepository.search(filter, afterId, limit));
+    }
+}
@@ -0,0 +1,143 @@
+package com.galvanize.autos;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sends connections for read-only transactions to a replica and everything else to the
+ * primary. Has to sit behind a {@code LazyConnectionDataSourceProxy}: the read-only flag is
+ * only set once the transaction has begun, after JPA asked for a connection.
+ * <p>
+ * Replicas are picked round robin, then a thread sticks to its pick until {@link #reset()},
+ * so the reads of one request see one replica's state. A thread can also be pinned to the
+ * primary ({@link #pinToPrimary}), which is how a client reads its own writes while replicas
+ * catch up.
+ * <p>
+ * A replica that fails to hand out a connection is skipped for {@code retryAfter}; when none
+ * is left, reads go to the primary. Each decision is counted in {@code autos.datasource.routes},
+ * tagged with the target and the reason.
+ * <p>
+ * The replicas belong to this data source and are closed with it; the primary is not.
+ */
+public class ReadWriteRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    static final String ROUTES = "autos.datasource.routes";
+
+    private static final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+    private static final ThreadLocal<Integer> picked = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final Duration retryAfter;
+    private final Clock clock;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLongArray downUntil;
+
+    private final Counter writes;
+    private final Counter reads;
+    private final Counter pinnedReads;
+    private final Counter fallbacks;
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration retryAfter,
+                                      MeterRegistry meterRegistry) {
+        this(primary, replicas, retryAfter, meterRegistry, Clock.systemUTC());
+    }
+
+    ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration retryAfter,
+                               MeterRegistry meterRegistry, Clock clock) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.retryAfter = retryAfter;
+        this.clock = clock;
+        this.downUntil = new AtomicLongArray(replicas.size());
+        this.writes = route(meterRegistry, "primary", "write");
+        this.reads = route(meterRegistry, "replica", "read");
+        this.pinnedReads = route(meterRegistry, "primary", "read-your-writes");
+        this.fallbacks = route(meterRegistry, "primary", "replica-unavailable");
+    }
+
+    /**
+     * Routes this thread's reads to the primary until {@link #reset()}.
+     */
+    public static void pinToPrimary() {
+        pinned.set(Boolean.TRUE);
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return pinned.get() != null;
+    }
+
+    /**
+     * Forgets this thread's pin and replica; call it when a request ends.
+     */
+    public static void reset() {
+        pinned.remove();
+        picked.remove();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataSource replica : replicas) {
+            if (replica instanceof Closeable) {
+                ((Closeable) replica).close();
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            writes.increment();
+            return primary.getConnection();
+        }
+        if (pinned.get() != null) {
+            pinnedReads.increment();
+            return primary.getConnection();
+        }
+        long now = clock.millis();
+        Integer previous = picked.get();
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            int index = attempt == 0 && previous != null ? previous : Math.floorMod(next.getAndIncrement(), replicas.size());
+            if (downUntil.get(index) > now) {
+                continue;
+            }
+            try {
+                Connection connection = replicas.get(index).getConnection();
+                picked.set(index);
+                reads.increment();
+                return connection;
+            } catch (SQLException e) {
+                downUntil.set(index, now + retryAfter.toMillis());
+            }
+        }
+        picked.remove();
+        fallbacks.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new UnsupportedOperationException("Credentials are configured per pool");
+    }
+
+    private static Counter route(MeterRegistry meterRegistry, String target, String reason) {
+        return Counter.builder(ROUTES)
+                .description("Connections handed out, by where they went and why")
+                .tag("target", target)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,190 @@
+package com.galvanize.autos;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory list of the distinct normalized makes and colors in the inventory.
+ * <p>
+ * There are only a handful of makes and colors compared with the number of rows, so a
+ * substring term can be matched against this list first and turned into an exact
+ * {@code IN (...)} over the indexed normalized columns. That is only the same query as the
+ * LIKE while the list holds every value in the inventory, so each load remembers the
+ * {@link AutoChange.Position} it is current to and every search reads the changes recorded
+ * since, as {@link AutosFacets} does. A change that only uses values the list already has
+ * moves it forward; one that brings a make or color it has not seen, from any instance,
+ * reloads it. Deletions never do: a value left behind just matches nothing in the IN.
+ * <p>
+ * The list is read again every {@code autos.search.vocabulary-ttl} regardless, to drop such
+ * values. Terms that match nothing, or a vocabulary too large to be useful, use the
+ * trigram-indexed LIKE.
+ */
+@Component
+public class SearchVocabulary {
+
+    static final int MAX_TERMS = 1000;
+    // More changes than this since the last search is cheaper to answer with a reload.
+    static final int MAX_CHANGES = 1000;
+
+    private final AutosRepository autosRepository;
+    private final AutoChangeRepository autoChangeRepository;
+    private final InventoryRevisions inventoryRevisions;
+    private final Duration ttl;
+    private final Clock clock;
+    private final ReentrantLock reloading = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    public SearchVocabulary(AutosRepository autosRepository, AutoChangeRepository autoChangeRepository,
+                            InventoryRevisions inventoryRevisions,
+                            @Value("${autos.search.vocabulary-ttl:30s}") Duration ttl) {
+        this(autosRepository, autoChangeRepository, inventoryRevisions, ttl, Clock.systemUTC());
+    }
+
+    SearchVocabulary(AutosRepository autosRepository, AutoChangeRepository autoChangeRepository,
+                     InventoryRevisions inventoryRevisions, Duration ttl, Clock clock) {
+        this.autosRepository = autosRepository;
+        this.autoChangeRepository = autoChangeRepository;
+        this.inventoryRevisions = inventoryRevisions;
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    public AutoFilter resolve(String color, String make) {
+        AutoFilter filter = AutoFilter.of(color, make);
+        if (filter.isEmpty()) {
+            return filter;
+        }
+        Snapshot current = advance(current());
+        if (current == null) {
+            return filter;
+        }
+        return filter.withCandidates(
+                candidates(current.colors, filter.getColor()),
+                candidates(current.makes, filter.getMake()));
+    }
+
+    private static Set<String> candidates(Set<String> values, String term) {
+        if (values == null || term == null) {
+            return null;
+        }
+        Set<String> matches = values.stream()
+                .filter(value -> value.contains(term))
+                .collect(Collectors.toSet());
+        return matches.isEmpty() ? null : matches;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && !current.isExpired(clock.instant(), ttl)) {
+            return current;
+        }
+        // Only the first caller pays for a reload; everyone else keeps using the old list meanwhile.
+        if (current != null && !reloading.tryLock()) {
+            return current;
+        }
+        if (current == null) {
+            reloading.lock();
+        }
+        try {
+            if (snapshot == current) {
+                snapshot = load();
+            }
+            return snapshot;
+        } finally {
+            reloading.unlock();
+        }
+    }
+
+    // Null if the list is missing a value and another caller is already reloading it.
+    private Snapshot advance(Snapshot current) {
+        List<AutoChange> changes = autoChangeRepository.findAfter(current.position, MAX_CHANGES + 1);
+        if (changes.isEmpty()) {
+            return current;
+        }
+        if (changes.size() > MAX_CHANGES || !changes.stream().allMatch(current::covers)) {
+            if (!reloading.tryLock()) {
+                return null;
+            }
+            try {
+                snapshot = load();
+                return snapshot;
+            } finally {
+                reloading.unlock();
+            }
+        }
+        Snapshot next = current.advancedTo(AutoChange.Position.of(changes.get(changes.size() - 1)));
+        // Publish it only if nobody has reloaded or moved the list on meanwhile.
+        if (reloading.tryLock()) {
+            try {
+                if (snapshot == current) {
+                    snapshot = next;
+                }
+            } finally {
+                reloading.unlock();
+            }
+        }
+        return next;
+    }
+
+    private Snapshot load() {
+        // Read before the values, so they hold at least every write up to this revision; the
+        // changes after it that they already hold are then applied twice, which is harmless.
+        long revision = inventoryRevisions.current().map(InventoryRevision::getRevision).orElse(0L);
+        PageRequest bounded = PageRequest.of(0, MAX_TERMS + 1);
+        return new Snapshot(
+                bounded(autosRepository.findDistinctMakeNormalized(bounded)),
+                bounded(autosRepository.findDistinctColorNormalized(bounded)),
+                AutoChange.Position.afterRevision(revision),
+                clock.instant());
+    }
+
+    private static Set<String> bounded(List<String> values) {
+        return values.size() > MAX_TERMS ? null : Set.copyOf(values);
+    }
+
+    private static final class Snapshot {
+        private final Set<String> makes;
+        private final Set<String> colors;
+        private final AutoChange.Position position;
+        private final Instant loadedAt;
+
+        private Snapshot(Set<String> makes, Set<String> colors, AutoChange.Position position, Instant loadedAt) {
+            this.makes = makes;
+            this.colors = colors;
+            this.position = position;
+            this.loadedAt = loadedAt;
+        }
+
+        private Snapshot advancedTo(AutoChange.Position position) {
+            return new Snapshot(makes, colors, position, loadedAt);
+        }
+
+        // Whether the list still holds every value in the inventory after this change.
+        private boolean covers(AutoChange change) {
+            if (change.getType() == AutoChange.Type.DELETED) {
+                return true;
+            }
+            return change.hasFacets()
+                    && known(makes, change.getMakeNormalized())
+                    && known(colors, change.getColorAfter());
+        }
+
+        // A list too large to be used can't go missing a value.
+        private static boolean known(Set<String> values, String value) {
+            return values == null || value == null || values.contains(value);
+        }
+
+        private boolean isExpired(Instant now, Duration ttl) {
+            return loadedAt.plus(ttl).isBefore(now);
+        }
+    }
+}
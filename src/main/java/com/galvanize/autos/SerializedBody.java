@@ -0,0 +1,33 @@
+package com.galvanize.autos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A response body that is already encoded, held in a direct buffer outside the heap the
+ * collector scans. {@link SerializedBodyConverter} writes it out as it is.
+ */
+public final class SerializedBody {
+
+    private final ByteBuffer bytes;
+
+    private SerializedBody(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    static SerializedBody of(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return new SerializedBody(buffer.asReadOnlyBuffer());
+    }
+
+    public int length() {
+        return bytes.remaining();
+    }
+
+    /**
+     * The bytes, with a position of their own, so concurrent responses can share one body.
+     */
+    public ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+}
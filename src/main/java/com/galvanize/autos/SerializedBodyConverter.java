@@ -0,0 +1,57 @@
+package com.galvanize.autos;
+
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Writes a {@link SerializedBody} with its Content-Length and no further encoding. On Tomcat
+ * the direct buffer is handed to the connector as a buffer rather than as a heap array; the
+ * connector still copies it into its own output and socket buffers, so this saves the
+ * serialization, not those copies. Other servers get it through a small transfer array.
+ */
+@Component
+public class SerializedBodyConverter extends AbstractHttpMessageConverter<SerializedBody> {
+
+    public SerializedBodyConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SerializedBody.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected SerializedBody readInternal(Class<? extends SerializedBody> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Serialized bodies are only written", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(SerializedBody body, MediaType contentType) {
+        return (long) body.length();
+    }
+
+    @Override
+    protected void writeInternal(SerializedBody body, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        if (out instanceof CoyoteOutputStream) {
+            ((CoyoteOutputStream) out).write(body.bytes());
+        } else {
+            Channels.newChannel(out).write(body.bytes());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.galvanize.autos;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so each request can
+ * report how many it issued. Hibernate creates this class itself from
+ * {@code hibernate.session_factory.statement_inspector}, hence the static state.
+ */
+public class StatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    static int current() {
+        return COUNT.get()[0];
+    }
+}
@@ -0,0 +1,139 @@
+package com.galvanize.autos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of autos by normalized VIN, including misses, so repeated lookups of
+ * unknown VINs don't reach the database either.
+ * <p>
+ * Cached autos are shared between requests and must not be modified; writes load their own
+ * copy and {@link #invalidate(String)} the VIN once they are done. Hit, miss, eviction and
+ * size figures are published as the {@code autos.vin} cache metrics.
+ * <p>
+ * With read replicas, a request pinned to the primary to read its own writes skips the cache,
+ * which may hold a row read from a replica that had not caught up.
+ */
+@Component
+public class VinCache implements MeterBinder {
+
+    static final String NAME = "autos.vin";
+
+    private final Cache<String, Optional<Automobile>> cache;
+    private final Duration replicaLag;
+
+    VinCache(long maximumSize, Duration ttl, Duration negativeTtl) {
+        this(maximumSize, ttl, negativeTtl, Duration.ZERO, "");
+    }
+
+    @Autowired
+    public VinCache(@Value("${autos.cache.vin.maximum-size:10000}") long maximumSize,
+                    @Value("${autos.cache.vin.ttl:5m}") Duration ttl,
+                    @Value("${autos.cache.vin.negative-ttl:30s}") Duration negativeTtl,
+                    @Value("${autos.cache.vin.replica-lag:${autos.datasource.replicas.read-your-writes:5s}}") Duration replicaLag,
+                    @Value("${autos.datasource.replicas.urls:}") String replicaUrls) {
+        // Only replicas lag; without them the after-commit invalidation is enough.
+        this.replicaLag = replicaUrls.isBlank() ? Duration.ZERO : replicaLag;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new PositiveNegativeExpiry(ttl, negativeTtl))
+                .recordStats()
+                .build();
+    }
+
+    public Optional<Automobile> get(String vin, Function<String, Optional<Automobile>> loader) {
+        if (ReadWriteRoutingDataSource.isPinnedToPrimary()) {
+            return loader.apply(key(vin));
+        }
+        return cache.get(key(vin), loader);
+    }
+
+    /**
+     * Drops the VIN now and, when called inside a transaction, again after it commits so a
+     * lookup racing the write can't re-cache the old row. With read replicas it is dropped once
+     * more after {@code replica-lag}, by default the read-your-writes window, for lookups that
+     * read a replica which had not caught up yet.
+     */
+    public void invalidate(String vin) {
+        String key = key(vin);
+        invalidateNowAndAfterCommit(() -> cache.invalidate(key));
+    }
+
+    /**
+     * {@link #invalidate(String)} for every VIN, for writes that change too many autos to name.
+     */
+    public void invalidateAll() {
+        invalidateNowAndAfterCommit(cache::invalidateAll);
+    }
+
+    private void invalidateNowAndAfterCommit(Runnable invalidation) {
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidation.run();
+                    if (!replicaLag.isZero()) {
+                        CompletableFuture.delayedExecutor(replicaLag.toMillis(), TimeUnit.MILLISECONDS)
+                                .execute(invalidation);
+                    }
+                }
+            });
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CaffeineCacheMetrics(cache, NAME, Tags.empty()).bindTo(registry);
+    }
+
+    static String key(String vin) {
+        return Automobile.normalizeVin(vin);
+    }
+
+    private static final class PositiveNegativeExpiry implements Expiry<String, Optional<Automobile>> {
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        private PositiveNegativeExpiry(Duration ttl, Duration negativeTtl) {
+            this.ttlNanos = ttl.toNanos();
+            this.negativeTtlNanos = negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String vin, Optional<Automobile> auto, long currentTime) {
+            return auto.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String vin, Optional<Automobile> auto, long currentTime, long currentDuration) {
+            return expireAfterCreate(vin, auto, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String vin, Optional<Automobile> auto, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.galvanize.autos.exceptions;
+
+public class VersionConflictException extends RuntimeException {
+}
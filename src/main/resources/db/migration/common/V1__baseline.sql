@@ -0,0 +1,53 @@
+-- The schema as Hibernate's ddl-auto left it, plus the fixes schema-postgresql.sql used to apply at
+-- every boot. Every statement is idempotent, so databases that predate migrations are baselined
+-- at version 0 and run this too.
+
+CREATE SEQUENCE IF NOT EXISTS automobiles_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS automobiles (
+    id               bigint       NOT NULL PRIMARY KEY,
+    year             integer      NOT NULL,
+    make             varchar(255),
+    model            varchar(255),
+    color            varchar(255),
+    owner            varchar(255),
+    vin              varchar(255) NOT NULL,
+    version          bigint,
+    updated_at       timestamp,
+    make_normalized  varchar(255),
+    color_normalized varchar(255)
+);
+
+ALTER TABLE automobiles ADD COLUMN IF NOT EXISTS version bigint;
+ALTER TABLE automobiles ADD COLUMN IF NOT EXISTS updated_at timestamp;
+ALTER TABLE automobiles ADD COLUMN IF NOT EXISTS make_normalized varchar(255);
+ALTER TABLE automobiles ADD COLUMN IF NOT EXISTS color_normalized varchar(255);
+
+UPDATE automobiles SET make_normalized = lower(make) WHERE make_normalized IS NULL AND make IS NOT NULL;
+UPDATE automobiles SET color_normalized = lower(color) WHERE color_normalized IS NULL AND color IS NOT NULL;
+UPDATE automobiles SET vin = upper(trim(vin)) WHERE vin <> upper(trim(vin));
+UPDATE automobiles SET version = 0 WHERE version IS NULL;
+-- Rows written before updated_at existed get a Last-Modified of the first deploy with it.
+UPDATE automobiles SET updated_at = current_timestamp WHERE updated_at IS NULL;
+
+ALTER TABLE automobiles ALTER COLUMN vin SET NOT NULL;
+CREATE UNIQUE INDEX IF NOT EXISTS automobiles_vin_key ON automobiles (vin);
+CREATE INDEX IF NOT EXISTS automobiles_make_normalized_idx ON automobiles (make_normalized);
+CREATE INDEX IF NOT EXISTS automobiles_color_normalized_idx ON automobiles (color_normalized);
+CREATE INDEX IF NOT EXISTS automobiles_year_idx ON automobiles (year);
+
+CREATE TABLE IF NOT EXISTS inventory_revision (
+    id         bigint NOT NULL PRIMARY KEY,
+    revision   bigint NOT NULL,
+    updated_at timestamp
+);
+
+CREATE TABLE IF NOT EXISTS auto_changes (
+    seq        bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    type       varchar(16)  NOT NULL,
+    vin        varchar(255) NOT NULL,
+    version    bigint,
+    changed_at timestamp    NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS auto_changes_changed_at_idx ON auto_changes (changed_at);
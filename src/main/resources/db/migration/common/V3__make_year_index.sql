@@ -0,0 +1,9 @@
+-- Exact make with a year range or year order (GET api/autos?makeExact=&minYear=&sort=year) reads
+-- this in order and stops at the page limit. It also serves make IN (...) lookups, so the
+-- make-only index goes.
+CREATE INDEX IF NOT EXISTS automobiles_make_year_idx ON automobiles (make_normalized, year, id);
+DROP INDEX IF EXISTS automobiles_make_normalized_idx;
+
+-- Year order without a make; id breaks ties, so keyset pages resume inside the index.
+CREATE INDEX IF NOT EXISTS automobiles_year_id_idx ON automobiles (year, id);
+DROP INDEX IF EXISTS automobiles_year_idx;
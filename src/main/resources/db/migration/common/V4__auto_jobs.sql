@@ -0,0 +1,26 @@
+-- Asynchronous CSV imports and exports (AutoJobs). For an import, byte_offset and lines_read
+-- are the checkpoint: where the first row not yet committed starts, and how many rows precede it.
+CREATE TABLE IF NOT EXISTS auto_jobs (
+    id          bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    type        varchar(16)   NOT NULL,
+    status      varchar(16)   NOT NULL,
+    spool_file  varchar(1024) NOT NULL,
+    byte_offset bigint        NOT NULL,
+    lines_read  bigint        NOT NULL,
+    written     bigint        NOT NULL,
+    rejected    bigint        NOT NULL,
+    message     varchar(1024),
+    created_at  timestamp     NOT NULL,
+    updated_at  timestamp     NOT NULL
+);
+
+-- The first rows each import rejected; a job keeps at most autos.jobs.max-errors of them.
+CREATE TABLE IF NOT EXISTS auto_job_errors (
+    id          bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    job_id      bigint      NOT NULL REFERENCES auto_jobs (id) ON DELETE CASCADE,
+    line_number bigint      NOT NULL,
+    vin         varchar(255),
+    reason      varchar(16) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS auto_job_errors_job_line_idx ON auto_job_errors (job_id, line_number);
@@ -0,0 +1,5 @@
+-- Which AutoJobs instance runs each open job, and until when; the owner renews the lease
+-- while it holds the job, and any instance that can reach the job's file may take it over
+-- once the lease has expired.
+ALTER TABLE auto_jobs ADD COLUMN lease_owner varchar(64);
+ALTER TABLE auto_jobs ADD COLUMN lease_until timestamp;
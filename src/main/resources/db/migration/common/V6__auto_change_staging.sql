@@ -0,0 +1,10 @@
+-- Changes a set-based write (AutosBulkWriter) captures before it runs its UPDATE or DELETE.
+-- Rows only live inside the writing transaction, which is the only one that sees them:
+-- InventoryRevisions moves them into auto_changes once it holds the revision row's lock, so
+-- outbox sequence numbers are handed out in commit order, and then deletes them.
+CREATE TABLE IF NOT EXISTS auto_change_staging (
+    id      bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    type    varchar(16)  NOT NULL,
+    vin     varchar(255) NOT NULL,
+    version bigint
+);
@@ -0,0 +1,12 @@
+-- What each change did to the facet counts (AutosFacets): the auto's make and year, which
+-- never change, and its color before and after. A change recorded without them has a null
+-- make_normalized, and makes AutosFacets count again instead of adjusting.
+ALTER TABLE auto_changes ADD COLUMN make_normalized varchar(255);
+ALTER TABLE auto_changes ADD COLUMN year integer;
+ALTER TABLE auto_changes ADD COLUMN color_before varchar(255);
+ALTER TABLE auto_changes ADD COLUMN color_after varchar(255);
+
+ALTER TABLE auto_change_staging ADD COLUMN make_normalized varchar(255);
+ALTER TABLE auto_change_staging ADD COLUMN year integer;
+ALTER TABLE auto_change_staging ADD COLUMN color_before varchar(255);
+ALTER TABLE auto_change_staging ADD COLUMN color_after varchar(255);
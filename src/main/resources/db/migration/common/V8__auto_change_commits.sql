@@ -0,0 +1,22 @@
+-- Changes are read in (revision, seq) order, the order their transactions committed in, rather
+-- than by seq alone, so the revision bump can be the last thing a write does instead of the first.
+--
+-- A single change is inserted right after the bump with the revision it made. A set-based write
+-- (bulk, write-behind, batch load) inserts its changes before the bump, tagged with a batch id
+-- and no revision, and then records that batch against the revision it made here.
+ALTER TABLE auto_changes ADD COLUMN revision bigint;
+ALTER TABLE auto_changes ADD COLUMN batch varchar(36);
+
+-- Everything recorded so far was inserted under the revision lock, so seq alone orders it.
+UPDATE auto_changes SET revision = 0 WHERE revision IS NULL AND batch IS NULL;
+
+CREATE TABLE IF NOT EXISTS auto_change_commits (
+    revision     bigint      NOT NULL PRIMARY KEY,
+    batch        varchar(36) NOT NULL,
+    committed_at timestamp   NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS auto_change_commits_batch_key ON auto_change_commits (batch);
+CREATE INDEX IF NOT EXISTS auto_change_commits_committed_at_idx ON auto_change_commits (committed_at);
+CREATE INDEX IF NOT EXISTS auto_changes_revision_idx ON auto_changes (revision, seq);
+CREATE INDEX IF NOT EXISTS auto_changes_batch_idx ON auto_changes (batch, seq);
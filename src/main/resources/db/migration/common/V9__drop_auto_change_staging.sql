@@ -0,0 +1,6 @@
+-- Set-based writes record their changes straight into auto_changes now, and hold their UPDATE or
+-- DELETE to the version each change recorded, which looks a change up by batch and VIN.
+DROP TABLE IF EXISTS auto_change_staging;
+
+CREATE INDEX IF NOT EXISTS auto_changes_batch_vin_idx ON auto_changes (batch, vin);
+DROP INDEX IF EXISTS auto_changes_batch_idx;
@@ -0,0 +1,8 @@
+-- Substring search (AutosSearchRepositoryImpl) on Postgres; H2 scans.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX IF NOT EXISTS automobiles_make_normalized_trgm_idx ON automobiles USING gin (make_normalized gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS automobiles_color_normalized_trgm_idx ON automobiles USING gin (color_normalized gin_trgm_ops);
+
+-- Rows inserted before the pooled sequence existed may sit above it.
+SELECT setval('automobiles_seq', greatest((SELECT coalesce(max(id), 0) + 50 FROM automobiles), (SELECT last_value FROM automobiles_seq)));
@@ -0,0 +1,133 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlFilterTest {
+
+    private AdmissionControlFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        filter = new AdmissionControlFilter(Map.of(
+                AdmissionControlFilter.EndpointClass.LIST, limiter(4),
+                AdmissionControlFilter.EndpointClass.LOOKUP, limiter(2),
+                AdmissionControlFilter.EndpointClass.WRITE, limiter(2),
+                AdmissionControlFilter.EndpointClass.BULK, limiter(2)), 0.5, Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void classifiesEndpoints() {
+        assertThat(AdmissionControlFilter.classify(request("GET", "/api/autos"))).isEqualTo(AdmissionControlFilter.EndpointClass.LIST);
+        assertThat(AdmissionControlFilter.classify(request("GET", "/api/autos/facets"))).isEqualTo(AdmissionControlFilter.EndpointClass.LIST);
+        assertThat(AdmissionControlFilter.classify(request("GET", "/api/autos/AKS123"))).isEqualTo(AdmissionControlFilter.EndpointClass.LOOKUP);
+        assertThat(AdmissionControlFilter.classify(request("PATCH", "/api/autos/AKS123"))).isEqualTo(AdmissionControlFilter.EndpointClass.WRITE);
+        assertThat(AdmissionControlFilter.classify(request("POST", "/api/autos"))).isEqualTo(AdmissionControlFilter.EndpointClass.WRITE);
+        assertThat(AdmissionControlFilter.classify(request("POST", "/api/autos/batch"))).isEqualTo(AdmissionControlFilter.EndpointClass.BULK);
+        assertThat(AdmissionControlFilter.classify(request("PATCH", "/api/autos"))).isEqualTo(AdmissionControlFilter.EndpointClass.BULK);
+        assertThat(AdmissionControlFilter.classify(request("DELETE", "/api/autos"))).isEqualTo(AdmissionControlFilter.EndpointClass.BULK);
+        assertThat(AdmissionControlFilter.classify(request("GET", "/api/autos/changes"))).isNull();
+        assertThat(AdmissionControlFilter.classify(request("POST", "/api/autos/imports"))).isNull();
+        assertThat(AdmissionControlFilter.classify(request("GET", "/api/autos/exports/7/file"))).isNull();
+        assertThat(AdmissionControlFilter.classify(request("GET", "/actuator/health"))).isNull();
+    }
+
+    @Test
+    public void bulkWritesDoNotUseTheWriteLimit() throws Exception {
+        hold(AdmissionControlFilter.EndpointClass.BULK, 2);
+
+        assertThat(send(request("DELETE", "/api/autos")).getStatus()).isEqualTo(503);
+        assertThat(send(request("DELETE", "/api/autos/AKS123")).getStatus()).isEqualTo(200);
+        assertThat(filter.limiter(AdmissionControlFilter.EndpointClass.WRITE).getInflight()).isZero();
+    }
+
+    @Test
+    public void overTheLimitWithAFullQueueReturns503WithRetryAfter() throws Exception {
+        hold(AdmissionControlFilter.EndpointClass.LOOKUP, 2);
+
+        MockHttpServletResponse response = send(request("GET", "/api/autos/AKS123"));
+
+        assertThat(response.getStatus()).isEqualTo(503);
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+    }
+
+    @Test
+    public void unfilteredListsAreShedBeforeFilteredOnes() throws Exception {
+        hold(AdmissionControlFilter.EndpointClass.LIST, 2);
+
+        assertThat(send(request("GET", "/api/autos")).getStatus()).isEqualTo(503);
+        MockHttpServletRequest filtered = request("GET", "/api/autos");
+        filtered.setParameter("make", "Toyota");
+        assertThat(send(filtered).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    public void unfilteredListsAreShedWhileLookupsAreSaturated() throws Exception {
+        assertThat(send(request("GET", "/api/autos")).getStatus()).isEqualTo(200);
+
+        hold(AdmissionControlFilter.EndpointClass.LOOKUP, 2);
+
+        assertThat(send(request("GET", "/api/autos")).getStatus()).isEqualTo(503);
+        assertThat(filter.limiter(AdmissionControlFilter.EndpointClass.LIST).getInflight()).isZero();
+    }
+
+    @Test
+    public void limitShrinksWhenLatencyRisesAndGrowsBackWhenItRecovers() {
+        AtomicLong clock = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100, 0, Duration.ZERO, 2.0, clock::get);
+        runAtFullLimit(limiter, clock, 200, 1_000_000);
+        int steady = limiter.getLimit();
+
+        runAtFullLimit(limiter, clock, 20, 50_000_000);
+        int slow = limiter.getLimit();
+        runAtFullLimit(limiter, clock, 200, 1_000_000);
+
+        assertThat(slow).isLessThan(steady / 2);
+        assertThat(limiter.getLimit()).isGreaterThan(slow);
+    }
+
+    // Fills the limit, then completes every request after rttNanos, rounds times over.
+    private static void runAtFullLimit(ConcurrencyLimiter limiter, AtomicLong clock, int rounds, long rttNanos) {
+        for (int round = 0; round < rounds; round++) {
+            List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            ConcurrencyLimiter.Permit permit;
+            while ((permit = limiter.tryAcquire(1.0, false)) != null) {
+                permits.add(permit);
+            }
+            clock.addAndGet(rttNanos);
+            permits.forEach(ConcurrencyLimiter.Permit::release);
+        }
+    }
+
+    private void hold(AdmissionControlFilter.EndpointClass endpointClass, int permits) {
+        for (int i = 0; i < permits; i++) {
+            assertThat(filter.limiter(endpointClass).tryAcquire(1.0, false)).isNotNull();
+        }
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        return new MockHttpServletRequest(method, path);
+    }
+
+    private static ConcurrencyLimiter limiter(int limit) {
+        return new ConcurrencyLimiter(limit, 1, limit, 0, Duration.ZERO, 2.0);
+    }
+}
@@ -0,0 +1,139 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AutoChangeFeedTest {
+
+    private static final AutoChange.Position HEAD = AutoChange.Position.afterRevision(0);
+
+    private final AutoChangeRepository autoChangeRepository = mock(AutoChangeRepository.class);
+    private final InventoryRevisions inventoryRevisions = mock(InventoryRevisions.class);
+    private AutoChangeFeed feed;
+
+    @BeforeEach
+    public void setUp() {
+        when(inventoryRevisions.current()).thenReturn(Optional.of(new InventoryRevision(0, Instant.now())));
+        // Polled by hand; the schedule and heartbeats never come round during a test.
+        feed = new AutoChangeFeed(autoChangeRepository, inventoryRevisions, Duration.ofHours(1), Duration.ofHours(1),
+                Duration.ofDays(7), 500, 2, 2);
+        feed.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        feed.stop();
+    }
+
+    @Test
+    public void pollSendsChangesInCommitOrderAndMovesOnFromTheLastOne() throws InterruptedException {
+        List<Long> received = new CopyOnWriteArrayList<>();
+        feed.stream(null).subscribe(event -> received.add(event.data().getSeq()));
+        when(autoChangeRepository.findAfter(HEAD, 500)).thenReturn(List.of(change(1, 5), change(2, 3)));
+
+        feed.poll();
+        feed.poll();
+
+        waitUntil(() -> received.size() == 2);
+        assertThat(received).containsExactly(5L, 3L);
+        verify(autoChangeRepository).findAfter(new AutoChange.Position(2, 3), 500);
+    }
+
+    @Test
+    public void aReconnectingSubscriberResumesAfterItsLastEventIdInCommitOrder() throws InterruptedException {
+        List<Long> received = new CopyOnWriteArrayList<>();
+        when(autoChangeRepository.findRevisionOf(3L)).thenReturn(2L);
+        when(autoChangeRepository.findAfter(HEAD, 500)).thenReturn(List.of(change(1, 5), change(2, 3), change(3, 4)));
+        feed.stream(3L).subscribe(event -> received.add(event.data().getSeq()));
+
+        feed.poll();
+
+        waitUntil(() -> received.size() == 1);
+        assertThat(received).containsExactly(4L);
+    }
+
+    @Test
+    public void aStalledSubscriberHoldsUpNobodyAndIsDisconnectedWhenItsQueueIsFull() throws InterruptedException {
+        CountDownLatch stalling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        List<Long> live = new CopyOnWriteArrayList<>();
+        feed.stream(null).subscribe(event -> {
+            stalling.countDown();
+            await(release);
+        }, error -> disconnected.countDown(), disconnected::countDown);
+        feed.stream(null).subscribe(event -> live.add(event.data().getSeq()));
+        when(autoChangeRepository.findAfter(HEAD, 500)).thenReturn(List.of(change(1, 1)));
+        when(autoChangeRepository.findAfter(new AutoChange.Position(1, 1), 500))
+                .thenReturn(List.of(change(2, 2), change(3, 3), change(4, 4)));
+
+        feed.poll();
+        assertThat(stalling.await(5, TimeUnit.SECONDS)).isTrue();
+        feed.poll();
+
+        waitUntil(() -> live.size() == 4);
+        assertThat(live).containsExactly(1L, 2L, 3L, 4L);
+        release.countDown();
+        assertThat(disconnected.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void subscribersShareTheWriterPool() throws InterruptedException {
+        Set<Thread> writers = ConcurrentHashMap.newKeySet();
+        AtomicInteger received = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            feed.stream(null).subscribe(event -> {
+                writers.add(Thread.currentThread());
+                received.incrementAndGet();
+            });
+        }
+        when(autoChangeRepository.findAfter(HEAD, 500)).thenReturn(List.of(change(1, 1)));
+
+        feed.poll();
+
+        waitUntil(() -> received.get() == 50);
+        assertThat(writers).hasSizeLessThanOrEqualTo(2);
+    }
+
+    private static AutoChange change(long revision, long seq) {
+        AutoChange change = new AutoChange(AutoChange.Type.UPDATED, "VIN" + seq, 1L, Instant.now());
+        ReflectionTestUtils.setField(change, "seq", seq);
+        ReflectionTestUtils.setField(change, "revision", revision);
+        return change;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.galvanize.autos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutoListBodyCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger loads = new AtomicInteger();
+    private AutoListBodyCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new AutoListBodyCache(objectMapper, true, DataSize.ofMegabytes(1), true, DataSize.ofBytes(200));
+    }
+
+    @Test
+    public void getSerializesOncePerRevision() throws IOException {
+        AutoList autoList = autoList(1);
+
+        AutoListBodyCache.Page first = cache.get(1, "red", "", null, 100, () -> load(autoList));
+        AutoListBodyCache.Page second = cache.get(1, "RED", "", null, 100, () -> load(autoList));
+        cache.get(2, "red", "", null, 100, () -> load(autoList));
+
+        assertThat(second).isSameAs(first);
+        assertThat(loads).hasValue(2);
+        assertThat(objectMapper.readValue(bytes(first.getJson()), AutoList.class)).isEqualTo(autoList);
+    }
+
+    @Test
+    public void getKeepsPagesApart() {
+        cache.get(1, "", "", null, 100, () -> load(autoList(1)));
+        cache.get(1, "", "", null, 10, () -> load(autoList(1)));
+        cache.get(1, "", "", AutoCursor.encode(5), 100, () -> load(autoList(1)));
+        cache.get(1, "", "toyota", null, 100, () -> load(autoList(1)));
+
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    public void getGzipsOnlyLargeBodies() throws IOException {
+        AutoListBodyCache.Page small = cache.get(1, "", "", null, 1, () -> autoList(1));
+        AutoListBodyCache.Page large = cache.get(1, "", "", null, 100, () -> autoList(20));
+
+        assertThat(small.getGzip()).isNull();
+        assertThat(large.getGzip()).isNotNull();
+        try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(bytes(large.getGzip())))) {
+            assertThat(gunzip.readAllBytes()).isEqualTo(bytes(large.getJson()));
+        }
+    }
+
+    @Test
+    public void getReturnsAnEmptyPageForNoAutos() {
+        AutoListBodyCache.Page page = cache.get(1, "", "", null, 100, AutoList::new);
+
+        assertThat(page.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void bodiesCanBeReadConcurrently() {
+        AutoListBodyCache.Page page = cache.get(1, "", "", null, 100, () -> autoList(3));
+
+        ByteBuffer one = page.getJson().bytes();
+        one.position(one.limit());
+
+        assertThat(page.getJson().bytes().remaining()).isEqualTo(page.getJson().length());
+    }
+
+    private AutoList load(AutoList autoList) {
+        loads.incrementAndGet();
+        return autoList;
+    }
+
+    private static AutoList autoList(int size) {
+        List<Automobile> automobiles = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
+        }
+        return new AutoList(automobiles);
+    }
+
+    private static byte[] bytes(SerializedBody body) {
+        ByteBuffer buffer = body.bytes();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
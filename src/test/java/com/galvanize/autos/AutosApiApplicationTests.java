@@ -1,5 +1,6 @@
 package com.galvanize.autos;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,12 +11,22 @@ import org.springframework.http.*;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -25,6 +36,10 @@ class AutosApiApplicationTests {
 	private TestRestTemplate restTemplate;
 	@Autowired
 	private AutosRepository autosRepository;
+	@Autowired
+	private AutoChangeRepository autoChangeRepository;
+	@Autowired
+	private AutoJobRepository autoJobRepository;
 	private Random random = new Random();
 	private List<Automobile> autos;
 
@@ -84,6 +99,24 @@ class AutosApiApplicationTests {
 		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
 	}
 
+	@Test
+	public void getAutosPagesThroughEveryAutoOnce() {
+		List<String> vins = new ArrayList<>();
+		String url = "/api/autos?limit=20";
+		int pages = 0;
+		while (url != null) {
+			ResponseEntity<AutoList> response = restTemplate.getForEntity(url, AutoList.class);
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+			response.getBody().getAutomobiles().forEach(auto -> vins.add(auto.getVin()));
+			String next = response.getBody().getNext();
+			url = next == null ? null : "/api/autos?limit=20&after=" + next;
+			pages++;
+		}
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(vins).hasSize(50).doesNotHaveDuplicates();
+	}
+
 	@Test
 	public void getAutoByMakeAndColorReturnsAutosList() {
 		String color = autos.get(0).getColor();
@@ -98,6 +131,78 @@ class AutosApiApplicationTests {
 		assertThat(response.getBody().getAutomobiles().get(0).getMake()).isEqualTo(make);
 	}
 
+	@Test
+	public void getAutosByPartialMakeOnlyReturnsMatchingAutos() {
+		long toyotas = autos.stream().filter(auto -> auto.getMake().equals("Toyota")).count();
+
+		ResponseEntity<AutoList> response = restTemplate.getForEntity("/api/autos?make=yot", AutoList.class);
+
+		if (toyotas == 0) {
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+			return;
+		}
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getAutomobiles()).hasSize((int) toyotas)
+				.allMatch(auto -> auto.getMake().equals("Toyota"));
+	}
+
+	@Test
+	public void getAutosByExactMakeAndYearsPagesInYearOrder() {
+		List<Automobile> expected = autos.stream()
+				.filter(auto -> auto.getMake().equals("Honda") && auto.getYear() >= 2000 && auto.getYear() <= 2015)
+				.sorted((a, b) -> a.getYear() != b.getYear() ? b.getYear() - a.getYear() : Long.compare(b.getId(), a.getId()))
+				.collect(Collectors.toList());
+		List<String> vins = new ArrayList<>();
+		String query = "/api/autos?makeExact=honda&minYear=2000&maxYear=2015&sort=-year&limit=3";
+		String url = query;
+		while (url != null) {
+			ResponseEntity<AutoList> response = restTemplate.getForEntity(url, AutoList.class);
+			if (response.getStatusCode() == HttpStatus.NO_CONTENT) {
+				break;
+			}
+			response.getBody().getAutomobiles().forEach(auto -> vins.add(auto.getVin()));
+			String next = response.getBody().getNext();
+			url = next == null ? null : query + "&after=" + next;
+		}
+
+		assertThat(vins).containsExactlyElementsOf(expected.stream().map(Automobile::getVin).collect(Collectors.toList()));
+		assertThat(restTemplate.getForEntity("/api/autos?makeExact=hon", AutoList.class).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		assertThat(restTemplate.getForEntity("/api/autos?sort=price", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	public void getAutosWithFieldsReturnsOnlyThoseProperties() {
+		ResponseEntity<String> response = restTemplate.getForEntity("/api/autos?make=toyota&fields=vin,make", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody()).contains("\"make\":\"Toyota\"").doesNotContain("\"model\"").doesNotContain("\"id\"");
+		assertThat(restTemplate.getForEntity("/api/autos?fields=price", String.class).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	public void getAutosWithFieldsKeepsTheExactMakeAndYearRange() {
+		ResponseEntity<String> response = restTemplate.getForEntity(
+				"/api/autos?makeExact=toyota&minYear=3000&fields=vin", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+		assertThat(restTemplate.getForEntity("/api/autos?sort=price&fields=vin", String.class).getStatusCode())
+				.isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+
+	@Test
+	public void getFacetsCountsMatchingAutos() {
+		long toyotas = autos.stream().filter(auto -> auto.getMake().equals("Toyota")).count();
+		long redToyotas = autos.stream().filter(auto -> auto.getMake().equals("Toyota") && auto.getColor().equals("RED")).count();
+
+		FacetCounts all = restTemplate.getForEntity("/api/autos/facets", FacetCounts.class).getBody();
+		FacetCounts red = restTemplate.getForEntity("/api/autos/facets?color=red", FacetCounts.class).getBody();
+
+		assertThat(all.getMake().getOrDefault("toyota", 0L)).isEqualTo(toyotas);
+		assertThat(all.getYear().values().stream().mapToLong(Long::longValue).sum()).isEqualTo(50);
+		assertThat(red.getColor().keySet()).containsOnly("red");
+		assertThat(red.getMake().getOrDefault("toyota", 0L)).isEqualTo(redToyotas);
+	}
+
 	@Test
 	public void getAutoByMakeAndColorIgnoreCaseReturnsAutoList() {
 		Automobile newAuto = new Automobile(2022, "RiVIAn", "TruckThingy", "12345");
@@ -133,6 +238,15 @@ class AutosApiApplicationTests {
 		assertThat(response.getBody().getVin()).isEqualTo(newAuto.getVin());
 	}
 
+	@Test
+	public void exportStreamsEveryAutoAsOneJsonLine() {
+		ResponseEntity<String> response = restTemplate.getForEntity("/api/autos/export", String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON);
+		assertThat(response.getBody().split("\n")).hasSize(50).allMatch(line -> line.contains("\"vin\":\"AABBCC"));
+	}
+
 //POSTs
 	@Test
 	public void addAutoToDBReturnsAuto() {
@@ -153,6 +267,93 @@ class AutosApiApplicationTests {
 		assertThat(getResponse.getBody().getModel()).isEqualTo(newAuto.getModel());
 	}
 
+	@Test
+	public void addAutoStoresCanonicalVinAndRejectsDuplicates() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.set("Content-Type", MediaType.APPLICATION_JSON_VALUE);
+
+		ResponseEntity<Automobile> created = restTemplate.postForEntity("/api/autos",
+				new HttpEntity<>("{\"year\":2022,\"make\":\"Rivian\",\"model\":\"R1T\",\"vin\":\" riv1 \"}", httpHeaders), Automobile.class);
+		ResponseEntity<Automobile> duplicate = restTemplate.postForEntity("/api/autos",
+				new HttpEntity<>("{\"year\":2022,\"make\":\"Rivian\",\"model\":\"R1T\",\"vin\":\"RIV1\"}", httpHeaders), Automobile.class);
+
+		assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(created.getBody().getVin()).isEqualTo("RIV1");
+		assertThat(duplicate.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(autosRepository.count()).isEqualTo(51);
+	}
+
+	@Test
+	public void addAutoIgnoresAVersionInTheBody() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.set("Content-Type", MediaType.APPLICATION_JSON_VALUE);
+
+		ResponseEntity<Automobile> created = restTemplate.postForEntity("/api/autos",
+				new HttpEntity<>("{\"year\":2022,\"make\":\"Rivian\",\"model\":\"R1S\",\"vin\":\"RIV2\",\"version\":5}", httpHeaders), Automobile.class);
+
+		assertThat(created.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(autosRepository.findByVin("RIV2")).get().extracting(Automobile::getVersion).isEqualTo(0L);
+	}
+
+	@Test
+	public void addAutosBatchInsertsValidAutosAndReportsTheRest() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		String body = "[" +
+				"{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"batch1\"}," +
+				"{\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"BATCH2\"}," +
+				"{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"AABBCC0\"}," +
+				"{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"BATCH1\"}," +
+				"{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"BATCH3\"}]";
+
+		ResponseEntity<AutoBatchResult> response = restTemplate.postForEntity("/api/autos/batch",
+				new HttpEntity<>(body, httpHeaders), AutoBatchResult.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getCreated()).isEqualTo(2);
+		assertThat(response.getBody().getResults()).extracting(BatchItemResult::getStatus).containsExactly(
+				BatchItemResult.Status.CREATED, BatchItemResult.Status.INVALID, BatchItemResult.Status.DUPLICATE,
+				BatchItemResult.Status.DUPLICATE, BatchItemResult.Status.CREATED);
+		assertThat(autosRepository.count()).isEqualTo(52);
+		assertThat(restTemplate.getForEntity("/api/autos/batch1", Automobile.class).getBody().getModel()).isEqualTo("Soul");
+	}
+
+	@Test
+	public void addAutosBatchAcceptsNdjson() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_NDJSON);
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 1200; i++) {
+			body.append("{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"ND").append(i).append("\"}\n");
+		}
+
+		ResponseEntity<AutoBatchResult> response = restTemplate.postForEntity("/api/autos/batch",
+				new HttpEntity<>(body.toString(), httpHeaders), AutoBatchResult.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getCreated()).isEqualTo(1200);
+		assertThat(autosRepository.count()).isEqualTo(1250);
+	}
+
+	@Test
+	public void addAutosBatchNdjsonReportsAnUnreadableLineAndLoadsTheRest() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_NDJSON);
+		String body = "{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"NDBAD1\"}\n"
+				+ "{\"year\":2021,\"make\":\"Kia\"\n"
+				+ "{\"year\":\"soon\",\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"NDBAD2\"}\n"
+				+ "{\"year\":2021,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"NDBAD3\"}\n";
+
+		ResponseEntity<AutoBatchResult> response = restTemplate.postForEntity("/api/autos/batch",
+				new HttpEntity<>(body, httpHeaders), AutoBatchResult.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getResults()).extracting(BatchItemResult::getStatus).containsExactly(
+				BatchItemResult.Status.CREATED, BatchItemResult.Status.INVALID,
+				BatchItemResult.Status.INVALID, BatchItemResult.Status.CREATED);
+		assertThat(autosRepository.count()).isEqualTo(52);
+	}
+
 	@Test
 	public void addAutoToDBInvalidAutoReturns400() {
 		Automobile badAuto = new Automobile();
@@ -165,7 +366,124 @@ class AutosApiApplicationTests {
 		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
 	}
 
+	@Test
+	public void getAutoWithIfNoneMatchReturns304() {
+		ResponseEntity<Automobile> first = restTemplate.getForEntity("/api/autos/AABBCC2", Automobile.class);
+		HttpHeaders conditional = new HttpHeaders();
+		conditional.setIfNoneMatch(first.getHeaders().getETag());
+
+		ResponseEntity<Automobile> unchanged = restTemplate.exchange("/api/autos/AABBCC2", HttpMethod.GET, new HttpEntity<>(conditional), Automobile.class);
+
+		assertThat(first.getHeaders().getLastModified()).isPositive();
+		assertThat(unchanged.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(unchanged.getBody()).isNull();
+	}
+
+	@Test
+	public void getAutosWithIfNoneMatchReturns304UntilAnAutoChanges() {
+		ResponseEntity<AutoList> first = restTemplate.getForEntity("/api/autos", AutoList.class);
+		HttpHeaders conditional = new HttpHeaders();
+		conditional.setIfNoneMatch(first.getHeaders().getETag());
+		HttpEntity<Void> request = new HttpEntity<>(conditional);
+		HttpHeaders json = new HttpHeaders();
+		json.setContentType(MediaType.APPLICATION_JSON);
+
+		ResponseEntity<AutoList> unchanged = restTemplate.exchange("/api/autos", HttpMethod.GET, request, AutoList.class);
+		restTemplate.exchange("/api/autos/AABBCC2", HttpMethod.PATCH, new HttpEntity<>("{\"owner\":\"Joe\"}", json), Automobile.class);
+		ResponseEntity<AutoList> changed = restTemplate.exchange("/api/autos", HttpMethod.GET, request, AutoList.class);
+
+		assertThat(unchanged.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(changed.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(changed.getHeaders().getETag()).isNotEqualTo(first.getHeaders().getETag());
+	}
+
+	@Test
+	public void getAutosIsGzippedByTheServerWithAWeakETag() throws Exception {
+		// java.net.http leaves the body and Content-Encoding as the server sent them.
+		HttpRequest request = HttpRequest.newBuilder(URI.create(restTemplate.getRootUri() + "/api/autos"))
+				.header("Accept-Encoding", "gzip")
+				.build();
+
+		HttpResponse<byte[]> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+		assertThat(response.statusCode()).isEqualTo(200);
+		assertThat(response.headers().firstValue("Content-Encoding")).hasValue("gzip");
+		assertThat(response.headers().firstValue("ETag")).hasValueSatisfying(etag -> assertThat(etag).startsWith("W/"));
+		assertThat(response.headers().allValues("Vary").stream().flatMap(vary -> Arrays.stream(vary.split(",")))
+				.map(String::trim)).contains("Accept");
+	}
+
 //PATCHEs
+	@Test
+	public void patchWithIfMatchRejectsStaleVersion() {
+		ResponseEntity<Automobile> current = restTemplate.getForEntity("/api/autos/AABBCC1", Automobile.class);
+		String etag = current.getHeaders().getETag();
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		httpHeaders.setIfMatch(etag);
+		HttpEntity<String> request = new HttpEntity<>("{\"owner\":\"Joe\",\"color\":\"Teal\"}", httpHeaders);
+
+		ResponseEntity<Automobile> first = restTemplate.exchange("/api/autos/AABBCC1", HttpMethod.PATCH, request, Automobile.class);
+		ResponseEntity<Automobile> second = restTemplate.exchange("/api/autos/AABBCC1", HttpMethod.PATCH, request, Automobile.class);
+
+		assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(first.getBody().getOwner()).isEqualTo("Joe");
+		// The version is read-only to Jackson, so it is read back from the ETag here.
+		long version = Long.parseLong(etag.replace("\"", ""));
+		assertThat(first.getHeaders().getETag()).isEqualTo("\"" + (version + 1) + "\"");
+		assertThat(second.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+		assertThat(restTemplate.getForEntity("/api/autos?color=teal", AutoList.class).getBody().getAutomobiles())
+				.extracting(Automobile::getVin).containsExactly("AABBCC1");
+	}
+
+	@Test
+	public void patchUnknownVinReturns204() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		HttpEntity<String> request = new HttpEntity<>("{\"owner\":\"Joe\"}", httpHeaders);
+
+		ResponseEntity<Automobile> response = restTemplate.exchange("/api/autos/NOPE", HttpMethod.PATCH, request, Automobile.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+	}
+
+	@Test
+	public void patchByFilterUpdatesEveryMatchingAutoAfterADryRun() {
+		long teslas = autos.stream().filter(auto -> auto.getMake().equals("Tesla")).count();
+		long changesBefore = autoChangeRepository.count();
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		HttpEntity<String> request = new HttpEntity<>("{\"filter\":{\"make\":\"TESLA\"},\"color\":\"Teal\"}", httpHeaders);
+
+		ResponseEntity<AutoBulkResult> dryRun = restTemplate.exchange("/api/autos?dryRun=true", HttpMethod.PATCH, request, AutoBulkResult.class);
+
+		assertThat(dryRun.getBody().getAffected()).isEqualTo(teslas);
+		assertThat(dryRun.getBody().isDryRun()).isTrue();
+		assertThat(restTemplate.getForEntity("/api/autos?color=teal", AutoList.class).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+		ResponseEntity<AutoBulkResult> response = restTemplate.exchange("/api/autos", HttpMethod.PATCH, request, AutoBulkResult.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getAffected()).isEqualTo(teslas);
+		assertThat(response.getBody().isDryRun()).isFalse();
+		assertThat(autoChangeRepository.count() - changesBefore).isEqualTo(teslas);
+		ResponseEntity<AutoList> teal = restTemplate.getForEntity("/api/autos?color=teal", AutoList.class);
+		if (teslas > 0) {
+			assertThat(teal.getBody().getAutomobiles()).hasSize((int) teslas)
+					.allSatisfy(auto -> assertThat(auto.getMake()).isEqualTo("Tesla"));
+		}
+	}
+
+	@Test
+	public void patchWithEmptyFilterReturns400() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		HttpEntity<String> request = new HttpEntity<>("{\"filter\":{},\"owner\":\"Joe\"}", httpHeaders);
+
+		ResponseEntity<String> response = restTemplate.exchange("/api/autos", HttpMethod.PATCH, request, String.class);
+
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+	}
 
 //DELETEs
 	@Test
@@ -186,4 +504,111 @@ class AutosApiApplicationTests {
 
 		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
 	}
+
+	@Test
+	public void deleteByVinListDeletesOnlyExistingAutos() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		HttpEntity<String> request = new HttpEntity<>("{\"vins\":[\"aabbcc0\",\"AABBCC1\",\"NOPE\"]}", httpHeaders);
+
+		ResponseEntity<AutoBulkResult> response = restTemplate.exchange("/api/autos", HttpMethod.DELETE, request, AutoBulkResult.class);
+
+		assertThat(response.getBody().getAffected()).isEqualTo(2);
+		assertThat(restTemplate.getForEntity("/api/autos", AutoList.class).getBody().getAutomobiles()).hasSize(48);
+		assertThat(restTemplate.getForEntity("/api/autos/AABBCC1", Automobile.class).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+	}
+
+	@Test
+	public void requestsRecordStatementAndResultSizeMetrics() {
+		// statement counts are recorded after the response is written, so the first request's
+		// sample is guaranteed to be in by the time the second one returns
+		restTemplate.getForEntity("/api/autos", AutoList.class);
+		restTemplate.getForEntity("/api/autos", AutoList.class);
+
+		ResponseEntity<String> statements = restTemplate.getForEntity("/actuator/metrics/autos.request.statements?tag=uri:/api/autos", String.class);
+		ResponseEntity<String> results = restTemplate.getForEntity("/actuator/metrics/autos.repository.results?tag=method:findByIdGreaterThanOrderByIdAsc", String.class);
+
+		assertThat(statements.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(results.getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+//Jobs
+	@Test
+	public void importReportsWrittenAndRejectedRowsThenExportIncludesThem() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.valueOf("text/csv"));
+		String csv = "VIN,year,make,model,color\n"
+				+ "JOB1,2019,Ford,Focus,Red\n"
+				+ "JOB2,2019,,Focus,\n"
+				+ "AABBCC0,2019,Ford,Focus,\n"
+				+ "JOB3,nineteen,Ford,Focus\n";
+
+		ResponseEntity<JsonNode> started = restTemplate.postForEntity("/api/autos/imports", new HttpEntity<>(csv, httpHeaders), JsonNode.class);
+		JsonNode imported = awaitJob(started.getHeaders().getLocation());
+
+		assertThat(started.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+		assertThat(imported.get("status").asText()).isEqualTo("SUCCEEDED");
+		assertThat(imported.get("linesRead").asLong()).isEqualTo(4);
+		assertThat(imported.get("written").asLong()).isEqualTo(1);
+		assertThat(imported.get("rejected").asLong()).isEqualTo(3);
+		assertThat(imported.get("errors").findValuesAsText("reason")).containsExactly("INVALID", "DUPLICATE", "MALFORMED");
+		assertThat(imported.get("errors").get(0).get("line").asLong()).isEqualTo(3);
+		assertThat(restTemplate.getForEntity("/api/autos/JOB1", Automobile.class).getBody().getColor()).isEqualTo("Red");
+
+		ResponseEntity<JsonNode> export = restTemplate.postForEntity("/api/autos/exports", null, JsonNode.class);
+		JsonNode exported = awaitJob(export.getHeaders().getLocation());
+		ResponseEntity<String> file = restTemplate.getForEntity(export.getHeaders().getLocation() + "/file", String.class);
+
+		assertThat(exported.get("written").asLong()).isEqualTo(51);
+		assertThat(file.getHeaders().getContentDisposition().getFilename()).endsWith(".csv");
+		assertThat(file.getBody()).startsWith(AutosExporter.CSV_HEADER).contains("JOB1,2019,Ford,Focus,Red,");
+		assertThat(file.getBody().split("\n")).hasSize(52);
+	}
+
+	@Test
+	public void jobsLeasedByALiveInstanceAreNotTakenOver() {
+		Instant now = Instant.now();
+		AutoJob live = autoJobRepository.save(new AutoJob(AutoJob.Type.EXPORT, "/nowhere/live.csv", now).leasedTo("other", now.plusSeconds(30)));
+		AutoJob expired = autoJobRepository.save(new AutoJob(AutoJob.Type.EXPORT, "/nowhere/expired.csv", now).leasedTo("gone", now.minusSeconds(1)));
+
+		assertThat(autoJobRepository.claim(live.getId(), "me", now.plusSeconds(30), now, AutoJob.OPEN)).isZero();
+		assertThat(autoJobRepository.claim(expired.getId(), "me", now.plusSeconds(30), now, AutoJob.OPEN)).isEqualTo(1);
+		assertThat(autoJobRepository.updateStatus(expired.getId(), "gone", AutoJob.Status.FAILED, null, now)).isZero();
+		assertThat(autoJobRepository.findById(expired.getId()).get().getStatus()).isEqualTo(AutoJob.Status.QUEUED);
+		autoJobRepository.deleteAll(List.of(live, expired));
+	}
+
+	private JsonNode awaitJob(URI location) {
+		return assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			while (true) {
+				JsonNode job = restTemplate.getForObject(location, JsonNode.class);
+				if (job.get("status").asText().equals("SUCCEEDED") || job.get("status").asText().equals("FAILED")) {
+					return job;
+				}
+				Thread.sleep(50);
+			}
+		});
+	}
+
+//Changes
+	@Test
+	public void changesReplayEverythingAfterLastEventId() {
+		long before = autoChangeRepository.findAll().stream().mapToLong(AutoChange::getSeq).max().orElse(0);
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		restTemplate.postForEntity("/api/autos", new HttpEntity<>("{\"year\":2020,\"make\":\"Ford\",\"model\":\"Bronco\",\"vin\":\"FEED1\"}", httpHeaders), Automobile.class);
+		restTemplate.exchange("/api/autos/FEED1", HttpMethod.PATCH, new HttpEntity<>("{\"color\":\"Teal\"}", httpHeaders), Automobile.class);
+		restTemplate.delete("/api/autos/FEED1");
+
+		HttpRequest request = HttpRequest.newBuilder(URI.create(restTemplate.getRootUri() + "/api/autos/changes"))
+				.header("Last-Event-ID", String.valueOf(before))
+				.build();
+		List<String> events = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			try (Stream<String> lines = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofLines()).body()) {
+				return lines.filter(line -> line.startsWith("event:")).limit(3).collect(Collectors.toList());
+			}
+		});
+
+		assertThat(events).containsExactly("event:created", "event:updated", "event:deleted");
+	}
 }
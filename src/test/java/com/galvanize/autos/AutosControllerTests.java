@@ -3,19 +3,36 @@ package com.galvanize.autos;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.galvanize.autos.exceptions.AutoNotFoundException;
 import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import com.galvanize.autos.exceptions.VersionConflictException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -29,6 +46,27 @@ public class AutosControllerTests {
     @MockBean
     AutosService autosService;
 
+    @MockBean
+    AutosExporter autosExporter;
+
+    @MockBean
+    AutosBatchLoader autosBatchLoader;
+
+    @MockBean
+    AutosFacets autosFacets;
+
+    @MockBean
+    AutoChangeFeed autoChangeFeed;
+
+    @MockBean
+    AutoListBodyCache autoListBodyCache;
+
+    @MockBean
+    AutosBulkWriter autosBulkWriter;
+
+    @MockBean
+    AutoJobs autoJobs;
+
     ObjectMapper objectMapper = new ObjectMapper();
 
     // - GET: /api/autos returns list of all cars in database
@@ -38,21 +76,172 @@ public class AutosControllerTests {
         for (int i = 0; i < 5; i++) {
             automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
         }
-        when(autosService.getAutos()).thenReturn(new AutoList(automobiles));
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList(automobiles));
 
         mockMvc.perform(get("/api/autos"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.automobiles", hasSize(5)));
     }
 
+    // - GET: /api/autos with Accept: application/vnd.autos.table+json names each column once
+    @Test
+    public void getAsTableReturnsColumnsAndRows() throws Exception {
+        List<Automobile> automobiles = Arrays.asList(new Automobile(1990, "Toyota", "Camry", "ASDF0"),
+                new Automobile(1991, "Honda", "Accord", "ASDF1"));
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList(automobiles, "abc"));
+
+        mockMvc.perform(get("/api/autos").accept(AutoTable.MEDIA_TYPE_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(AutoTable.MEDIA_TYPE_VALUE))
+                .andExpect(jsonPath("$.columns[1]").value("vin"))
+                .andExpect(jsonPath("$.rows", hasSize(2)))
+                .andExpect(jsonPath("$.rows[1][1]").value("ASDF1"))
+                .andExpect(jsonPath("$.rows[1][3]").value("Honda"))
+                .andExpect(jsonPath("$.next").value("abc"));
+    }
+
+    // - GET: /api/autos with Accept: application/cbor returns CBOR, and plain JSON stays the default
+    @Test
+    public void getNegotiatesCborAndDefaultsToJson() throws Exception {
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList(List.of(new Automobile(1990, "Toyota", "Camry", "ASDF0"))));
+
+        mockMvc.perform(get("/api/autos").accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"));
+        mockMvc.perform(get("/api/autos"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    // - GET: /api/autos?fields=vin,make returns only those properties
+    @Test
+    public void getWithFieldsReturnsProjection() throws Exception {
+        Map<String, Object> auto = new LinkedHashMap<>();
+        auto.put("vin", "ASDF0");
+        auto.put("make", "Toyota");
+        when(autosService.getAutos(anyString(), anyString(), anyString(), isNull(), isNull(), eq("id"), isNull(), anyInt(),
+                eq(List.of("vin", "make"))))
+                .thenReturn(new ProjectedAutoList(List.of(auto), null));
+
+        mockMvc.perform(get("/api/autos?fields=vin,make"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.automobiles[0].vin").value("ASDF0"))
+                .andExpect(jsonPath("$.automobiles[0].model").doesNotExist());
+    }
+
+    // - GET: /api/autos/facets returns counts per make, color and year for the same filters
+    @Test
+    public void getFacetsReturnsCounts() throws Exception {
+        when(autosFacets.get("red", "")).thenReturn(new FacetCounts(Map.of("toyota", 2L), Map.of("red", 2L), Map.of("1999", 2L)));
+
+        mockMvc.perform(get("/api/autos/facets?color=red"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.make.toyota").value(2))
+                .andExpect(jsonPath("$.year.1999").value(2));
+    }
+
+    // - GET: /api/autos/changes resumes the event stream after Last-Event-ID
+    @Test
+    public void getChangesSubscribesFromLastEventId() throws Exception {
+        when(autoChangeFeed.subscribe(41L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/autos/changes").header("Last-Event-ID", "41"))
+                .andExpect(request().asyncStarted());
+
+        verify(autoChangeFeed).subscribe(41L);
+    }
+
+    // - GET: /api/autos/changes returns 400 for a Last-Event-ID we never sent
+    @Test
+    public void getChangesWithBadLastEventIdReturns400() throws Exception {
+        mockMvc.perform(get("/api/autos/changes").header("Last-Event-ID", "abc"))
+                .andExpect(status().isBadRequest());
+
+        verify(autoChangeFeed, never()).subscribe(any());
+    }
+
     // - GET: /api/autos returns 204 when no cars are found
     @Test
     public void getNoParamsNoMatchShouldReturnNoContent() throws Exception {
-        when(autosService.getAutos()).thenReturn(new AutoList());
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList());
         mockMvc.perform(get("/api/autos"))
                 .andExpect(status().isNoContent());
     }
 
+    // - GET: /api/autos returns 304 without querying when If-None-Match names the current inventory revision
+    @Test
+    public void getUnchangedInventoryReturnsNotModifiedWithoutQuerying() throws Exception {
+        when(autosService.getInventoryRevision()).thenReturn(Optional.of(new InventoryRevision(7, Instant.parse("2021-09-01T00:00:00Z"))));
+
+        mockMvc.perform(get("/api/autos").header("If-None-Match", "W/\"r7\""))
+                .andExpect(status().isNotModified());
+        verify(autosService, never()).getAutos(any(), anyInt());
+    }
+
+    // - GET: /api/autos tags the list with the inventory revision it was read at
+    @Test
+    public void getReturnsInventoryRevisionAsETag() throws Exception {
+        when(autosService.getInventoryRevision()).thenReturn(Optional.of(new InventoryRevision(7, Instant.parse("2021-09-01T00:00:00Z"))));
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList(List.of(new Automobile(1990, "Toyota", "Camry", "ASDF"))));
+
+        mockMvc.perform(get("/api/autos"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"r7\""))
+                .andExpect(header().string("Vary", "Accept"))
+                .andExpect(header().exists("Last-Modified"));
+    }
+
+    // - GET: /api/autos writes the cached body as it is, gzipped for clients that take gzip
+    @Test
+    public void getWritesCachedBodyGzippedWhenAccepted() throws Exception {
+        byte[] json = "{\"automobiles\":[]}".getBytes(StandardCharsets.UTF_8);
+        byte[] gzip = {31, -117, 8, 0};
+        when(autosService.getInventoryRevision()).thenReturn(Optional.of(new InventoryRevision(7, Instant.parse("2021-09-01T00:00:00Z"))));
+        when(autoListBodyCache.isEnabled()).thenReturn(true);
+        when(autoListBodyCache.get(eq(7L), eq(""), eq(""), isNull(), eq(100), any()))
+                .thenReturn(new AutoListBodyCache.Page(SerializedBody.of(json), SerializedBody.of(gzip)));
+        when(autosService.getAutos(isNull(), anyInt())).thenReturn(new AutoList(List.of(new Automobile(1990, "Toyota", "Camry", "ASDF"))));
+
+        mockMvc.perform(get("/api/autos").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Content-Length", "4"))
+                .andExpect(content().bytes(gzip));
+        mockMvc.perform(get("/api/autos").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(content().bytes(json));
+        mockMvc.perform(get("/api/autos").accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"));
+        verify(autosService, times(1)).getAutos(isNull(), anyInt());
+    }
+
+    // - GET: /api/autos?limit=2&after=... returns the next page and a cursor for the one after it
+    @Test
+    public void getWithLimitAndAfterReturnsPageAndNextCursor() throws Exception {
+        List<Automobile> automobiles = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
+        }
+        when(autosService.getAutos("abc", 2)).thenReturn(new AutoList(automobiles, "def"));
+
+        mockMvc.perform(get("/api/autos?limit=2&after=abc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.automobiles", hasSize(2)))
+                .andExpect(jsonPath("next").value("def"));
+    }
+
+    // - GET: /api/autos returns 400 for a malformed cursor or limit
+    @Test
+    public void getWithInvalidPageRequestReturnsBadRequest() throws Exception {
+        when(autosService.getAutos(any(), anyInt())).thenThrow(InvalidQueryException.class);
+
+        mockMvc.perform(get("/api/autos?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
     // - GET: /api/autos?color=slate returns all slate coloured cars
     @Test
     public void getAllAutosByColorReturnsList() throws Exception {
@@ -60,7 +249,7 @@ public class AutosControllerTests {
         for (int i = 0; i < 5; i++) {
             automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
         }
-        when(autosService.getAutos(anyString(), anyString())).thenReturn(new AutoList(automobiles));
+        when(autosService.getAutos(anyString(), anyString(), isNull(), anyInt())).thenReturn(new AutoList(automobiles));
 
         mockMvc.perform(get("/api/autos?color=SLATE"))
                 .andExpect(status().isOk())
@@ -75,13 +264,28 @@ public class AutosControllerTests {
         for (int i = 0; i < 5; i++) {
             automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
         }
-        when(autosService.getAutos(anyString(), anyString())).thenReturn(new AutoList(automobiles));
+        when(autosService.getAutos(anyString(), anyString(), isNull(), anyInt())).thenReturn(new AutoList(automobiles));
 
         mockMvc.perform(get("/api/autos?make=Toyota"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.automobiles", hasSize(5)));
     }
 
+    // - GET: /api/autos?makeExact=Toyota&minYear=2015&maxYear=2020&sort=year returns those Toyotas by year
+    @Test
+    public void getAutosByExactMakeAndYearRangePassesThemOn() throws Exception {
+        List<Automobile> automobiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            automobiles.add(new Automobile(2015 + i, "Toyota", "Camry", "ASDF" + i));
+        }
+        when(autosService.getAutos("", "", "Toyota", 2015, 2020, "year", null, 100)).thenReturn(new AutoList(automobiles));
+
+        mockMvc.perform(get("/api/autos?makeExact=Toyota&minYear=2015&maxYear=2020&sort=year"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.automobiles", hasSize(3)))
+                .andExpect(jsonPath("$.automobiles[0].year").value(2015));
+    }
+
     // - GET: /api/autos?color=SLATE&make=Toyota returns all slate Toyotas
     @Test
     public void getAllAutosByMakeAndColorReturnsList() throws Exception {
@@ -89,7 +293,7 @@ public class AutosControllerTests {
         for (int i = 0; i < 5; i++) {
             automobiles.add(new Automobile(1990 + i, "Toyota", "Camry", "ASDF" + i));
         }
-        when(autosService.getAutos(anyString(), anyString())).thenReturn(new AutoList(automobiles));
+        when(autosService.getAutos(anyString(), anyString(), isNull(), anyInt())).thenReturn(new AutoList(automobiles));
 
         mockMvc.perform(get("/api/autos?color=SLATE&make=Toyota"))
                 .andExpect(status().isOk())
@@ -97,6 +301,25 @@ public class AutosControllerTests {
     }
 
 
+    // - GET: /api/autos/export streams every car as newline-delimited JSON
+    @Test
+    public void exportStreamsNdjson() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{\"vin\":\"ASDF0\"}\n{\"vin\":\"ASDF1\"}\n".getBytes(StandardCharsets.UTF_8));
+            return 2L;
+        }).when(autosExporter).writeNdjson(any(OutputStream.class));
+
+        MvcResult result = mockMvc.perform(get("/api/autos/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"vin\":\"ASDF0\"}\n{\"vin\":\"ASDF1\"}\n"));
+    }
+
     //- POST: /api/autos return the car added to the database when successful
     @Test
     public void addAutoToDataBaseValid() throws Exception{
@@ -146,6 +369,49 @@ public class AutosControllerTests {
                 .andExpect(status().isNoContent());
     }
 
+    //- POST: /api/autos/batch returns a result for every car in the request
+    @Test
+    public void addAutosBatchReturnsPerItemResults() throws Exception {
+        Automobile added = new Automobile(2020, "Kia", "Forte", "1234");
+        added.setId(7L);
+        AutoBatchResult result = new AutoBatchResult(Arrays.asList(
+                BatchItemResult.created(0, added),
+                BatchItemResult.rejected(1, null, BatchItemResult.Status.INVALID)));
+        when(autosBatchLoader.load(any())).thenReturn(result);
+
+        mockMvc.perform(post("/api/autos/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"year\":2020,\"make\":\"Kia\",\"model\":\"Forte\",\"vin\":\"1234\"},{}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("created").value(1))
+                .andExpect(jsonPath("rejected").value(1))
+                .andExpect(jsonPath("$.results[0].id").value(7))
+                .andExpect(jsonPath("$.results[1].status").value("INVALID"));
+    }
+
+    //- POST: /api/autos/imports returns 202 with where to follow the import
+    @Test
+    public void importAutosReturns202WithLocation() throws Exception {
+        AutoJob job = new AutoJob(AutoJob.Type.IMPORT, "/tmp/import.csv", Instant.now());
+        ReflectionTestUtils.setField(job, "id", 3L);
+        when(autoJobs.startImport(any())).thenReturn(job);
+
+        mockMvc.perform(post("/api/autos/imports").contentType("text/csv")
+                .content("vin,year,make,model\n1234,2020,Kia,Forte\n"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string("Location", "http://localhost/api/autos/imports/3"))
+                .andExpect(jsonPath("status").value("QUEUED"))
+                .andExpect(jsonPath("spoolFile").doesNotExist());
+    }
+
+    //- GET: /api/autos/exports/{id}/file returns 404 until the export has succeeded
+    @Test
+    public void getExportFileReturns404UntilDone() throws Exception {
+        when(autoJobs.exportedFile(5L)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/api/autos/exports/5/file"))
+                .andExpect(status().isNotFound());
+    }
+
     //- PATCH: /api/autos/{vin} return the car with updated color and owner
     @Test
     public void patchAutoByVinReturnsAuto() throws Exception {
@@ -154,7 +420,7 @@ public class AutosControllerTests {
         newCar.setOwner("Joe");
         String json = "{\"owner\":\"Joe\",\"color\":\"blue\"}";
 
-        when(autosService.updateAuto(anyString(), anyString(), anyString())).thenReturn(newCar);
+        when(autosService.updateAuto(anyString(), anyString(), anyString(), isNull())).thenReturn(newCar);
 
         mockMvc.perform(patch("/api/autos/" + newCar.getVin())
                 .contentType(MediaType.APPLICATION_JSON)
@@ -164,6 +430,37 @@ public class AutosControllerTests {
                 .andExpect(jsonPath("color").value("blue"));
     }
 
+    //- PATCH: /api/autos/{vin} in write-behind mode returns 202 with the car as it will be
+    @Test
+    public void patchAutoByVinWriteBehindReturns202() throws Exception {
+        Automobile newCar = new Automobile(2020, "Kia", "Forte", "1234");
+        newCar.setColor("blue");
+        newCar.setOwner("Joe");
+        when(autosService.isWriteBehind()).thenReturn(true);
+        when(autosService.acceptUpdate("1234", "Joe", "blue")).thenReturn(newCar);
+
+        mockMvc.perform(patch("/api/autos/1234")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"owner\":\"Joe\",\"color\":\"blue\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().doesNotExist("ETag"))
+                .andExpect(jsonPath("owner").value("Joe"));
+
+        verify(autosService, never()).updateAuto(anyString(), anyString(), anyString(), any());
+    }
+
+    //- PATCH: /api/autos/{vin} returns 503 when the write-behind buffer stays full
+    @Test
+    public void patchAutoByVinWriteBehindFullReturns503() throws Exception {
+        when(autosService.isWriteBehind()).thenReturn(true);
+        when(autosService.acceptUpdate(anyString(), anyString(), anyString())).thenThrow(new WriteBehindUnavailableException());
+
+        mockMvc.perform(patch("/api/autos/1234")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"owner\":\"Joe\",\"color\":\"blue\"}"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
     //- PATCH: /api/autos/{vin} return car with updated color
     @Test
     public void patchAutoByVinColorOnlyReturnsAuto() throws Exception {
@@ -171,7 +468,7 @@ public class AutosControllerTests {
         newCar.setColor("blue");
         String json = "{\"color\":\"blue\"}";
 
-        when(autosService.updateAuto(anyString(), eq(null), anyString())).thenReturn(newCar);
+        when(autosService.updateAuto(anyString(), eq(null), anyString(), isNull())).thenReturn(newCar);
 
         mockMvc.perform(patch("/api/autos/" + newCar.getVin())
                 .contentType(MediaType.APPLICATION_JSON)
@@ -188,7 +485,7 @@ public class AutosControllerTests {
         newCar.setOwner("Casey");
         String json = "{\"owner\":\"Casey\"}";
 
-        when(autosService.updateAuto(anyString(), anyString(), eq(null))).thenReturn(newCar);
+        when(autosService.updateAuto(anyString(), anyString(), eq(null), isNull())).thenReturn(newCar);
 
         mockMvc.perform(patch("/api/autos/" + newCar.getVin())
                 .contentType(MediaType.APPLICATION_JSON)
@@ -201,7 +498,7 @@ public class AutosControllerTests {
     //- PATCH: /api/autos/{vin} return 204 vehicle not found if VIN doesn't have a match in DB
     @Test
     public void patchAutoByVinReturnsVehicleNotFound() throws Exception {
-        when(autosService.updateAuto(anyString(), anyString(), anyString())).thenReturn(new Automobile());
+        when(autosService.updateAuto(anyString(), anyString(), anyString(), isNull())).thenReturn(new Automobile());
 
         mockMvc.perform(patch("/api/autos/1234")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -218,19 +515,93 @@ public class AutosControllerTests {
                 .andExpect(status().isBadRequest());
     }
 
+    //- PATCH: /api/autos/{vin} with If-Match only updates that version of the car
+    @Test
+    public void patchAutoByVinWithIfMatchPassesExpectedVersion() throws Exception {
+        Automobile newCar = new Automobile(2020, "Kia", "Forte", "1234");
+        newCar.setColor("blue");
+
+        when(autosService.updateAuto("1234", "Joe", "blue", 3L)).thenReturn(newCar);
+
+        mockMvc.perform(patch("/api/autos/1234")
+                .header("If-Match", "\"3\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"owner\":\"Joe\",\"color\":\"blue\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("color").value("blue"));
+    }
+
+    //- PATCH: /api/autos/{vin} return 412 when If-Match names a version that is no longer current
+    @Test
+    public void patchAutoByVinWithStaleIfMatchReturnsPreconditionFailed() throws Exception {
+        when(autosService.updateAuto(anyString(), anyString(), anyString(), eq(2L))).thenThrow(VersionConflictException.class);
+
+        mockMvc.perform(patch("/api/autos/1234")
+                .header("If-Match", "\"2\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"owner\":\"Joe\",\"color\":\"blue\"}"))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    //- PATCH: /api/autos with a filter returns how many autos were updated, or would be with dryRun
+    @Test
+    public void patchAutosByFilterReturnsAffectedCount() throws Exception {
+        when(autosBulkWriter.update(any(AutoBulkFilter.class), isNull(), eq("blue"), eq(true)))
+                .thenReturn(new AutoBulkResult(1200, true));
+
+        mockMvc.perform(patch("/api/autos?dryRun=true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"filter\":{\"make\":\"Kia\",\"owner\":\"Fleet\"},\"color\":\"blue\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("affected").value(1200))
+                .andExpect(jsonPath("dryRun").value(true));
+    }
+
+    //- PATCH: /api/autos return 400 when the filter names nothing
+    @Test
+    public void patchAutosWithEmptyFilterReturnsBadRequest() throws Exception {
+        when(autosBulkWriter.update(any(), anyString(), any(), anyBoolean())).thenThrow(new InvalidQueryException());
+
+        mockMvc.perform(patch("/api/autos")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"owner\":\"Joe\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    //- DELETE: /api/autos with a filter returns how many autos were deleted
+    @Test
+    public void deleteAutosByFilterReturnsAffectedCount() throws Exception {
+        when(autosBulkWriter.delete(any(AutoBulkFilter.class), eq(false))).thenReturn(new AutoBulkResult(2, false));
+
+        mockMvc.perform(delete("/api/autos")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"vins\":[\"1234\",\"5678\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("affected").value(2));
+    }
+
+    //- DELETE: /api/autos/{vin} return 412 when If-Match names a version that is no longer current
+    @Test
+    public void deleteAutoByVinWithStaleIfMatchReturnsPreconditionFailed() throws Exception {
+        doThrow(new VersionConflictException()).when(autosService).deleteAuto("1234", 2L);
+
+        mockMvc.perform(delete("/api/autos/1234").header("If-Match", "\"2\""))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     //- DELETE: /api/autos/{vin} return 202 automobile delete request accepted
     @Test
     public void deleteAutoByVinReturnsAccepted() throws Exception {
         mockMvc.perform(delete("/api/autos/1234"))
                 .andExpect(status().isAccepted());
-        verify(autosService).deleteAuto(anyString());
+        verify(autosService).deleteAuto(anyString(), isNull());
 
     }
 
     //- DELETE: /api/autos/{vin} return 204 vehicle not found when VIN doesn't have a match in DB
     @Test
     public void deleteAutoByVinReturns204() throws Exception {
-        doThrow(new AutoNotFoundException()).when(autosService).deleteAuto(anyString());
+        doThrow(new AutoNotFoundException()).when(autosService).deleteAuto(anyString(), isNull());
         mockMvc.perform(delete("/api/autos/1234"))
                 .andExpect(status().isNoContent());
     }
@@ -0,0 +1,102 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AutosFacetsTest {
+
+    private static final Instant NOW = Instant.parse("2021-09-01T00:00:00Z");
+
+    @Mock
+    private AutosRepository autosRepository;
+    @Mock
+    private AutoChangeRepository autoChangeRepository;
+    @Mock
+    private InventoryRevisions inventoryRevisions;
+    @Mock
+    private SearchVocabulary searchVocabulary;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AutosFacets autosFacets;
+
+    @BeforeEach
+    public void setUp() {
+        autosFacets = new AutosFacets(autosRepository, autoChangeRepository, inventoryRevisions, searchVocabulary,
+                transactionManager, 10, 100, Duration.ofMinutes(10));
+        when(searchVocabulary.resolve(anyString(), anyString())).thenReturn(AutoFilter.of("red", ""));
+        when(inventoryRevisions.current()).thenReturn(Optional.of(new InventoryRevision(5, NOW)));
+        when(autosRepository.countBy(any(AutoFilter.class), eq("makeNormalized"))).thenReturn(Map.of("ford", 2L));
+        when(autosRepository.countBy(any(AutoFilter.class), eq("colorNormalized"))).thenReturn(Map.of("dark red", 2L));
+        when(autosRepository.countBy(any(AutoFilter.class), eq("year"))).thenReturn(Map.of("1967", 2L));
+    }
+
+    @Test
+    public void getAdjustsCachedCountsByTheChangesSince() {
+        when(autoChangeRepository.findAfter(any(AutoChange.Position.class), anyInt()))
+                .thenReturn(List.of())
+                .thenReturn(List.of(
+                        change(6, AutoChange.Type.CREATED, "toyota", 2020, null, "red"),
+                        change(7, AutoChange.Type.UPDATED, "ford", 1967, "dark red", "blue"),
+                        change(8, AutoChange.Type.DELETED, "ford", 1967, "dark red", null),
+                        change(9, AutoChange.Type.CREATED, "ford", 1999, null, "green")));
+
+        autosFacets.get("red", "");
+        autosFacets.get("RED", "");
+        FacetCounts counts = autosFacets.get("red", "");
+
+        assertThat(counts.getMake()).containsExactly(Map.entry("toyota", 1L));
+        assertThat(counts.getColor()).containsExactly(Map.entry("red", 1L));
+        assertThat(counts.getYear()).containsExactly(Map.entry("2020", 1L));
+        verify(autosRepository, times(1)).countBy(any(AutoFilter.class), eq("year"));
+        verify(autoChangeRepository, times(2)).findAfter(AutoChange.Position.afterRevision(5), 11);
+    }
+
+    @Test
+    public void getCountsAgainWhenAChangeHasNoFacetValues() {
+        when(autoChangeRepository.findAfter(any(AutoChange.Position.class), anyInt()))
+                .thenReturn(List.of(change(6, AutoChange.Type.UPDATED, null, null, null, null)));
+
+        autosFacets.get("red", "");
+        autosFacets.get("red", "");
+
+        verify(autosRepository, times(2)).countBy(any(AutoFilter.class), eq("year"));
+    }
+
+    @Test
+    public void getKeepsFiltersApart() {
+        autosFacets.get("red", "");
+        autosFacets.get("blue", "");
+
+        verify(autosRepository, times(2)).countBy(any(AutoFilter.class), eq("year"));
+    }
+
+    private static AutoChange change(long seq, AutoChange.Type type, String make, Integer year,
+                                     String colorBefore, String colorAfter) {
+        AutoChange change = new AutoChange(type, "VIN" + seq, 1L, NOW, make, year, colorBefore, colorAfter);
+        ReflectionTestUtils.setField(change, "seq", seq);
+        ReflectionTestUtils.setField(change, "revision", seq);
+        return change;
+    }
+}
@@ -1,20 +1,48 @@
 package com.galvanize.autos;
 
 import com.galvanize.autos.exceptions.AutoNotFoundException;
+import com.galvanize.autos.exceptions.DuplicateAutoException;
 import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.InvalidQueryException;
+import com.galvanize.autos.exceptions.VersionConflictException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.Tuple;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -22,20 +50,33 @@ import static org.mockito.Mockito.when;
 public class AutosServiceTest {
 
     private AutosService autosService;
+    private VinCache vinCache;
     private Automobile automobile;
 
     @Mock
     private AutosRepository autosRepository;
+    @Mock
+    private SearchVocabulary searchVocabulary;
+    @Mock
+    private InventoryRevisions inventoryRevisions;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private AutosWriteBehind autosWriteBehind;
 
     @BeforeEach
     public void setUp() {
-        autosService = new AutosService(autosRepository);
+        vinCache = new VinCache(100, Duration.ofMinutes(5), Duration.ofSeconds(30));
+        autosService = new AutosService(autosRepository, searchVocabulary, vinCache, inventoryRevisions,
+                new TransactionTemplate(transactionManager), autosWriteBehind);
+        lenient().when(autosWriteBehind.overlay(any(Automobile.class))).thenAnswer(invocation -> invocation.getArgument(0));
         automobile = new Automobile(2000, "Toyota", "Venza", "AKS123");
+        automobile.assignVersion(4L, Instant.EPOCH);
     }
 
     @Test
     public void getAutosNoParamsReturnsAutoList() {
-        when(autosRepository.findAll()).thenReturn(Arrays.asList(automobile));
+        when(autosRepository.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Pageable.class))).thenReturn(Arrays.asList(automobile));
         AutoList autoList = autosService.getAutos();
         assertThat(autoList).isNotNull();
         assertThat(autoList.isEmpty()).isFalse();
@@ -44,13 +85,158 @@ public class AutosServiceTest {
     @Test
     public void getAutosWithColorAndMakeReturnsAutoList() {
         automobile.setColor("BLACK");
-        when(autosRepository.findAllByColorContainsIgnoreCaseAndMakeContainsIgnoreCase(anyString(), anyString())).thenReturn(Arrays.asList(automobile));
+        when(searchVocabulary.resolve("BLACK", "Toyota")).thenReturn(AutoFilter.of("BLACK", "Toyota"));
+        when(autosRepository.search(any(AutoFilter.class), anyLong(), anyInt())).thenReturn(Arrays.asList(automobile));
         AutoList autoList = autosService.getAutos("BLACK", "Toyota");
         assertThat(autoList).isNotNull();
         assertThat(autoList.isEmpty()).isFalse();
 
     }
 
+    @Test
+    public void getAutosWithBlankColorAndMakeSkipsSearch() {
+        when(searchVocabulary.resolve("", "")).thenReturn(AutoFilter.of("", ""));
+        when(autosRepository.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Pageable.class))).thenReturn(Arrays.asList(automobile));
+
+        AutoList autoList = autosService.getAutos("", "", null, 10);
+
+        assertThat(autoList.isEmpty()).isFalse();
+        verify(autosRepository, never()).search(any(AutoFilter.class), anyLong(), anyInt());
+    }
+
+    @Test
+    public void getAutosWithFieldsReturnsOnlyThoseFields() {
+        Tuple row = mock(Tuple.class);
+        when(row.get("vin")).thenReturn("AKS123");
+        when(row.get("make")).thenReturn("Toyota");
+        when(searchVocabulary.resolve("", "")).thenReturn(AutoFilter.of("", ""));
+        when(autosRepository.project(any(AutoFilter.class), eq(AutoSort.ID), isNull(), eq(11), eq(Set.of("vin", "make"))))
+                .thenReturn(List.of(row));
+
+        ProjectedAutoList autoList = autosService.getAutos("", "", "", null, null, "id", null, 10, List.of("vin", " make", "vin"));
+
+        assertThat(autoList.getAutomobiles()).containsExactly(Map.of("vin", "AKS123", "make", "Toyota"));
+        assertThat(autoList.getNext()).isNull();
+    }
+
+    @Test
+    public void getAutosWithUnknownFieldThrowsInvalidQueryEx() {
+        assertThrows(InvalidQueryException.class,
+                () -> autosService.getAutos("", "", "", null, null, "id", null, 10, List.of("vin", "price")));
+    }
+
+    @Test
+    public void getAutosWithFieldsAppliesTheYearRangeAndSort() {
+        Tuple first = mock(Tuple.class);
+        Tuple second = mock(Tuple.class);
+        when(first.get("vin")).thenReturn("AKS123");
+        when(second.get("vin")).thenReturn("AKS456");
+        when(second.get("year", Integer.class)).thenReturn(1999);
+        when(second.get("id", Long.class)).thenReturn(4L);
+        when(searchVocabulary.resolve("", "")).thenReturn(AutoFilter.of("", ""));
+        when(autosRepository.project(any(AutoFilter.class), eq(AutoSort.YEAR_DESC), isNull(), eq(3), eq(Set.of("vin"))))
+                .thenReturn(List.of(first, second, mock(Tuple.class)));
+
+        ProjectedAutoList autoList = autosService.getAutos("", "", "ford", 1990, 2000, "-year", null, 2, List.of("vin"));
+
+        ArgumentCaptor<AutoFilter> filter = ArgumentCaptor.forClass(AutoFilter.class);
+        verify(autosRepository).project(filter.capture(), eq(AutoSort.YEAR_DESC), isNull(), eq(3), eq(Set.of("vin")));
+        assertThat(filter.getValue().getExactMake()).isEqualTo("ford");
+        assertThat(filter.getValue().getMinYear()).isEqualTo(1990);
+        assertThat(filter.getValue().getMaxYear()).isEqualTo(2000);
+        AutoCursor.Position next = AutoCursor.decode(autoList.getNext(), AutoSort.YEAR_DESC);
+        assertThat(next.getYear()).isEqualTo(1999);
+        assertThat(next.getId()).isEqualTo(4L);
+    }
+
+    @Test
+    public void getAutosFullPageReturnsNextCursor() {
+        List<Automobile> rows = new ArrayList<>();
+        for (long i = 1; i <= 3; i++) {
+            Automobile auto = new Automobile(2000, "Toyota", "Venza", "AKS" + i);
+            auto.setId(i);
+            rows.add(auto);
+        }
+        when(autosRepository.findByIdGreaterThanOrderByIdAsc(eq(0L), eq(PageRequest.of(0, 3)))).thenReturn(rows);
+
+        AutoList autoList = autosService.getAutos(null, 2);
+
+        assertThat(autoList.getAutomobiles()).hasSize(2);
+        assertThat(AutoCursor.decode(autoList.getNext())).isEqualTo(2L);
+    }
+
+    @Test
+    public void getAutosDoesNotJoinAQueryStartedBeforeANewerRevisionWasRead() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger queries = new AtomicInteger();
+        when(autosRepository.findByIdGreaterThanOrderByIdAsc(eq(0L), any(Pageable.class))).thenAnswer(invocation -> {
+            if (queries.incrementAndGet() == 1) {
+                loading.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return List.of(automobile);
+        });
+        when(inventoryRevisions.latestRead()).thenReturn(1L);
+        CompletableFuture<AutoList> started = CompletableFuture.supplyAsync(() -> autosService.getAutos(null, 10));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Revision 2 committed, maybe on another instance, and this request has read it.
+        when(inventoryRevisions.latestRead()).thenReturn(2L);
+        AutoList fresh = autosService.getAutos(null, 10);
+        release.countDown();
+
+        assertThat(fresh.getAutomobiles()).hasSize(1);
+        assertThat(started.get(5, TimeUnit.SECONDS).getAutomobiles()).hasSize(1);
+        assertThat(queries).hasValue(2);
+    }
+
+    @Test
+    public void getAutosLastPageHasNoNextCursor() {
+        automobile.setId(7L);
+        when(autosRepository.findByIdGreaterThanOrderByIdAsc(eq(5L), any(Pageable.class))).thenReturn(Arrays.asList(automobile));
+
+        AutoList autoList = autosService.getAutos(AutoCursor.encode(5L), 2);
+
+        assertThat(autoList.getAutomobiles()).hasSize(1);
+        assertThat(autoList.getNext()).isNull();
+    }
+
+    @Test
+    public void getAutosSortedByYearCarriesYearInCursor() {
+        List<Automobile> rows = new ArrayList<>();
+        for (long i = 1; i <= 3; i++) {
+            Automobile auto = new Automobile(2010 + (int) i, "Toyota", "Venza", "AKS" + i);
+            auto.setId(i);
+            rows.add(auto);
+        }
+        when(searchVocabulary.resolve("", "")).thenReturn(AutoFilter.of("", ""));
+        when(autosRepository.search(any(AutoFilter.class), eq(AutoSort.YEAR), isNull(), eq(3))).thenReturn(rows);
+
+        AutoList autoList = autosService.getAutos("", "", "toyota", 2011, null, "year", null, 2);
+
+        AutoCursor.Position next = AutoCursor.decode(autoList.getNext(), AutoSort.YEAR);
+        assertThat(next.getYear()).isEqualTo(2012);
+        assertThat(next.getId()).isEqualTo(2L);
+        assertThrows(InvalidQueryException.class, () -> AutoCursor.decode(autoList.getNext(), AutoSort.YEAR_DESC));
+    }
+
+    @Test
+    public void getAutosWithInvertedYearRangeThrowsInvalidQueryEx() {
+        assertThrows(InvalidQueryException.class, () -> autosService.getAutos("", "", "", 2020, 2010, "id", null, 10));
+        assertThrows(InvalidQueryException.class, () -> autosService.getAutos("", "", "", null, null, "price", null, 10));
+    }
+
+    @Test
+    public void getAutosInvalidCursorThrowsInvalidQueryEx() {
+        assertThrows(InvalidQueryException.class, () -> autosService.getAutos("not a cursor", 10));
+    }
+
+    @Test
+    public void getAutosInvalidLimitThrowsInvalidQueryEx() {
+        assertThrows(InvalidQueryException.class, () -> autosService.getAutos(null, 0));
+    }
+
     @Test
     public void addAutoToDbReturnsAuto() {
         when(autosRepository.save(any(Automobile.class))).thenReturn(automobile);
@@ -59,6 +245,33 @@ public class AutosServiceTest {
         assertThat(addAuto.getMake()).isEqualTo("Toyota");
     }
 
+    @Test
+    public void addAutoRecordsCreatedChange() {
+        when(autosRepository.save(any(Automobile.class))).thenReturn(automobile);
+
+        autosService.addAuto(automobile);
+
+        verify(autosRepository).flush();
+        verify(inventoryRevisions).record(AutoChange.Type.CREATED, "AKS123", null, automobile);
+    }
+
+    @Test
+    public void addAutoDuplicateVinThrowsDuplicateAutoEx() {
+        when(autosRepository.save(any(Automobile.class))).thenThrow(new DataIntegrityViolationException("automobiles_vin_key"));
+        when(autosRepository.existsByVin("AKS123")).thenReturn(true);
+
+        assertThrows(DuplicateAutoException.class, () -> autosService.addAuto(new Automobile(2001, "Toyota", "Venza", " aks123 ")));
+        verify(inventoryRevisions, never()).record(any(), any(), any(), any());
+    }
+
+    @Test
+    public void addAutoOtherIntegrityViolationIsRethrown() {
+        when(autosRepository.save(any(Automobile.class))).thenThrow(new DataIntegrityViolationException("other"));
+        when(autosRepository.existsByVin(anyString())).thenReturn(false);
+
+        assertThrows(DataIntegrityViolationException.class, () -> autosService.addAuto(automobile));
+    }
+
     @Test
     public void addAutoInvalidAutoReturnsInvalidAutoEx() {
         assertThrows(InvalidAutoException.class, () ->{
@@ -68,7 +281,7 @@ public class AutosServiceTest {
 
     @Test
     public void getAutoByVinValidReturnsAuto() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(java.util.Optional.ofNullable(automobile));
+        when(autosRepository.findByVin(anyString())).thenReturn(java.util.Optional.ofNullable(automobile));
         Automobile auto = autosService.getAuto(automobile.getVin());
         assertThat(auto).isNotNull();
         assertThat(auto.getVin()).isEqualTo(automobile.getVin());
@@ -76,38 +289,180 @@ public class AutosServiceTest {
 
     @Test
     public void getAutoByVinInvalidReturnsEmptyAuto() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(Optional.empty());
+        when(autosRepository.findByVin(anyString())).thenReturn(Optional.empty());
         Automobile auto = autosService.getAuto(automobile.getVin());
         assertThat(auto.isEmpty()).isTrue();
     }
 
     @Test
-    public void updateAutoByVinValidReturnsAuto() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(Optional.ofNullable(automobile));
+    public void getAutoByVinServesRepeatLookupsFromCache() {
+        when(autosRepository.findByVin("AKS123")).thenReturn(Optional.of(automobile));
+
+        autosService.getAuto("AKS123");
+        Automobile auto = autosService.getAuto("aks123");
+
+        assertThat(auto.getVin()).isEqualTo("AKS123");
+        verify(autosRepository, times(1)).findByVin(anyString());
+        assertThat(vinCache.stats().hitCount()).isEqualTo(1);
+        assertThat(vinCache.stats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getAutoByVinCachesUnknownVins() {
+        when(autosRepository.findByVin(anyString())).thenReturn(Optional.empty());
+
+        autosService.getAuto("NOPE");
+        Automobile auto = autosService.getAuto("NOPE");
+
+        assertThat(auto.isEmpty()).isTrue();
+        verify(autosRepository, times(1)).findByVin(anyString());
+    }
+
+    @Test
+    public void addAutoInvalidatesCachedMiss() {
+        when(autosRepository.findByVin(anyString())).thenReturn(Optional.empty(), Optional.of(automobile));
         when(autosRepository.save(any(Automobile.class))).thenReturn(automobile);
+
+        assertThat(autosService.getAuto("AKS123").isEmpty()).isTrue();
+        autosService.addAuto(automobile);
+
+        assertThat(autosService.getAuto("AKS123").getVin()).isEqualTo("AKS123");
+    }
+
+    @Test
+    public void updateAutoInvalidatesCachedAuto() {
+        when(autosRepository.findByVin(anyString())).thenReturn(Optional.of(automobile));
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
+        autosService.getAuto("AKS123");
+
+        autosService.updateAuto("AKS123", "Christopher", "RED");
+        autosService.getAuto("AKS123");
+
+        verify(autosRepository, times(2)).findByVin(anyString());
+    }
+
+    @Test
+    public void deleteAutoInvalidatesCachedAuto() {
+        when(autosRepository.findByVin(anyString())).thenReturn(Optional.of(automobile), Optional.empty());
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
+        autosService.getAuto("AKS123");
+
+        autosService.deleteAuto("AKS123");
+
+        assertThat(autosService.getAuto("AKS123").isEmpty()).isTrue();
+    }
+
+    @Test
+    public void updateAutoByVinValidReturnsAuto() {
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
         Automobile auto = autosService.updateAuto(automobile.getVin(), "Christopher", "RED");
         assertThat(auto).isNotNull();
+        assertThat(auto.isEmpty()).isFalse();
     }
 
     @Test
     public void updateAutoByVinInvalidReturnsEmptyAuto() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(Optional.empty());
         Automobile auto = autosService.updateAuto(automobile.getVin(), "Christopher", "RED");
         assertThat(auto.isEmpty()).isTrue();
+        verify(autosRepository, never()).updateOwnerAndColor(anyString(), anyString(), anyString(), anyString(), any());
+        verify(inventoryRevisions, never()).record(any(), any(), any(), any());
+    }
+
+    @Test
+    public void updateAutoRespondsWithTheLockedRowUpdatedInsteadOfReadingItBack() {
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
+
+        Automobile auto = autosService.updateAuto("AKS123", "Christopher", "RED");
+
+        assertThat(auto.getOwner()).isEqualTo("Christopher");
+        assertThat(auto.getColor()).isEqualTo("RED");
+        assertThat(auto.getModel()).isEqualTo("Venza");
+        assertThat(auto.getVersion()).isEqualTo(5L);
+        verify(autosRepository).updateOwnerAndColor("AKS123", "Christopher", "RED", "red", auto.getUpdatedAt());
+        verify(autosRepository, never()).findByVin(anyString());
+        verify(inventoryRevisions).record(AutoChange.Type.UPDATED, "AKS123", automobile, auto);
+    }
+
+    @Test
+    public void getAutoOverlaysBufferedUpdate() {
+        when(autosRepository.findByVin("AKS123")).thenReturn(Optional.of(automobile));
+        Automobile pending = automobile.withOwnerAndColor("Christopher", "RED", Instant.EPOCH);
+        when(autosWriteBehind.overlay(automobile)).thenReturn(pending);
+
+        assertThat(autosService.getAuto("aks123")).isSameAs(pending);
+    }
+
+    @Test
+    public void acceptUpdateBuffersAndReturnsTheAutoAsItWillBe() {
+        when(autosRepository.findByVin("AKS123")).thenReturn(Optional.of(automobile));
+        when(autosWriteBehind.accept("AKS123", "Christopher", "RED")).thenReturn(Instant.EPOCH);
+
+        Automobile auto = autosService.acceptUpdate("aks123", "Christopher", "RED");
+
+        assertThat(auto.getOwner()).isEqualTo("Christopher");
+        assertThat(auto.getColor()).isEqualTo("RED");
+        assertThat(auto.getVersion()).isNull();
+        verify(autosRepository, never()).updateOwnerAndColor(anyString(), anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void acceptUpdateUnknownVinReturnsEmptyAuto() {
+        when(autosRepository.findByVin("NOPE")).thenReturn(Optional.empty());
+
+        assertThat(autosService.acceptUpdate("nope", "Christopher", "RED").isEmpty()).isTrue();
+        verify(autosWriteBehind, never()).accept(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void updateAutoWithVersionWhileUpdateIsBufferedThrowsVersionConflictEx() {
+        when(autosWriteBehind.isPending("AKS123")).thenReturn(true);
+
+        assertThrows(VersionConflictException.class, () -> autosService.updateAuto("AKS123", "Christopher", "RED", 4L));
+        verify(autosRepository, never()).findByVinForUpdate(anyString());
+    }
+
+    @Test
+    public void updateAutoWithCurrentVersionUpdatesThatVersion() {
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
+
+        Automobile auto = autosService.updateAuto("aks123", "Christopher", "RED", 4L);
+
+        assertThat(auto.getVin()).isEqualTo("AKS123");
+        assertThat(auto.getVersion()).isEqualTo(5L);
+    }
+
+    @Test
+    public void updateAutoWithStaleVersionThrowsVersionConflictEx() {
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
+
+        assertThrows(VersionConflictException.class, () -> autosService.updateAuto("AKS123", "Christopher", "RED", 3L));
+        verify(autosRepository, never()).updateOwnerAndColor(anyString(), anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void updateAutoWithVersionForUnknownVinReturnsEmptyAuto() {
+        assertThat(autosService.updateAuto("AKS123", "Christopher", "RED", 3L).isEmpty()).isTrue();
     }
 
     @Test
     public void deleteAutoByVinValid() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(Optional.ofNullable(automobile));
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
 
         autosService.deleteAuto(automobile.getVin());
-        verify(autosRepository).delete(any(Automobile.class));
+        verify(autosRepository).deleteVin("AKS123");
+        verify(inventoryRevisions).record(AutoChange.Type.DELETED, "AKS123", automobile, null);
     }
 
     @Test
-    public void deleteAutoByVinInvalid() {
-        when(autosRepository.findByVinIgnoreCase(anyString())).thenReturn(Optional.empty());
+    public void deleteAutoWithStaleVersionThrowsVersionConflictEx() {
+        when(autosRepository.findByVinForUpdate("AKS123")).thenReturn(Optional.of(automobile));
 
+        assertThrows(VersionConflictException.class, () -> autosService.deleteAuto("AKS123", 3L));
+        verify(autosRepository, never()).deleteVin(anyString());
+    }
+
+    @Test
+    public void deleteAutoByVinInvalid() {
         assertThrows(AutoNotFoundException.class, ()->{
            autosService.deleteAuto("badvin");
         });
@@ -0,0 +1,180 @@
+package com.galvanize.autos;
+
+import com.galvanize.autos.exceptions.InvalidAutoException;
+import com.galvanize.autos.exceptions.WriteBehindUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AutosWriteBehindTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private InventoryRevisions inventoryRevisions;
+
+    private AutosWriteBehind writeBehind;
+    private Automobile automobile;
+
+    @BeforeEach
+    public void setUp() {
+        // A flush window nobody waits for, so the tests decide when to flush.
+        writeBehind = new AutosWriteBehind(true, Duration.ofHours(1), 500, 2, Duration.ofMillis(50), 3,
+                jdbcTemplate, new TransactionTemplate(transactionManager), inventoryRevisions,
+                new VinCache(100, Duration.ofMinutes(5), Duration.ofSeconds(30)));
+        writeBehind.start();
+        automobile = new Automobile(2000, "Toyota", "Venza", "AKS123");
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        writeBehind.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flushWritesOnlyTheLastUpdatePerVinInOneBatch() {
+        when(jdbcTemplate.batchUpdate(startsWith("insert"), anyList())).thenReturn(new int[]{1, 1});
+        when(jdbcTemplate.batchUpdate(startsWith("update"), anyList())).thenReturn(new int[]{1, 1});
+        writeBehind.accept("AKS123", "Ann", "RED");
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+        writeBehind.accept("XYZ789", "Cy", "GOLD");
+
+        writeBehind.flush();
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("update"), rows.capture());
+        assertThat(rows.getValue()).hasSize(2);
+        assertThat(rows.getValue().get(0)).startsWith("Bob", "BLUE", "blue");
+        ArgumentCaptor<List<Object[]>> changes = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("insert into auto_changes"), changes.capture());
+        assertThat(changes.getValue().get(0)).contains("blue", "AKS123");
+        verify(inventoryRevisions, times(1)).recordBatch(anyString());
+        assertThat(writeBehind.isPending("AKS123")).isFalse();
+    }
+
+    @Test
+    public void overlayAppliesTheBufferedUpdateUntilFlushed() {
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+
+        Automobile pending = writeBehind.overlay(automobile);
+
+        assertThat(pending.getOwner()).isEqualTo("Bob");
+        assertThat(pending.getColor()).isEqualTo("BLUE");
+        assertThat(automobile.getOwner()).isNull();
+
+        writeBehind.flush();
+        assertThat(writeBehind.overlay(automobile)).isSameAs(automobile);
+    }
+
+    @Test
+    public void acceptWhenFullOfOtherVinsThrowsAfterTimeout() {
+        writeBehind.accept("A1", "Ann", "RED");
+        writeBehind.accept("A2", "Ann", "RED");
+
+        writeBehind.accept("A1", "Bob", "BLUE");
+        assertThrows(WriteBehindUnavailableException.class, () -> writeBehind.accept("A3", "Ann", "RED"));
+    }
+
+    @Test
+    public void flushThatCannotReachTheDatabaseKeepsTheBatchForTheNextOne() {
+        when(jdbcTemplate.batchUpdate(startsWith("insert"), anyList())).thenReturn(new int[]{1});
+        when(jdbcTemplate.batchUpdate(startsWith("update"), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"))
+                .thenReturn(new int[]{1});
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+
+        assertThrows(DataAccessResourceFailureException.class, () -> writeBehind.flush());
+        assertThat(writeBehind.isPending("AKS123")).isTrue();
+
+        writeBehind.flush();
+        assertThat(writeBehind.isPending("AKS123")).isFalse();
+    }
+
+    @Test
+    public void failedBatchIsWrittenOneAtATimeAndDropsTheRowThatCannotBe() {
+        when(jdbcTemplate.batchUpdate(startsWith("insert"), anyList())).thenReturn(new int[]{1});
+        when(jdbcTemplate.batchUpdate(startsWith("update"), anyList()))
+                .thenThrow(new DataIntegrityViolationException("check constraint"))
+                .thenReturn(new int[]{1})
+                .thenThrow(new DataIntegrityViolationException("check constraint"));
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+        writeBehind.accept("XYZ789", "Cy", "GOLD");
+
+        writeBehind.flush();
+
+        verify(inventoryRevisions, times(1)).recordBatch(anyString());
+        assertThat(writeBehind.isPending("AKS123")).isFalse();
+        assertThat(writeBehind.isPending("XYZ789")).isFalse();
+    }
+
+    @Test
+    public void anAutoChangedDuringTheFlushIsLeftForTheNextOne() {
+        when(jdbcTemplate.batchUpdate(startsWith("insert"), anyList())).thenReturn(new int[]{1, 1}, new int[]{1});
+        when(jdbcTemplate.batchUpdate(startsWith("update"), anyList()))
+                .thenReturn(new int[]{1, 0})
+                .thenReturn(new int[]{1})
+                .thenReturn(new int[]{0});
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+        writeBehind.accept("XYZ789", "Cy", "GOLD");
+
+        writeBehind.flush();
+
+        verify(inventoryRevisions, times(1)).recordBatch(anyString());
+        assertThat(writeBehind.isPending("AKS123")).isFalse();
+        assertThat(writeBehind.isPending("XYZ789")).isTrue();
+    }
+
+    @Test
+    public void acceptRejectsAnOwnerTooLongForItsColumn() {
+        assertThrows(InvalidAutoException.class, () -> writeBehind.accept("AKS123", "x".repeat(256), "RED"));
+        assertThat(writeBehind.isPending("AKS123")).isFalse();
+    }
+
+    @Test
+    public void stopFlushesWhatIsBufferedAndRefusesMore() throws InterruptedException {
+        writeBehind.accept("AKS123", "Bob", "BLUE");
+
+        writeBehind.stop();
+
+        verify(inventoryRevisions).recordBatch(anyString());
+        assertThrows(WriteBehindUnavailableException.class, () -> writeBehind.accept("AKS123", "Cy", "GOLD"));
+    }
+
+    @Test
+    public void disabledBufferLeavesAutosAlone() {
+        AutosWriteBehind disabled = new AutosWriteBehind(false, Duration.ofMillis(100), 500, 2, Duration.ofMillis(50), 3,
+                jdbcTemplate, new TransactionTemplate(transactionManager), inventoryRevisions,
+                new VinCache(100, Duration.ofMinutes(5), Duration.ofSeconds(30)));
+
+        assertThat(disabled.overlay(automobile)).isSameAs(automobile);
+        assertThat(disabled.isPending("AKS123")).isFalse();
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+}
@@ -0,0 +1,89 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CsvRecordReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void nextReadsQuotedFieldsAndCrlf() throws IOException {
+        Path file = write("vin,model\r\n\"AB,1\",\"Say \"\"hi\"\"\r\nthere\"\r\nCD2,\n");
+
+        assertThat(readAll(file, CsvRecordReader.WINDOW)).containsExactly(
+                List.of("vin", "model"),
+                List.of("AB,1", "Say \"hi\"\r\nthere"),
+                List.of("CD2", ""));
+    }
+
+    @Test
+    public void nextReadsTheLastRecordWithoutALineBreak() throws IOException {
+        Path file = write("a,b\nc,d");
+
+        assertThat(readAll(file, CsvRecordReader.WINDOW)).containsExactly(List.of("a", "b"), List.of("c", "d"));
+    }
+
+    @Test
+    public void nextReadsRecordsAcrossWindows() throws IOException {
+        Path file = write("vin,make\nAAA111,\"To\"\"yota\"\r\nBBB222,Ford\r\n");
+
+        assertThat(readAll(file, 20)).containsExactly(
+                List.of("vin", "make"),
+                List.of("AAA111", "To\"yota"),
+                List.of("BBB222", "Ford"));
+    }
+
+    @Test
+    public void nextRejectsARecordLongerThanTheWindow() throws IOException {
+        Path file = write("0123456789,0123456789\n");
+
+        try (CsvRecordReader reader = new CsvRecordReader(file, 8)) {
+            assertThatThrownBy(reader::next).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    public void seekResumesAtACheckpointedOffset() throws IOException {
+        Path file = write("vin\nAAA\nBBB\nCCC\n");
+        long offset;
+        try (CsvRecordReader reader = new CsvRecordReader(file)) {
+            reader.next();
+            reader.next();
+            offset = reader.offset();
+        }
+
+        try (CsvRecordReader reader = new CsvRecordReader(file)) {
+            reader.seek(offset);
+            assertThat(reader.next()).containsExactly("BBB");
+            assertThat(reader.next()).containsExactly("CCC");
+            assertThat(reader.next()).isNull();
+        }
+    }
+
+    private Path write(String csv) throws IOException {
+        return Files.write(dir.resolve("autos.csv"), csv.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<List<String>> readAll(Path file, int window) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvRecordReader reader = new CsvRecordReader(file, window)) {
+            List<String> record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
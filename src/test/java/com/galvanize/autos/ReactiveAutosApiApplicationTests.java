@@ -0,0 +1,172 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.main.web-application-type=reactive",
+		"spring.datasource.url=jdbc:h2:mem:reactive;DB_CLOSE_DELAY=-1",
+		"autos.reactive.r2dbc.url=r2dbc:h2:mem:///reactive",
+		// Buffered updates stay buffered for the length of a test.
+		"autos.write-behind.enabled=true",
+		"autos.write-behind.flush-window=1h"
+})
+@ActiveProfiles({"test", "reactive"})
+class ReactiveAutosApiApplicationTests {
+
+	@Autowired
+	private WebTestClient webTestClient;
+	@Autowired
+	private AutosRepository autosRepository;
+	@Autowired
+	private AutoChangeRepository autoChangeRepository;
+	@Autowired
+	private AutosWriteBehind autosWriteBehind;
+
+	@BeforeEach
+	public void setUp() {
+		String[] makes = new String[]{"Ford", "Toyota", "Honda", "Tesla"};
+		List<Automobile> autos = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			Automobile auto = new Automobile(1990 + i % 30, makes[i % 4], "Model", "AABBCC" + i);
+			auto.setColor(i % 2 == 0 ? "RED" : "BLUE");
+			autos.add(auto);
+		}
+		autosRepository.saveAll(autos);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		autosWriteBehind.flush();
+		autosRepository.deleteAll();
+	}
+
+	@Test
+	public void getAutosPagesThroughEveryAutoOnce() {
+		AutoList first = webTestClient.get().uri("/api/autos?limit=30").exchange()
+				.expectStatus().isOk()
+				.expectBody(AutoList.class).returnResult().getResponseBody();
+		AutoList second = webTestClient.get().uri("/api/autos?limit=30&after=" + first.getNext()).exchange()
+				.expectStatus().isOk()
+				.expectBody(AutoList.class).returnResult().getResponseBody();
+
+		assertThat(first.getAutomobiles()).hasSize(30);
+		assertThat(second.getAutomobiles()).hasSize(20);
+		assertThat(second.getNext()).isNull();
+	}
+
+	@Test
+	public void getAutosByMakeAndColorReturnsMatchingAutos() {
+		AutoList autoList = webTestClient.get().uri("/api/autos?make=yot&color=red").exchange()
+				.expectStatus().isOk()
+				.expectBody(AutoList.class).returnResult().getResponseBody();
+
+		assertThat(autoList.getAutomobiles()).isNotEmpty()
+				.allSatisfy(auto -> {
+					assertThat(auto.getMake()).isEqualTo("Toyota");
+					assertThat(auto.getColor()).isEqualTo("RED");
+				});
+	}
+
+	@Test
+	public void getAutosByExactMakeAndYearKeepsTheRefinements() {
+		AutoList autoList = webTestClient.get().uri("/api/autos?makeExact=ford&minYear=2010&sort=-year").exchange()
+				.expectStatus().isOk()
+				.expectBody(AutoList.class).returnResult().getResponseBody();
+
+		assertThat(autoList.getAutomobiles()).extracting(Automobile::getYear).containsExactly(2018, 2014, 2010);
+		webTestClient.get().uri("/api/autos?makeExact=ford&minYear=2010&fields=vin,year").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.automobiles.length()").isEqualTo(3)
+				.jsonPath("$.automobiles[0].make").doesNotExist();
+	}
+
+	@Test
+	public void getAutosStreamsNdjson() {
+		List<Automobile> streamed = webTestClient.get().uri("/api/autos?limit=10")
+				.accept(MediaType.APPLICATION_NDJSON).exchange()
+				.expectStatus().isOk()
+				.returnResult(Automobile.class).getResponseBody()
+				.collectList().block();
+
+		assertThat(streamed).hasSize(10);
+	}
+
+	@Test
+	public void getAutoByVinReturnsAutoWithETag() {
+		webTestClient.get().uri("/api/autos/aabbcc7").exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("ETag", "\"0\"")
+				.expectBody().jsonPath("$.vin").isEqualTo("AABBCC7");
+	}
+
+	@Test
+	public void getAutosWithIfNoneMatchReturns304() {
+		String etag = webTestClient.get().uri("/api/autos").exchange()
+				.expectStatus().isOk()
+				.returnResult(AutoList.class).getResponseHeaders().getETag();
+
+		webTestClient.get().uri("/api/autos").ifNoneMatch(etag).exchange()
+				.expectStatus().isNotModified();
+	}
+
+	@Test
+	public void getAutoByUnknownVinReturns204() {
+		webTestClient.get().uri("/api/autos/NOPE").exchange()
+				.expectStatus().isNoContent();
+	}
+
+	@Test
+	public void getAutoShowsAnUpdateStillInTheWriteBehindBuffer() {
+		webTestClient.patch().uri("/api/autos/AABBCC5")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"owner\":\"Joe\",\"color\":\"Teal\"}")
+				.exchange()
+				.expectStatus().isAccepted();
+
+		Automobile auto = webTestClient.get().uri("/api/autos/AABBCC5").exchange()
+				.expectStatus().isOk()
+				.expectBody(Automobile.class).returnResult().getResponseBody();
+
+		assertThat(auto.getOwner()).isEqualTo("Joe");
+		assertThat(auto.getColor()).isEqualTo("Teal");
+		assertThat(autosRepository.findByVin("AABBCC5")).get().extracting(Automobile::getOwner).isNull();
+	}
+
+	@Test
+	public void deleteThenGetReturns204() {
+		webTestClient.delete().uri("/api/autos/AABBCC3").exchange()
+				.expectStatus().isAccepted();
+		webTestClient.get().uri("/api/autos/AABBCC3").exchange()
+				.expectStatus().isNoContent();
+	}
+
+	@Test
+	public void changesReplayADeleteAfterLastEventId() {
+		long before = autoChangeRepository.findAll().stream().mapToLong(AutoChange::getSeq).max().orElse(0);
+		webTestClient.delete().uri("/api/autos/AABBCC4").exchange()
+				.expectStatus().isAccepted();
+
+		String event = webTestClient.get().uri("/api/autos/changes")
+				.header("Last-Event-ID", String.valueOf(before))
+				.accept(MediaType.TEXT_EVENT_STREAM).exchange()
+				.expectStatus().isOk()
+				.returnResult(String.class).getResponseBody()
+				.blockFirst(Duration.ofSeconds(10));
+
+		assertThat(event).contains("\"type\":\"DELETED\"").contains("\"vin\":\"AABBCC4\"");
+	}
+}
@@ -0,0 +1,88 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two in-memory H2 databases stand in for a primary and a replica that hasn't caught up.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.datasource.url=jdbc:h2:mem:rwprimary;DB_CLOSE_DELAY=-1",
+		"autos.datasource.replicas.urls=" + ReadReplicaApplicationTests.REPLICA_URL,
+		"autos.reactive.r2dbc.url=r2dbc:h2:mem:///rwprimary"
+})
+@ActiveProfiles("test")
+class ReadReplicaApplicationTests {
+
+	static final String REPLICA_URL = "jdbc:h2:mem:rwreplica;DB_CLOSE_DELAY=-1";
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private AutosRepository autosRepository;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		Path schema = Files.createTempFile("autos-schema", ".sql");
+		jdbcTemplate.execute("script nodata to '" + schema + "'");
+		JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "h2user", "supersecretpassword"));
+		replica.execute("drop all objects");
+		replica.execute("runscript from '" + schema + "'");
+		Files.delete(schema);
+
+		autosRepository.save(new Automobile(2001, "Ford", "Fusion", "PRIMARY1"));
+		replica.update("insert into automobiles (id, year, make, model, vin, make_normalized, version) " +
+				"values (1000, 1999, 'Honda', 'Accord', 'REPLICA1', 'honda', 0)");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		autosRepository.deleteAll();
+	}
+
+	@Test
+	public void getAutosReadsFromReplica() {
+		ResponseEntity<AutoList> response = restTemplate.getForEntity("/api/autos", AutoList.class);
+
+		assertThat(response.getBody().getAutomobiles()).extracting(Automobile::getVin).containsExactly("REPLICA1");
+	}
+
+	@Test
+	public void clientReadsItsOwnWritesFromPrimary() {
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		ResponseEntity<Automobile> posted = restTemplate.postForEntity("/api/autos",
+				new HttpEntity<>("{\"year\":2020,\"make\":\"Kia\",\"model\":\"Soul\",\"vin\":\"NEW1\"}", httpHeaders), Automobile.class);
+		String cookie = posted.getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+
+		HttpHeaders withCookie = new HttpHeaders();
+		withCookie.add(HttpHeaders.COOKIE, cookie.split(";")[0]);
+		ResponseEntity<AutoList> response = restTemplate.exchange("/api/autos", HttpMethod.GET, new HttpEntity<>(withCookie), AutoList.class);
+
+		assertThat(cookie).startsWith(DataSourceRoutingConfig.READ_YOUR_WRITES_COOKIE + "=");
+		assertThat(response.getBody().getAutomobiles()).extracting(Automobile::getVin).containsExactly("PRIMARY1", "NEW1");
+	}
+
+	@Test
+	public void routingDecisionsAreMetered() {
+		restTemplate.getForEntity("/api/autos", AutoList.class);
+
+		ResponseEntity<String> routes = restTemplate.getForEntity("/actuator/metrics/autos.datasource.routes?tag=target:replica", String.class);
+
+		assertThat(routes.getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+}
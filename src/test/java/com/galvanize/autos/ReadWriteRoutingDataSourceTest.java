@@ -0,0 +1,125 @@
+package com.galvanize.autos;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ReadWriteRoutingDataSourceTest {
+
+    @Mock
+    private DataSource primary;
+    @Mock
+    private DataSource first;
+    @Mock
+    private DataSource second;
+
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replicaConnection = mock(Connection.class);
+    private MeterRegistry meterRegistry;
+    private ReadWriteRoutingDataSource routing;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        routing = new ReadWriteRoutingDataSource(primary, List.of(first, second), Duration.ofSeconds(30), meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReadWriteRoutingDataSource.reset();
+    }
+
+    @Test
+    public void writesGoToPrimary() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+
+        assertThat(routing.getConnection()).isSameAs(primaryConnection);
+        assertThat(count("primary", "write")).isEqualTo(1);
+    }
+
+    @Test
+    public void readsStickToTheReplicaTheyFirstPicked() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        when(first.getConnection()).thenReturn(replicaConnection);
+
+        routing.getConnection();
+        routing.getConnection();
+
+        verify(first, times(2)).getConnection();
+        verify(second, never()).getConnection();
+        assertThat(count("replica", "read")).isEqualTo(2);
+    }
+
+    @Test
+    public void pinnedReadsGoToPrimary() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReadWriteRoutingDataSource.pinToPrimary();
+        when(primary.getConnection()).thenReturn(primaryConnection);
+
+        assertThat(routing.getConnection()).isSameAs(primaryConnection);
+        assertThat(count("primary", "read-your-writes")).isEqualTo(1);
+    }
+
+    @Test
+    public void unavailableReplicaIsSkippedUntilRetry() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        when(first.getConnection()).thenThrow(new SQLException("down"));
+        when(second.getConnection()).thenReturn(replicaConnection);
+
+        routing.getConnection();
+        ReadWriteRoutingDataSource.reset();
+        routing.getConnection();
+
+        verify(first, times(1)).getConnection();
+        verify(second, times(2)).getConnection();
+    }
+
+    @Test
+    public void readsFallBackToPrimaryWhenNoReplicaIsUp() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        when(first.getConnection()).thenThrow(new SQLException("down"));
+        when(second.getConnection()).thenThrow(new SQLException("down"));
+        when(primary.getConnection()).thenReturn(primaryConnection);
+
+        assertThat(routing.getConnection()).isSameAs(primaryConnection);
+        assertThat(count("primary", "replica-unavailable")).isEqualTo(1);
+    }
+
+    @Test
+    public void closeClosesTheReplicasButNotThePrimary() throws IOException {
+        HikariDataSource replica = mock(HikariDataSource.class);
+        HikariDataSource primaryPool = mock(HikariDataSource.class);
+
+        new ReadWriteRoutingDataSource(primaryPool, List.of(replica), Duration.ofSeconds(30), meterRegistry).close();
+
+        verify(replica).close();
+        verify(primaryPool, never()).close();
+    }
+
+    private double count(String target, String reason) {
+        return meterRegistry.get(ReadWriteRoutingDataSource.ROUTES).tag("target", target).tag("reason", reason).counter().count();
+    }
+}
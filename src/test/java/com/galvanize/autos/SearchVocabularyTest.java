@@ -0,0 +1,137 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchVocabularyTest {
+
+    private static final Instant NOW = Instant.parse("2021-09-01T00:00:00Z");
+
+    @Mock
+    private AutosRepository autosRepository;
+    @Mock
+    private AutoChangeRepository autoChangeRepository;
+    @Mock
+    private InventoryRevisions inventoryRevisions;
+
+    private SearchVocabulary searchVocabulary;
+
+    @BeforeEach
+    public void setUp() {
+        searchVocabulary = new SearchVocabulary(autosRepository, autoChangeRepository, inventoryRevisions,
+                Duration.ofSeconds(30), Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void resolveTurnsTermsIntoKnownValuesContainingThem() {
+        when(autosRepository.findDistinctMakeNormalized(any(Pageable.class))).thenReturn(Arrays.asList("ford", "toyota", "rivian"));
+        when(autosRepository.findDistinctColorNormalized(any(Pageable.class))).thenReturn(Arrays.asList("red", "dark red", "blue"));
+
+        AutoFilter filter = searchVocabulary.resolve("RED", "Toy");
+
+        assertThat(filter.getColor()).isEqualTo("red");
+        assertThat(filter.getColorCandidates()).containsExactlyInAnyOrder("red", "dark red");
+        assertThat(filter.getMakeCandidates()).containsExactly("toyota");
+    }
+
+    @Test
+    public void resolveUnknownTermFallsBackToSubstringSearch() {
+        when(autosRepository.findDistinctMakeNormalized(any(Pageable.class))).thenReturn(Arrays.asList("ford"));
+        when(autosRepository.findDistinctColorNormalized(any(Pageable.class))).thenReturn(Collections.emptyList());
+
+        AutoFilter filter = searchVocabulary.resolve("", "kia");
+
+        assertThat(filter.getMake()).isEqualTo("kia");
+        assertThat(filter.getMakeCandidates()).isNull();
+        assertThat(filter.getColor()).isNull();
+    }
+
+    @Test
+    public void resolveWithoutTermsNeverLoadsVocabulary() {
+        AutoFilter filter = searchVocabulary.resolve("%", " ");
+
+        assertThat(filter.isEmpty()).isTrue();
+        verifyNoInteractions(autosRepository);
+    }
+
+    @Test
+    public void resolveReloadsOnceAChangeBringsAColorTheListHasNotSeen() {
+        when(inventoryRevisions.current()).thenReturn(Optional.of(new InventoryRevision(1, NOW)));
+        when(autosRepository.findDistinctMakeNormalized(any(Pageable.class))).thenReturn(Arrays.asList("ford"));
+        when(autosRepository.findDistinctColorNormalized(any(Pageable.class)))
+                .thenReturn(Arrays.asList("red"), Arrays.asList("red", "dark red"));
+        assertThat(searchVocabulary.resolve("red", "").getColorCandidates()).containsExactly("red");
+
+        // Another instance has since painted an auto "dark red", which this list has never seen.
+        when(autoChangeRepository.findAfter(AutoChange.Position.afterRevision(1), SearchVocabulary.MAX_CHANGES + 1))
+                .thenReturn(List.of(change(2, AutoChange.Type.UPDATED, "ford", "red", "dark red")));
+        AutoFilter filter = searchVocabulary.resolve("red", "");
+
+        assertThat(filter.getColorCandidates()).containsExactlyInAnyOrder("red", "dark red");
+        verify(autosRepository, times(2)).findDistinctColorNormalized(any(Pageable.class));
+    }
+
+    @Test
+    public void resolveMovesPastChangesWithKnownValues() {
+        when(autosRepository.findDistinctMakeNormalized(any(Pageable.class))).thenReturn(Arrays.asList("ford"));
+        when(autosRepository.findDistinctColorNormalized(any(Pageable.class))).thenReturn(Arrays.asList("red", "blue"));
+        when(autoChangeRepository.findAfter(any(AutoChange.Position.class), anyInt()))
+                .thenReturn(List.of(
+                        change(1, AutoChange.Type.CREATED, "ford", null, "red"),
+                        change(2, AutoChange.Type.UPDATED, "ford", "red", "blue"),
+                        change(3, AutoChange.Type.DELETED, "toyota", "green", null)))
+                .thenReturn(List.of());
+
+        assertThat(searchVocabulary.resolve("red", "").getColorCandidates()).containsExactly("red");
+        assertThat(searchVocabulary.resolve("blue", "").getColorCandidates()).containsExactly("blue");
+
+        verify(autosRepository, times(1)).findDistinctColorNormalized(any(Pageable.class));
+        verify(autoChangeRepository).findAfter(AutoChange.Position.afterRevision(0), SearchVocabulary.MAX_CHANGES + 1);
+        verify(autoChangeRepository).findAfter(AutoChange.Position.of(change(3, AutoChange.Type.DELETED, "toyota", "green", null)),
+                SearchVocabulary.MAX_CHANGES + 1);
+    }
+
+    @Test
+    public void oversizedVocabularyIsNotUsed() {
+        String[] makes = new String[SearchVocabulary.MAX_TERMS + 1];
+        for (int i = 0; i < makes.length; i++) {
+            makes[i] = "make" + i;
+        }
+        when(autosRepository.findDistinctMakeNormalized(any(Pageable.class))).thenReturn(Arrays.asList(makes));
+        when(autosRepository.findDistinctColorNormalized(any(Pageable.class))).thenReturn(Collections.emptyList());
+
+        AutoFilter filter = searchVocabulary.resolve("", "make1");
+
+        assertThat(filter.getMakeCandidates()).isNull();
+    }
+
+    private static AutoChange change(long seq, AutoChange.Type type, String make, String colorBefore, String colorAfter) {
+        AutoChange change = new AutoChange(type, "VIN" + seq, 1L, NOW, make, 2020, colorBefore, colorAfter);
+        ReflectionTestUtils.setField(change, "seq", seq);
+        ReflectionTestUtils.setField(change, "revision", seq);
+        return change;
+    }
+}
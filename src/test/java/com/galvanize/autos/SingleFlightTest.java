@@ -0,0 +1,96 @@
+package com.galvanize.autos;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+
+    @Test
+    public void concurrentCallersForOneKeyShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Object result = new Object();
+
+        CompletableFuture<Object> leader = CompletableFuture.supplyAsync(() -> singleFlight.get("ford", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return result;
+        }));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Object> follower = CompletableFuture.supplyAsync(() -> singleFlight.get("ford", () -> {
+            loads.incrementAndGet();
+            return new Object();
+        }));
+        waitUntilShared(1);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isSameAs(result);
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isSameAs(result);
+        assertThat(loads).hasValue(1);
+        assertThat(singleFlight.loads()).isEqualTo(1);
+    }
+
+    @Test
+    public void followersGetTheLoadersException() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Object> leader = CompletableFuture.supplyAsync(() -> singleFlight.get("ford", () -> {
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("database down");
+        }));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Object> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.get("ford", Object::new);
+            } catch (IllegalStateException e) {
+                return e;
+            }
+        });
+        waitUntilShared(1);
+        release.countDown();
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isInstanceOf(IllegalStateException.class);
+        assertThat(leader).failsWithin(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void completedLoadsAreNotKept() {
+        Object first = singleFlight.get("ford", Object::new);
+
+        assertThat(singleFlight.get("ford", Object::new)).isNotSameAs(first);
+        assertThrows(IllegalArgumentException.class, () -> singleFlight.get("ford", () -> {
+            throw new IllegalArgumentException();
+        }));
+        assertThat(singleFlight.loads()).isEqualTo(3);
+        assertThat(singleFlight.shared()).isZero();
+    }
+
+    private void waitUntilShared(long callers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.shared() < callers && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(singleFlight.shared()).isEqualTo(callers);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}